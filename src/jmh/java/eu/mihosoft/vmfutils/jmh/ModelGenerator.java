@@ -0,0 +1,136 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import eu.mihosoft.vmfutils.Group;
+import eu.mihosoft.vmfutils.Node;
+
+/**
+ * Generates synthetic models based on the test model ({@code Group}/{@code Node}).
+ *
+ * The generated tree has the requested number of leaf nodes, distributed over
+ * groups that are nested up to the requested depth. Names, pressures and tags
+ * are random but reproducible (fixed seed):
+ *
+ * <ul>
+ *   <li>names: {@code valve-<i>} (50%), {@code pump-<i>} (30%), {@code tank-<i>} (20%)</li>
+ *   <li>pressure: uniformly distributed in [0,400)</li>
+ *   <li>tags: 0 to 4 tags out of a pool of {@link #TAG_POOL_SIZE} tags, the
+ *       tag {@code print-head} is assigned to 25% of the nodes</li>
+ * </ul>
+ */
+public final class ModelGenerator {
+
+    public static final int TAG_POOL_SIZE = 64;
+
+    private final Random rnd;
+    private final int size;
+    private final int depth;
+    private final List<Node> nodes = new ArrayList<>();
+
+    private ModelGenerator(int size, int depth, long seed) {
+        this.size = size;
+        this.depth = Math.max(1, depth);
+        this.rnd = new Random(seed);
+    }
+
+    /**
+     * Generates a model with the specified number of leaf nodes and depth.
+     * @param size number of leaf nodes
+     * @param depth depth of the group hierarchy (1 means that all nodes are
+     *              children of the root)
+     * @return the root of the generated model
+     */
+    public static Group generate(int size, int depth) {
+        return new ModelGenerator(size, depth, 42).generate();
+    }
+
+    /**
+     * Generates a model and returns the leaf nodes of the model.
+     * @param size number of leaf nodes
+     * @param depth depth of the group hierarchy
+     * @param nodes list that receives the generated leaf nodes
+     * @return the root of the generated model
+     */
+    public static Group generate(int size, int depth, List<Node> nodes) {
+        ModelGenerator generator = new ModelGenerator(size, depth, 42);
+        Group root = generator.generate();
+        nodes.addAll(generator.nodes);
+        return root;
+    }
+
+    /**
+     * Creates a random leaf node.
+     * @param rnd random generator
+     * @param i index of the node (used for the name)
+     * @return new node
+     */
+    public static Node newNode(Random rnd, int i) {
+        int kind = rnd.nextInt(10);
+        String prefix = kind < 5 ? "valve-" : kind < 8 ? "pump-" : "tank-";
+
+        Node node = Node.newBuilder().withName(prefix + i).
+            withPressure(rnd.nextDouble() * 400.0).build();
+
+        int numTags = rnd.nextInt(5);
+        for(int t = 0; t < numTags; t++) {
+            node.getTags().add("tag-" + rnd.nextInt(TAG_POOL_SIZE));
+        }
+
+        if(rnd.nextInt(4) == 0) {
+            node.getTags().add("print-head");
+        }
+
+        return node;
+    }
+
+    private Group generate() {
+        Group root = Group.newBuilder().withName("root").build();
+
+        // branching factor of the groups so that the leaf level has roughly
+        // 'size' slots
+        int branching = Math.max(2,
+            (int) Math.ceil(Math.pow(size, 1.0 / depth)));
+
+        List<Group> level = new ArrayList<>();
+        level.add(root);
+
+        for(int d = 1; d < depth; d++) {
+            List<Group> next = new ArrayList<>();
+            for(Group parent : level) {
+                for(int b = 0; b < branching; b++) {
+                    Group g = Group.newBuilder().
+                        withName("group-" + d + "-" + next.size()).build();
+                    parent.getNodes().add(g);
+                    next.add(g);
+                }
+            }
+            level = next;
+        }
+
+        for(int i = 0; i < size; i++) {
+            Node node = newNode(rnd, i);
+            level.get(i % level.size()).getNodes().add(node);
+            nodes.add(node);
+        }
+
+        return root;
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.mihosoft.vmfutils.Group;
+import eu.mihosoft.vmfutils.PropSelector;
+import eu.mihosoft.vmfutils.Selector;
+
+/**
+ * Counts the matches of selectors with a single property condition. There is
+ * one benchmark per predicate kind of the {@code *PropSelector} classes.
+ *
+ * The test model has no integer property, IntegerPropSelector shares the
+ * interval implementation with DoublePropSelector.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropSelectorBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    private Group root;
+
+    private Selector valueIsEqualTo;
+    private Selector valueMatches;
+    private Selector startsWith;
+    private Selector endsWith;
+    private Selector contains;
+    private Selector matchesPattern;
+    private Selector greaterThan;
+    private Selector range;
+    private Selector whichContains;
+    private Selector whichOnlyContains;
+    private Selector allElementsComplyTo;
+    private Selector atLeastOneElementCompliesTo;
+
+    @Setup
+    public void setup() {
+        root = ModelGenerator.generate(size, 2);
+
+        valueIsEqualTo = select(Selector.selectStringProp().withName("name").
+            withValueThatIsEqualTo("valve-42"));
+        valueMatches = select(Selector.selectDoubleProp().withName("pressure").
+            withValueThatMatches((Double p) -> p > 100.0));
+        startsWith = select(Selector.selectStringProp().withName("name").
+            withValueThatStartsWith("valve"));
+        endsWith = select(Selector.selectStringProp().withName("name").
+            withValueThatEndsWith("-42"));
+        contains = select(Selector.selectStringProp().withName("name").
+            withValueThatContains("lve-4"));
+        matchesPattern = select(Selector.selectStringProp().withName("name").
+            withValueThatMatches("valve-[0-9]*7"));
+        greaterThan = select(Selector.selectDoubleProp().withName("pressure").
+            withValueThatIsGreaterThan(100.0));
+        range = select(Selector.selectDoubleProp().withName("pressure").
+            withValueThatIsGreaterThan(100.0).
+            withValueThatIsLessThanOrEqualTo(200.0));
+        whichContains = select(Selector.selectListProp().withName("tags").
+            whichContains("print-head", "tag-1"));
+        whichOnlyContains = select(Selector.selectListProp().withName("tags").
+            whichOnlyContains("print-head"));
+        allElementsComplyTo = select(Selector.selectListProp().withName("tags").
+            withAllElementsComplyTo((String t) -> t.startsWith("tag-")));
+        atLeastOneElementCompliesTo = select(Selector.selectListProp().withName("tags").
+            withAtLeastOnElementCompliesTo((String t) -> t.equals("print-head")));
+    }
+
+    private static Selector select(PropSelector propSel) {
+        return Selector.selectObject().withProperty(propSel);
+    }
+
+    @Benchmark
+    public long valueIsEqualTo() {
+        return valueIsEqualTo.count(root);
+    }
+
+    @Benchmark
+    public long valueMatches() {
+        return valueMatches.count(root);
+    }
+
+    @Benchmark
+    public long startsWith() {
+        return startsWith.count(root);
+    }
+
+    @Benchmark
+    public long endsWith() {
+        return endsWith.count(root);
+    }
+
+    @Benchmark
+    public long contains() {
+        return contains.count(root);
+    }
+
+    @Benchmark
+    public long matchesPattern() {
+        return matchesPattern.count(root);
+    }
+
+    @Benchmark
+    public long greaterThan() {
+        return greaterThan.count(root);
+    }
+
+    @Benchmark
+    public long range() {
+        return range.count(root);
+    }
+
+    @Benchmark
+    public long whichContains() {
+        return whichContains.count(root);
+    }
+
+    @Benchmark
+    public long whichOnlyContains() {
+        return whichOnlyContains.count(root);
+    }
+
+    @Benchmark
+    public long allElementsComplyTo() {
+        return allElementsComplyTo.count(root);
+    }
+
+    @Benchmark
+    public long atLeastOneElementCompliesTo() {
+        return atLeastOneElementCompliesTo.count(root);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils.jmh;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.mihosoft.vmf.runtime.core.VObject;
+import eu.mihosoft.vmfutils.Group;
+import eu.mihosoft.vmfutils.Selector;
+
+/**
+ * Full selections from a model ({@code Selector.selectFrom(VObject)} and
+ * variants).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SelectFromBenchmark {
+
+    @Param({"10000", "100000"})
+    public int size;
+
+    @Param({"1", "3"})
+    public int depth;
+
+    private Group root;
+    private Selector selector;
+
+    @Setup
+    public void setup() {
+        root = ModelGenerator.generate(size, depth);
+
+        selector = Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatStartsWith("valve")).
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(100.0)).
+            withProperty(Selector.selectListProp().withName("tags").
+                whichContains("print-head"));
+    }
+
+    @Benchmark
+    public Collection<VObject> selectFrom() {
+        return selector.selectFrom(root);
+    }
+
+    @Benchmark
+    public Collection<VObject> selectFromParallel() {
+        return selector.selectFromParallel(root);
+    }
+
+    @Benchmark
+    public long count() {
+        return selector.count(root);
+    }
+
+    @Benchmark
+    public boolean anyMatch() {
+        return selector.anyMatch(root);
+    }
+}
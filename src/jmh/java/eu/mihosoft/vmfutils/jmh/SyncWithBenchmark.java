@@ -0,0 +1,144 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils.jmh;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import eu.mihosoft.vmf.runtime.core.VObject;
+import eu.mihosoft.vmfutils.Group;
+import eu.mihosoft.vmfutils.Node;
+import eu.mihosoft.vmfutils.Selector;
+import vjavax.observer.Subscription;
+
+/**
+ * Live selections ({@code Selector.syncWith(...)}): initial population of the
+ * synced collection and steady-state change throughput with a number of
+ * active views.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SyncWithBenchmark {
+
+    @Param({"100000"})
+    public int size;
+
+    @Param({"1", "10"})
+    public int views;
+
+    private Group root;
+    private List<Node> nodes;
+    private Selector selector;
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private Random rnd;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        nodes = new ArrayList<>();
+        root = ModelGenerator.generate(size, 3, nodes);
+        rnd = new Random(7);
+        selector = newSelector(100.0);
+
+        for(int i = 0; i < views; i++) {
+            subscriptions.add(newSelector(100.0 + i).
+                syncWith(root, new ArrayList<>()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        subscriptions.forEach(Subscription::unsubscribe);
+        subscriptions.clear();
+    }
+
+    private static Selector newSelector(double threshold) {
+        return Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatStartsWith("valve")).
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(threshold)).
+            withProperty(Selector.selectListProp().withName("tags").
+                whichContains("print-head"));
+    }
+
+    /**
+     * Creates a view and populates it with the matching objects of the model.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<VObject> initialPopulation() {
+        List<VObject> result = new ArrayList<>();
+        Subscription s = selector.syncWith(root, result);
+        s.unsubscribe();
+        return result;
+    }
+
+    /**
+     * Changes the pressure of a random node (crosses the threshold of the
+     * views in about half of the cases).
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void propertyChange() {
+        Node node = nodes.get(rnd.nextInt(nodes.size()));
+        node.setPressure(node.getPressure() > 100.0 ? 50.0 : 150.0);
+    }
+
+    /**
+     * Changes the name of a random node (referenced by the views).
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void nameChange() {
+        Node node = nodes.get(rnd.nextInt(nodes.size()));
+        String name = node.getName();
+        node.setName(name.startsWith("x") ? name.substring(1) : "x" + name);
+    }
+
+    /**
+     * Removes a random node and adds it again (containment changes).
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public void containmentChange() {
+        Node node = nodes.get(rnd.nextInt(nodes.size()));
+        Group parent = node.getParent();
+        parent.getNodes().remove(node);
+        parent.getNodes().add(node);
+    }
+}
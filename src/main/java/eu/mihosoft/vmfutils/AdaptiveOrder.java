@@ -0,0 +1,165 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Evaluation order of a conjunction that adapts to the observed selectivity
+ * and cost of its conjuncts.
+ *
+ * One out of {@link #SAMPLE_INTERVAL} evaluations is sampled: all conjuncts
+ * are evaluated and timed. After {@link #ADAPT_INTERVAL} samples the
+ * conjuncts are ordered by their cost per rejection (cheap and selective
+ * conjuncts first) and the statistics are decayed, i.e., the order keeps
+ * adapting if the data changes.
+ *
+ * Only movable conjuncts are reordered. Conjuncts that are not movable (e.g.
+ * user defined predicates that might rely on the conjuncts added before) keep
+ * their position, movable conjuncts are only reordered within the runs
+ * between them.
+ */
+final class AdaptiveOrder {
+
+    static final int SAMPLE_INTERVAL = 128;
+    static final int ADAPT_INTERVAL = 64;
+
+    private final boolean[] movable;
+    private final boolean adaptive;
+    private volatile int[] order;
+
+    // not synchronized, lost updates only delay the next sample
+    private int evaluations;
+
+    private int samples;
+    private final double[] nanos;
+    private final double[] rejections;
+
+    /**
+     * Creates a new order.
+     * @param movable specifies for each conjunct whether it can be reordered
+     */
+    AdaptiveOrder(boolean[] movable) {
+        this.movable = movable.clone();
+        this.order = new int[movable.length];
+        this.nanos = new double[movable.length];
+        this.rejections = new double[movable.length];
+
+        for(int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+
+        // we need at least two adjacent movable conjuncts
+        this.adaptive = hasMovableRun(movable);
+    }
+
+    private static boolean hasMovableRun(boolean[] movable) {
+        for(int i = 1; i < movable.length; i++) {
+            if(movable[i - 1] && movable[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the current evaluation order (indices of the conjuncts).
+     * @return the current evaluation order (must not be modified)
+     */
+    int[] order() {
+        return order;
+    }
+
+    /**
+     * Indicates whether the next evaluation should be sampled.
+     * @return {@code true} if the next evaluation should be sampled; {@code false} otherwise
+     */
+    boolean sample() {
+        return adaptive && ++evaluations % SAMPLE_INTERVAL == 0;
+    }
+
+    /**
+     * Indicates whether the specified conjunct can be reordered. Sampled
+     * evaluations have to evaluate all movable conjuncts.
+     * @param i index of the conjunct
+     * @return {@code true} if the conjunct can be reordered; {@code false} otherwise
+     */
+    boolean isMovable(int i) {
+        return movable[i];
+    }
+
+    /**
+     * Records the result of a sampled evaluation. Only the results of
+     * movable conjuncts are used.
+     * @param elapsedNanos evaluation time per conjunct
+     * @param satisfied result per conjunct
+     */
+    synchronized void record(long[] elapsedNanos, boolean[] satisfied) {
+        for(int i = 0; i < nanos.length; i++) {
+            if(movable[i]) {
+                nanos[i] += elapsedNanos[i];
+                if(!satisfied[i]) {
+                    rejections[i]++;
+                }
+            }
+        }
+
+        if(++samples >= ADAPT_INTERVAL) {
+            adapt();
+        }
+    }
+
+    private void adapt() {
+        double[] rank = new double[nanos.length];
+        for(int i = 0; i < rank.length; i++) {
+            // cost per rejection, conjuncts that never reject go last
+            rank[i] = (nanos[i] / samples + 1.0) / Math.max(rejections[i] / samples, 1e-6);
+        }
+
+        int[] newOrder = new int[movable.length];
+        List<Integer> run = new ArrayList<>();
+
+        for(int i = 0; i <= movable.length; i++) {
+            if(i < movable.length && movable[i]) {
+                run.add(i);
+                continue;
+            }
+
+            // sort the run of movable conjuncts and put it back in place
+            int start = i - run.size();
+            run.sort(Comparator.comparingDouble((Integer c) -> rank[c]));
+            for(int k = 0; k < run.size(); k++) {
+                newOrder[start + k] = run.get(k);
+            }
+            run.clear();
+
+            if(i < movable.length) {
+                newOrder[i] = i;
+            }
+        }
+
+        order = newOrder;
+
+        // decay, recent samples weigh more
+        for(int i = 0; i < nanos.length; i++) {
+            nanos[i] /= 2;
+            rejections[i] /= 2;
+        }
+        samples /= 2;
+    }
+}
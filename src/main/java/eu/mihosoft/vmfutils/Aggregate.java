@@ -0,0 +1,244 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import eu.mihosoft.vmf.runtime.core.Property;
+import eu.mihosoft.vmf.runtime.core.VObject;
+import vjavax.observer.Subscription;
+
+/**
+ * Aggregates of a numeric property over the objects of a containment tree
+ * that match a selector (see {@link Selector#aggregate(VObject, String)}).
+ *
+ * The aggregates are maintained incrementally from the same change events as
+ * {@link Selector#syncWith(VObject, java.util.Collection)}, i.e., count, sum
+ * and average are updated in constant time and min and max in logarithmic
+ * time per change. The aggregates are maintained until they are unsubscribed.
+ */
+public interface Aggregate extends Subscription {
+
+    /**
+     * Returns the name of the aggregated property.
+     * @return the name of the aggregated property
+     */
+    public String getPropertyName();
+
+    /**
+     * Returns the number of objects that match the selector.
+     * @return the number of matching objects
+     */
+    public long getCount();
+
+    /**
+     * Returns the sum of the property values of the matching objects.
+     * Objects without a numeric value (or with {@code NaN}) are ignored.
+     * @return the sum ({@code 0.0} if there are no values, {@code NaN} if the
+     *         values contain positive and negative infinity)
+     */
+    public double getSum();
+
+    /**
+     * Returns the smallest property value of the matching objects.
+     * @return the smallest value ({@code NaN} if there are no values)
+     */
+    public double getMin();
+
+    /**
+     * Returns the largest property value of the matching objects.
+     * @return the largest value ({@code NaN} if there are no values)
+     */
+    public double getMax();
+
+    /**
+     * Returns the average of the property values of the matching objects.
+     * @return the average ({@code NaN} if there are no values)
+     */
+    public double getAverage();
+}
+
+class AggregateImpl implements Aggregate, ModelTracker.Listener {
+
+    private final PropertySlot slot;
+    private final Map<VObject, Double> values = new IdentityHashMap<>();
+    private final NavigableMap<Double, Integer> counts = new TreeMap<>();
+    private final Members members = new Members();
+
+    // compensated sum of the finite values, values are added and removed in
+    // arbitrary order
+    private double sum;
+    private double compensation;
+    // infinite values are counted, they would turn the compensation into NaN
+    private int positiveInfinities;
+    private int negativeInfinities;
+
+    private final Subscription view;
+    private final Subscription subscription;
+
+    AggregateImpl(SelectorPlan plan, VObject root, String propertyName) {
+        this.slot = new PropertySlot(propertyName);
+        this.view = new SelectorView(plan, root, members);
+        this.subscription = RootContext.of(root).register(this, this);
+    }
+
+    @Override
+    public String getPropertyName() {
+        return slot.getName();
+    }
+
+    @Override
+    public long getCount() {
+        return members.size();
+    }
+
+    @Override
+    public double getSum() {
+        if(positiveInfinities > 0 && negativeInfinities > 0) {
+            return Double.NaN;
+        } else if(positiveInfinities > 0) {
+            return Double.POSITIVE_INFINITY;
+        } else if(negativeInfinities > 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+
+        return sum + compensation;
+    }
+
+    @Override
+    public double getMin() {
+        return counts.isEmpty() ? Double.NaN : counts.firstKey();
+    }
+
+    @Override
+    public double getMax() {
+        return counts.isEmpty() ? Double.NaN : counts.lastKey();
+    }
+
+    @Override
+    public double getAverage() {
+        return values.isEmpty() ? Double.NaN : getSum() / values.size();
+    }
+
+    @Override
+    public void attached(VObject vObj) {
+        // matching objects are added by the view
+    }
+
+    @Override
+    public void detached(VObject vObj) {
+        // matching objects are removed by the view
+    }
+
+    @Override
+    public void changed(VObject vObj, String propertyName) {
+        if(getPropertyName().equals(propertyName) && members.contains(vObj)) {
+            removeValue(vObj);
+            addValue(vObj);
+        }
+    }
+
+    private void addValue(VObject vObj) {
+        Property p = slot.get(vObj);
+        Object value = p == null ? null : p.get();
+
+        if(!(value instanceof Number) || Double.isNaN(((Number) value).doubleValue())) {
+            return;
+        }
+
+        // -0.0 and 0.0 are the same key (see RangeIndexImpl)
+        double v = ((Number) value).doubleValue() + 0.0;
+
+        values.put(vObj, v);
+        counts.merge(v, 1, Integer::sum);
+        add(v, 1);
+    }
+
+    private void removeValue(VObject vObj) {
+        Double v = values.remove(vObj);
+
+        if(v == null) {
+            return;
+        }
+
+        if(counts.merge(v, -1, Integer::sum) == 0) {
+            counts.remove(v);
+        }
+        add(v, -1);
+    }
+
+    /**
+     * Adds the specified value to or removes it from the sum.
+     * @param v value
+     * @param sign {@code 1} to add the value, {@code -1} to remove it
+     */
+    private void add(double v, int sign) {
+        if(v == Double.POSITIVE_INFINITY) {
+            positiveInfinities += sign;
+        } else if(v == Double.NEGATIVE_INFINITY) {
+            negativeInfinities += sign;
+        } else {
+            add(sign * v);
+        }
+    }
+
+    /**
+     * Adds the specified finite value to the compensated sum (Neumaier).
+     */
+    private void add(double v) {
+        double t = sum + v;
+
+        if(Math.abs(sum) >= Math.abs(v)) {
+            compensation += (sum - t) + v;
+        } else {
+            compensation += (v - t) + sum;
+        }
+
+        sum = t;
+    }
+
+    @Override
+    public void unsubscribe() {
+        view.unsubscribe();
+        subscription.unsubscribe();
+        values.clear();
+        counts.clear();
+        members.clear();
+        sum = 0;
+        compensation = 0;
+        positiveInfinities = 0;
+        negativeInfinities = 0;
+    }
+
+    /**
+     * Target of the view, receives the objects that start or stop matching.
+     */
+    private final class Members extends SelectorView.Target {
+
+        @Override
+        void added(VObject vObj) {
+            addValue(vObj);
+        }
+
+        @Override
+        void removed(VObject vObj) {
+            removeValue(vObj);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import eu.mihosoft.vmf.runtime.core.VObject;
+
+/**
+ * Batch of model changes (see {@link Selector#batch(VObject)}).
+ *
+ * While a batch of a root is open, the synced collections and views of the
+ * root are not updated for every change. The changes are coalesced per view
+ * and applied when the batch is flushed or closed, e.g.:
+ *
+ * <pre>
+ * try(ChangeBatch batch = Selector.batch(root)) {
+ *     // bulk edit
+ * }
+ * </pre>
+ *
+ * A batch that stays open and is flushed periodically (e.g. once per UI
+ * frame) coalesces the changes of each time window.
+ */
+public interface ChangeBatch extends AutoCloseable {
+
+    /**
+     * Applies the changes of this batch so far. The batch stays open.
+     * @throws IllegalStateException if this batch has been closed
+     */
+    public void flush();
+
+    /**
+     * Closes this batch. The coalesced changes are applied once the
+     * outermost open batch of the root is closed.
+     */
+    @Override
+    public void close();
+}
+
+final class ChangeBatchImpl implements ChangeBatch {
+
+    private final RootContext context;
+    private boolean closed;
+
+    ChangeBatchImpl(VObject root) {
+        this.context = RootContext.of(root);
+        context.beginBatch(this);
+    }
+
+    @Override
+    public void flush() {
+        if(closed) {
+            throw new IllegalStateException("Batch has been closed.");
+        }
+
+        context.flush();
+    }
+
+    @Override
+    public void close() {
+        if(!closed) {
+            closed = true;
+            context.endBatch(this);
+        }
+    }
+}
@@ -18,6 +18,7 @@ package eu.mihosoft.vmfutils;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.DoublePredicate;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -43,6 +44,15 @@ public interface DoublePropSelector extends PropSelector {
     public DoublePropSelector withValueThatIsLessThan(Double value);
 
     public DoublePropSelector withValueThatIsLessThanOrEqualTo(Double value);
+
+    /**
+     * Adds a predicate that tests the primitive property value. Unlike
+     * {@link #withValueThatMatches(Predicate)} the value is not boxed if the
+     * selector is evaluated on objects with a generated {@code double} getter.
+     * @param pred predicate
+     * @return this selector
+     */
+    public DoublePropSelector withDoubleValueThatMatches(DoublePredicate pred);
 }
 
 class DoublePropSelectorImpl extends PropSelectorImpl implements DoublePropSelector {
@@ -74,14 +84,8 @@ class DoublePropSelectorImpl extends PropSelectorImpl implements DoublePropSelec
 
     @Override
     public DoublePropSelector withValueThatIsGreaterThan(Double value) {
-        
-        getPredicates().add((p)->{
-            if(!(p.get() instanceof Double)) {
-                return false;
-            }
 
-            return ((Double)p.get()) > value;
-        });
+        range(Double.class).greaterThan(value);
 
         return this;
     }
@@ -89,14 +93,7 @@ class DoublePropSelectorImpl extends PropSelectorImpl implements DoublePropSelec
     @Override
     public DoublePropSelector withValueThatIsGreaterThanOrEqualTo(Double value) {
 
-        getPredicates().add((p)->{
-
-            if(!(p.get() instanceof Double)) {
-                return false;
-            }
-
-            return ((Double)p.get()) >= value;
-        });
+        range(Double.class).greaterThanOrEqualTo(value);
 
         return this;
     }
@@ -104,14 +101,7 @@ class DoublePropSelectorImpl extends PropSelectorImpl implements DoublePropSelec
     @Override
     public DoublePropSelector withValueThatIsLessThan(Double value) {
 
-        getPredicates().add((p)->{
-
-            if(!(p.get() instanceof Double)) {
-                return false;
-            }
-
-            return ((Double)p.get()) < value;
-        });
+        range(Double.class).lessThan(value);
 
         return this;
     }
@@ -119,13 +109,15 @@ class DoublePropSelectorImpl extends PropSelectorImpl implements DoublePropSelec
     @Override
     public DoublePropSelector withValueThatIsLessThanOrEqualTo(Double value) {
 
-        getPredicates().add((p)->{
-            if(!(p.get() instanceof Double)) {
-                return false;
-            }
+        range(Double.class).lessThanOrEqualTo(value);
+
+        return this;
+    }
+
+    @Override
+    public DoublePropSelector withDoubleValueThatMatches(DoublePredicate pred) {
 
-            return ((Double)p.get()) <= value;
-        });
+        _withDoubleValueThatMatches(pred);
 
         return this;
     }
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import eu.mihosoft.vcollections.VList;
+import vjavax.observer.Subscription;
+
+/**
+ * Dictionary that encodes the elements of list properties (e.g. string tags)
+ * as bitsets. Containment conditions of a {@link ListPropSelector} that uses
+ * a dictionary (see {@link ListPropSelector#withDictionary(ElementDictionary)})
+ * are evaluated as word-wise AND operations on the bitsets.
+ *
+ * The bitset of an observable list is computed once and cached until the list
+ * changes. Lists are observed only while a bitset is cached, i.e., the
+ * listener of a dictionary is removed with the next change of the list
+ * (lists are referenced weakly). A dictionary grows with the number of distinct elements it has
+ * encoded, it should therefore be used for lists with a limited vocabulary
+ * and can be shared by many selectors.
+ */
+public interface ElementDictionary {
+
+    /**
+     * Creates a new dictionary.
+     * @return a new dictionary
+     */
+    public static ElementDictionary newInstance() {
+        return new ElementDictionaryImpl();
+    }
+
+    /**
+     * Returns the number of elements that have been encoded by this dictionary.
+     * @return the number of encoded elements
+     */
+    public int size();
+}
+
+class ElementDictionaryImpl implements ElementDictionary {
+
+    private static final Object NULL_ELEMENT = new Object();
+
+    private final Map<Object, Integer> ids = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+
+    // probe key of the calling thread (lookups do not allocate)
+    private static final ThreadLocal<LookupKey> LOOKUP_KEY =
+        ThreadLocal.withInitial(LookupKey::new);
+
+    private final Map<Object, Encoding> encodings = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> collected = new ReferenceQueue<>();
+
+    @Override
+    public int size() {
+        return ids.size();
+    }
+
+    /**
+     * Encodes the specified elements.
+     * @param elements elements to encode
+     * @return bitset of the elements
+     */
+    long[] encode(Collection<?> elements) {
+        long[] bits = new long[0];
+
+        for(Object e : elements) {
+            int id = id(e);
+            if(id >>> 6 >= bits.length) {
+                bits = Arrays.copyOf(bits, (id >>> 6) + 1);
+            }
+            bits[id >>> 6] |= 1L << id;
+        }
+
+        return bits;
+    }
+
+    /**
+     * Returns the bitset of the specified list. The bitset of an observable
+     * list is cached until the list changes.
+     * @param list list
+     * @return bitset of the elements of the list
+     */
+    long[] bits(Collection<?> list) {
+        if(!(list instanceof VList)) {
+            return encode(list);
+        }
+
+        LookupKey key = LOOKUP_KEY.get();
+        key.list = list;
+        Encoding encoding = encodings.get(key);
+        key.list = null;
+
+        if(encoding == null) {
+            expungeCollected();
+            Encoding created = new Encoding();
+            encoding = encodings.putIfAbsent(new ListKey(list, collected), created);
+
+            if(encoding == null) {
+                encoding = created;
+            }
+        }
+
+        long[] bits = encoding.bits;
+
+        return bits != null ? bits : encoding.encode(this, (VList<?>) list);
+    }
+
+    /**
+     * Indicates whether the first bitset contains all bits of the second.
+     * @param bits bitset
+     * @param mask bits to check
+     * @return {@code true} if all bits of the mask are set; {@code false} otherwise
+     */
+    static boolean containsAll(long[] bits, long[] mask) {
+        for(int i = 0; i < mask.length; i++) {
+            long word = i < bits.length ? bits[i] : 0L;
+            if((word & mask[i]) != mask[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Indicates whether both bitsets contain the same bits.
+     * @param bits bitset
+     * @param other other bitset
+     * @return {@code true} if both bitsets are equal; {@code false} otherwise
+     */
+    static boolean sameBits(long[] bits, long[] other) {
+        for(int i = 0; i < Math.max(bits.length, other.length); i++) {
+            long a = i < bits.length ? bits[i] : 0L;
+            long b = i < other.length ? other[i] : 0L;
+            if(a != b) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private int id(Object element) {
+        return ids.computeIfAbsent(element == null ? NULL_ELEMENT : element,
+            (e) -> nextId.getAndIncrement());
+    }
+
+    private void expungeCollected() {
+        Object key;
+        while((key = collected.poll()) != null) {
+            encodings.remove(key);
+        }
+    }
+
+    /**
+     * Cached bitset of a list. The bitset is reset by a listener that is
+     * added when the bitset is computed and removes itself on the next change
+     * of the list. The listener references the encoding weakly, i.e., it does
+     * not retain discarded dictionaries.
+     */
+    private static final class Encoding {
+        private volatile long[] bits;
+
+        synchronized long[] encode(ElementDictionaryImpl dictionary, VList<?> list) {
+            if(bits == null) {
+                WeakReference<Encoding> ref = new WeakReference<>(this);
+                Subscription[] subscription = new Subscription[1];
+                subscription[0] = list.addChangeListener((evt) -> {
+                    subscription[0].unsubscribe();
+                    Encoding e = ref.get();
+                    if(e != null) {
+                        e.bits = null;
+                    }
+                });
+                bits = dictionary.encode(list);
+            }
+
+            return bits;
+        }
+    }
+
+    /**
+     * Reusable probe key of a list (matches the {@link ListKey} of the list).
+     */
+    private static final class LookupKey {
+        private Object list;
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(list);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof ListKey && ((ListKey) o).get() == list;
+        }
+    }
+
+    /**
+     * Weak identity key of a list.
+     */
+    private static final class ListKey extends WeakReference<Object> {
+        private final int hash;
+
+        ListKey(Object list, ReferenceQueue<Object> queue) {
+            super(list, queue);
+            this.hash = System.identityHashCode(list);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o) {
+                return true;
+            }
+            if(!(o instanceof ListKey)) {
+                return false;
+            }
+            Object referent = get();
+            return referent != null && referent == ((ListKey) o).get();
+        }
+    }
+}
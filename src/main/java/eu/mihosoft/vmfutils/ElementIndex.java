@@ -0,0 +1,233 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.mihosoft.vmf.runtime.core.Property;
+import eu.mihosoft.vmf.runtime.core.VObject;
+import vjavax.observer.Subscription;
+
+/**
+ * Inverted index of a list property that maps each element to the objects
+ * whose list contains the element. {@link ListPropSelector#whichContains(Object...)}
+ * and {@link ListPropSelector#whichOnlyContains(Object...)} conditions on the
+ * indexed property are answered via the intersection of the posting sets of
+ * the requested elements instead of testing every object of the tree.
+ */
+public interface ElementIndex extends PropertyIndex {
+
+    /**
+     * Returns the objects whose indexed list contains the specified element.
+     * @param element element to look up
+     * @return unmodifiable collection of the objects that contain the element
+     */
+    @Override
+    public Collection<VObject> lookup(Object element);
+
+    /**
+     * Returns the objects whose indexed list contains all of the specified
+     * elements.
+     * @param elements elements to look up
+     * @return unmodifiable collection of the objects that contain all elements
+     */
+    public Collection<VObject> lookupAll(Collection<?> elements);
+}
+
+class ElementIndexImpl implements ElementIndex, ModelTracker.Listener {
+
+    private final PropertySlot slot;
+    private final Map<Object, Set<VObject>> objectsByElement = new HashMap<>();
+    private final Map<VObject, Set<Object>> elements = new IdentityHashMap<>();
+    private final Subscription subscription;
+
+    ElementIndexImpl(VObject root, String propertyName) {
+        this.slot = new PropertySlot(propertyName);
+
+        RootContext ctx = RootContext.of(root);
+        ctx.getTracker().forEachObject(this::attached);
+        this.subscription = ctx.register(this, this);
+    }
+
+    @Override
+    public String getPropertyName() {
+        return slot.getName();
+    }
+
+    @Override
+    public Collection<VObject> lookup(Object element) {
+        Set<VObject> objects = objectsByElement.get(element);
+
+        if(objects == null) {
+            return Collections.emptySet();
+        }
+
+        return Collections.unmodifiableSet(objects);
+    }
+
+    @Override
+    public Collection<VObject> lookupAll(Collection<?> elements) {
+        if(elements.isEmpty()) {
+            return Collections.unmodifiableSet(this.elements.keySet());
+        }
+
+        List<Set<VObject>> postings = new ArrayList<>();
+        for(Object element : new HashSet<>(elements)) {
+            Set<VObject> objects = objectsByElement.get(element);
+            if(objects == null) {
+                return Collections.emptyList();
+            }
+            postings.add(objects);
+        }
+
+        // we iterate the smallest posting set and probe the others
+        postings.sort((a, b) -> Integer.compare(a.size(), b.size()));
+
+        List<VObject> result = new ArrayList<>();
+        for(VObject vObj : postings.get(0)) {
+            boolean containsAll = true;
+            for(int i = 1; i < postings.size() && containsAll; i++) {
+                containsAll = postings.get(i).contains(vObj);
+            }
+            if(containsAll) {
+                result.add(vObj);
+            }
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Estimates the number of objects whose list value contains all of the
+     * specified elements (the size of the smallest posting set).
+     * @param elements elements
+     * @return an upper bound of the number of objects
+     */
+    int estimate(Collection<?> elements) {
+        int estimate = this.elements.size();
+
+        for(Object element : elements) {
+            Set<VObject> objects = objectsByElement.get(element);
+            estimate = Math.min(estimate, objects == null ? 0 : objects.size());
+        }
+
+        return estimate;
+    }
+
+    /**
+     * Indicates whether the list value of the specified object contains all
+     * of the specified elements according to this index.
+     * @param vObj object
+     * @param elements elements
+     * @return {@code true} if the list value contains all elements; {@code false} otherwise
+     */
+    boolean contains(VObject vObj, Collection<?> elements) {
+        Set<Object> distinct = this.elements.get(vObj);
+
+        return distinct != null && distinct.containsAll(elements);
+    }
+
+    @Override
+    public void attached(VObject vObj) {
+        Property p = slot.get(vObj);
+
+        if(p == null || !(p.get() instanceof List)) {
+            return;
+        }
+
+        Set<Object> distinct = new HashSet<>((List<?>) p.get());
+        elements.put(vObj, distinct);
+
+        for(Object element : distinct) {
+            add(element, vObj);
+        }
+    }
+
+    @Override
+    public void detached(VObject vObj) {
+        Set<Object> distinct = elements.remove(vObj);
+
+        if(distinct == null) {
+            return;
+        }
+
+        for(Object element : distinct) {
+            remove(element, vObj);
+        }
+    }
+
+    @Override
+    public void changed(VObject vObj, String propertyName) {
+        if(!getPropertyName().equals(propertyName)) {
+            return;
+        }
+
+        Set<Object> oldElements = elements.get(vObj);
+        Property p = slot.get(vObj);
+
+        if(oldElements == null || p == null || !(p.get() instanceof List)) {
+            detached(vObj);
+            attached(vObj);
+            return;
+        }
+
+        // only the posting sets of added and removed elements are updated
+        Set<Object> newElements = new HashSet<>((List<?>) p.get());
+
+        for(Object element : oldElements) {
+            if(!newElements.contains(element)) {
+                remove(element, vObj);
+            }
+        }
+
+        for(Object element : newElements) {
+            if(!oldElements.contains(element)) {
+                add(element, vObj);
+            }
+        }
+
+        elements.put(vObj, newElements);
+    }
+
+    private void add(Object element, VObject vObj) {
+        objectsByElement.computeIfAbsent(element,
+            (e) -> Collections.newSetFromMap(new IdentityHashMap<>())).add(vObj);
+    }
+
+    private void remove(Object element, VObject vObj) {
+        Set<VObject> objects = objectsByElement.get(element);
+        objects.remove(vObj);
+
+        if(objects.isEmpty()) {
+            objectsByElement.remove(element);
+        }
+    }
+
+    @Override
+    public void unsubscribe() {
+        subscription.unsubscribe();
+        objectsByElement.clear();
+        elements.clear();
+    }
+}
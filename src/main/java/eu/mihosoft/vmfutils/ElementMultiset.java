@@ -0,0 +1,108 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pre-hashed query elements of a list condition. Tests run in linear time
+ * of the tested list, independent of the number of query elements.
+ */
+final class ElementMultiset {
+
+    private final Map<Object, Integer> indices = new HashMap<>();
+    private final int[] counts;
+    private final int size;
+
+    ElementMultiset(Collection<?> elements) {
+        int[] c = new int[elements.size()];
+
+        for(Object e : elements) {
+            Integer idx = indices.get(e);
+            if(idx == null) {
+                idx = indices.size();
+                indices.put(e, idx);
+            }
+            c[idx]++;
+        }
+
+        this.counts = Arrays.copyOf(c, indices.size());
+        this.size = elements.size();
+    }
+
+    /**
+     * Returns the number of query elements (including duplicates).
+     * @return the number of query elements
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Indicates whether the specified list contains every query element
+     * (at least once).
+     * @param list list to test
+     * @return {@code true} if the list contains all query elements; {@code false} otherwise
+     */
+    boolean isContainedIn(List<?> list) {
+        if(counts.length == 0) {
+            return true;
+        }
+
+        boolean[] seen = new boolean[counts.length];
+        int found = 0;
+
+        for(Object e : list) {
+            Integer idx = indices.get(e);
+            if(idx != null && !seen[idx]) {
+                seen[idx] = true;
+                if(++found == counts.length) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Indicates whether the specified list consists of exactly the query
+     * elements, i.e., whether it contains each element as often as the query
+     * (in any order).
+     * @param list list to test
+     * @return {@code true} if the list is a permutation of the query elements; {@code false} otherwise
+     */
+    boolean isPermutationOf(List<?> list) {
+        if(list.size() != size) {
+            return false;
+        }
+
+        int[] found = new int[counts.length];
+
+        for(Object e : list) {
+            Integer idx = indices.get(e);
+            if(idx == null || ++found[idx] > counts[idx]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
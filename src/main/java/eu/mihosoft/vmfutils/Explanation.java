@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Plan of a selection from a containment tree and its estimated and actual
+ * numbers of objects (see {@link Selector#explain(eu.mihosoft.vmf.runtime.core.VObject)}).
+ *
+ * Candidates are the objects that are evaluated by the selection, i.e., the
+ * result of the index lookups or all objects of the tree. Estimates are
+ * derived from the index cardinalities. Large differences between estimated
+ * and actual numbers indicate skewed data or correlated conditions.
+ */
+public interface Explanation {
+
+    /**
+     * Indicates whether the selection uses index lookups.
+     * @return {@code true} if indexes are used; {@code false} if the tree is scanned
+     */
+    public boolean isIndexed();
+
+    /**
+     * Returns the steps of the plan in the order they are executed, e.g.,
+     * {@code lookup hash index 'name' = valve-3 (est. 1.0)}.
+     * @return the steps of the plan
+     */
+    public List<String> getSteps();
+
+    /**
+     * Returns the estimated number of candidates.
+     * @return the estimated number of candidates ({@code NaN} if unknown)
+     */
+    public double getEstimatedCandidates();
+
+    /**
+     * Returns the number of evaluated candidates.
+     * @return the number of candidates ({@code -1} if unknown, e.g., for
+     *         structural selections)
+     */
+    public long getActualCandidates();
+
+    /**
+     * Returns the estimated number of matching objects.
+     * @return the estimated number of matching objects ({@code NaN} if unknown)
+     */
+    public double getEstimatedRows();
+
+    /**
+     * Returns the number of matching objects.
+     * @return the number of matching objects
+     */
+    public long getActualRows();
+}
+
+class ExplanationImpl implements Explanation {
+
+    private final boolean indexed;
+    private final List<String> steps;
+    private final double estimatedCandidates;
+    private final long actualCandidates;
+    private final double estimatedRows;
+    private final long actualRows;
+
+    ExplanationImpl(boolean indexed, List<String> steps,
+                    double estimatedCandidates, long actualCandidates,
+                    double estimatedRows, long actualRows) {
+        this.indexed = indexed;
+        this.steps = Collections.unmodifiableList(steps);
+        this.estimatedCandidates = estimatedCandidates;
+        this.actualCandidates = actualCandidates;
+        this.estimatedRows = estimatedRows;
+        this.actualRows = actualRows;
+    }
+
+    @Override
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    @Override
+    public List<String> getSteps() {
+        return steps;
+    }
+
+    @Override
+    public double getEstimatedCandidates() {
+        return estimatedCandidates;
+    }
+
+    @Override
+    public long getActualCandidates() {
+        return actualCandidates;
+    }
+
+    @Override
+    public double getEstimatedRows() {
+        return estimatedRows;
+    }
+
+    @Override
+    public long getActualRows() {
+        return actualRows;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+
+        for(String step : steps) {
+            sb.append(step).append('\n');
+        }
+
+        sb.append(String.format(Locale.ROOT, "candidates: est. %.1f, actual %d%n",
+            estimatedCandidates, actualCandidates));
+        sb.append(String.format(Locale.ROOT, "rows: est. %.1f, actual %d",
+            estimatedRows, actualRows));
+
+        return sb.toString();
+    }
+}
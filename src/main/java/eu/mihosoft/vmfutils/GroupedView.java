@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+
+import eu.mihosoft.vmf.runtime.core.Property;
+import eu.mihosoft.vmf.runtime.core.VObject;
+import vjavax.observer.Subscription;
+
+/**
+ * Incrementally maintained selection of a containment tree that is
+ * partitioned by the value of a property.
+ *
+ * Membership is maintained by a {@link SelectorView}. Changes of the grouping
+ * property move the object to the group of its new value. Each change is
+ * processed in constant time, independent of the number of groups.
+ */
+final class GroupedView implements ModelTracker.Listener, Subscription {
+
+    private final PropertySlot slot;
+    private final Map<Object, Collection<VObject>> groups;
+    private final Map<VObject, Object> keys = new IdentityHashMap<>();
+
+    private final Subscription view;
+    private final Subscription subscription;
+
+    GroupedView(SelectorPlan plan, VObject root, String propertyName,
+                Map<Object, Collection<VObject>> groups) {
+        this.slot = new PropertySlot(propertyName);
+        this.groups = groups;
+        this.view = new SelectorView(plan, root, new Members());
+        this.subscription = RootContext.of(root).register(this, this);
+    }
+
+    @Override
+    public void attached(VObject vObj) {
+        // matching objects are added by the view
+    }
+
+    @Override
+    public void detached(VObject vObj) {
+        // matching objects are removed by the view
+    }
+
+    @Override
+    public void changed(VObject vObj, String propertyName) {
+        if(!slot.getName().equals(propertyName) || !keys.containsKey(vObj)) {
+            return;
+        }
+
+        Object key = key(vObj);
+        Object prevKey = keys.get(vObj);
+
+        if(!Objects.equals(key, prevKey)) {
+            ungroup(vObj);
+            group(vObj, key);
+        }
+    }
+
+    private Object key(VObject vObj) {
+        Property p = slot.get(vObj);
+        return p == null ? null : p.get();
+    }
+
+    private void group(VObject vObj, Object key) {
+        keys.put(vObj, key);
+        groups.computeIfAbsent(key, (k) -> new LinkedHashSet<>()).add(vObj);
+    }
+
+    private void ungroup(VObject vObj) {
+        Object key = keys.remove(vObj);
+        Collection<VObject> group = groups.get(key);
+
+        if(group != null) {
+            group.remove(vObj);
+
+            // empty groups are removed from the map
+            if(group.isEmpty()) {
+                groups.remove(key);
+            }
+        }
+    }
+
+    @Override
+    public void unsubscribe() {
+        view.unsubscribe();
+        subscription.unsubscribe();
+        keys.clear();
+    }
+
+    /**
+     * Target of the view, receives the objects that start or stop matching.
+     */
+    private final class Members extends SelectorView.Target {
+
+        @Override
+        void added(VObject vObj) {
+            group(vObj, key(vObj));
+        }
+
+        @Override
+        void removed(VObject vObj) {
+            ungroup(vObj);
+        }
+    }
+}
@@ -18,6 +18,7 @@ package eu.mihosoft.vmfutils;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.IntPredicate;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
@@ -43,6 +44,15 @@ public interface IntegerPropSelector extends PropSelector {
     public IntegerPropSelector withValueThatIsLessThan(Integer value);
 
     public IntegerPropSelector withValueThatIsLessThanOrEqualTo(Integer value);
+
+    /**
+     * Adds a predicate that tests the primitive property value. Unlike
+     * {@link #withValueThatMatches(Predicate)} the value is not boxed if the
+     * selector is evaluated on objects with a generated {@code int} getter.
+     * @param pred predicate
+     * @return this selector
+     */
+    public IntegerPropSelector withIntValueThatMatches(IntPredicate pred);
 }
 
 class IntegerPropSelectorImpl extends PropSelectorImpl implements IntegerPropSelector {
@@ -74,14 +84,8 @@ class IntegerPropSelectorImpl extends PropSelectorImpl implements IntegerPropSel
 
     @Override
     public IntegerPropSelector withValueThatIsGreaterThan(Integer value) {
-        
-        getPredicates().add((p)->{
-            if(!(p.get() instanceof Integer)) {
-                return false;
-            }
 
-            return ((Integer)p.get()) > value;
-        });
+        range(Integer.class).greaterThan(value);
 
         return this;
     }
@@ -89,13 +93,7 @@ class IntegerPropSelectorImpl extends PropSelectorImpl implements IntegerPropSel
     @Override
     public IntegerPropSelector withValueThatIsGreaterThanOrEqualTo(Integer value) {
 
-        getPredicates().add((p)->{
-            if(!(p.get() instanceof Integer)) {
-                return false;
-            }
-
-            return ((Integer)p.get()) >= value;
-        });
+        range(Integer.class).greaterThanOrEqualTo(value);
 
         return this;
     }
@@ -103,13 +101,7 @@ class IntegerPropSelectorImpl extends PropSelectorImpl implements IntegerPropSel
     @Override
     public IntegerPropSelector withValueThatIsLessThan(Integer value) {
 
-        getPredicates().add((p)->{
-            if(!(p.get() instanceof Integer)) {
-                return false;
-            }
-
-            return ((Integer)p.get()) < value;
-        });
+        range(Integer.class).lessThan(value);
 
         return this;
     }
@@ -117,13 +109,15 @@ class IntegerPropSelectorImpl extends PropSelectorImpl implements IntegerPropSel
     @Override
     public IntegerPropSelector withValueThatIsLessThanOrEqualTo(Integer value) {
 
-        getPredicates().add((p)->{
-            if(!(p.get() instanceof Integer)) {
-                return false;
-            }
+        range(Integer.class).lessThanOrEqualTo(value);
+
+        return this;
+    }
+
+    @Override
+    public IntegerPropSelector withIntValueThatMatches(IntPredicate pred) {
 
-            return ((Integer)p.get()) <= value;
-        });
+        _withIntValueThatMatches(pred);
 
         return this;
     }
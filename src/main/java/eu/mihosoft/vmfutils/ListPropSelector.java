@@ -15,6 +15,7 @@
  */
 package eu.mihosoft.vmfutils;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -35,10 +36,31 @@ public interface ListPropSelector extends PropSelector {
     public <T> ListPropSelector withValueThatIsEqualTo(T value);
     public <T> ListPropSelector withValueThatMatches(Predicate<T> pred);
 
+    /**
+     * Encodes the elements of the list property with the specified
+     * dictionary. Subsequent {@code whichContains(...)} and
+     * {@code whichOnlyContains(...)} conditions are evaluated on the bitsets
+     * of the dictionary.
+     * @param dictionary dictionary
+     * @return this selector
+     */
+    public ListPropSelector withDictionary(ElementDictionary dictionary);
+
+    /**
+     * Selects lists that contain all of the specified elements (in any order).
+     * @param elements elements
+     * @return this selector
+     */
     public <T> ListPropSelector whichContains(T... elements);
 
     public <T> ListPropSelector whichContains(Collection<T> elements);
 
+    /**
+     * Selects lists that contain exactly the specified elements (in any
+     * order), i.e., each element has to occur as often as specified.
+     * @param elements elements
+     * @return this selector
+     */
     public <T> ListPropSelector whichOnlyContains(T... elements);
 
     public <T> ListPropSelector whichOnlyContains(Collection<T> elements);
@@ -55,6 +77,8 @@ public interface ListPropSelector extends PropSelector {
 
 class ListPropSelectorImpl extends PropSelectorImpl implements ListPropSelector {
 
+    private ElementDictionaryImpl dictionary;
+
     @Override
     public ListPropSelector withName(String name) {
         super.withName(name);
@@ -79,32 +103,45 @@ class ListPropSelectorImpl extends PropSelectorImpl implements ListPropSelector
         return this;
     }
 
+    @Override
+    public ListPropSelector withDictionary(ElementDictionary dictionary) {
+        this.dictionary = (ElementDictionaryImpl) dictionary;
+        return this;
+    }
+
     @Override
     public <T> ListPropSelector whichContains(T... elements) {
+        return whichContains(Arrays.asList(elements));
+    }
 
-        getPredicates().add((p) -> {
-            if(!(p.get() instanceof List)) {
-                return false;
-            }
+    @Override
+    public <T> ListPropSelector whichContains(Collection<T> elements) {
+        describe("whichContains", new ArrayList<>(elements));
+        containing(elements);
 
-            List<?> listP = (List<?>)p.get();
+        ElementDictionaryImpl dict = dictionary;
 
-            return listP.containsAll(Arrays.asList(elements));      
-        });
+        if(dict != null) {
+            long[] mask = dict.encode(elements);
+            getPredicates().add((p) -> {
+                if(!(p.get() instanceof List)) {
+                    return false;
+                }
 
-        return this;
-    }
+                return ElementDictionaryImpl.containsAll(
+                    dict.bits((List<?>)p.get()), mask);
+            });
 
-    @Override
-    public <T> ListPropSelector whichContains(Collection<T> elements) {
+            return this;
+        }
+
+        ElementMultiset query = new ElementMultiset(elements);
         getPredicates().add((p) -> {
             if(!(p.get() instanceof List)) {
                 return false;
             }
 
-            List<?> listP = (List<?>)p.get();
-
-            return listP.containsAll(elements);      
+            return query.isContainedIn((List<?>)p.get());
         });
 
         return this;
@@ -112,37 +149,42 @@ class ListPropSelectorImpl extends PropSelectorImpl implements ListPropSelector
 
     @Override
     public <T> ListPropSelector whichOnlyContains(T... elements) {
-        getPredicates().add((p) -> {
-            if(!(p.get() instanceof List)) {
-                return false;
-            }
+        return whichOnlyContains(Arrays.asList(elements));
+    }
 
-            List<?> listP = (List<?>)p.get();
+    @Override
+    public <T> ListPropSelector whichOnlyContains(Collection<T> elements) {
+        describe("whichOnlyContains", new ArrayList<>(elements));
+        containing(elements);
+
+        ElementMultiset query = new ElementMultiset(elements);
+        ElementDictionaryImpl dict = dictionary;
+
+        if(dict != null) {
+            // the bitsets have to be equal, the multiset check is only
+            // needed for candidates that pass the bitset check
+            long[] mask = dict.encode(elements);
+            getPredicates().add((p) -> {
+                if(!(p.get() instanceof List)) {
+                    return false;
+                }
 
-            if(listP.size() != elements.length) {
-                return false;
-            }
+                List<?> listP = (List<?>)p.get();
 
-            return listP.containsAll(Arrays.asList(elements));      
-        });
+                return listP.size() == query.size()
+                    && ElementDictionaryImpl.sameBits(dict.bits(listP), mask)
+                    && query.isPermutationOf(listP);
+            });
 
-        return this;
-    }
+            return this;
+        }
 
-    @Override
-    public <T> ListPropSelector whichOnlyContains(Collection<T> elements) {
         getPredicates().add((p) -> {
             if(!(p.get() instanceof List)) {
                 return false;
             }
 
-            List<?> listP = (List<?>)p.get();
-
-            if(listP.size() != elements.size()) {
-                return false;
-            }
-
-            return listP.containsAll(elements);      
+            return query.isPermutationOf((List<?>)p.get());
         });
 
         return this;
@@ -155,6 +197,7 @@ class ListPropSelectorImpl extends PropSelectorImpl implements ListPropSelector
 
     @Override
     public <T> ListPropSelector withAllElementsComplyTo(Predicate<T> selPred) {
+        describe("allElementsComplyTo", selPred);
         getPredicates().add((p)-> {
 
             if(!(p.get() instanceof List)) {
@@ -182,6 +225,7 @@ class ListPropSelectorImpl extends PropSelectorImpl implements ListPropSelector
 
     @Override
     public <T> ListPropSelector withAtLeastOnElementCompliesTo(Predicate<T> selPred) {
+        describe("atLeastOneElementCompliesTo", selPred);
         getPredicates().add((p)-> {
 
             if(!(p.get() instanceof List)) {
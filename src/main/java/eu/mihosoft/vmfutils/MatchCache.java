@@ -0,0 +1,132 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import eu.mihosoft.vmf.runtime.core.VObject;
+import vjavax.observer.Subscription;
+
+/**
+ * Cache of the match results of a plan for the objects of a containment tree
+ * (see {@link Selector#memoize(VObject)}).
+ *
+ * Results are keyed by object identity. An entry is invalidated if a property
+ * the plan reads changes and removed as soon as its object is detached from
+ * the tree, i.e., detached objects are not retained. Objects that are not
+ * part of the tree are not cached (their changes are not observed).
+ */
+final class MatchCache implements ModelTracker.Listener, Subscription {
+
+    private final ModelTracker tracker;
+    private final Subscription subscription;
+    private final Map<VObject, Boolean> results = new IdentityHashMap<>();
+
+    private SelectorPlan plan;
+    // names of the properties read by the plan (null if any property is read)
+    private Set<String> reads;
+
+    MatchCache(VObject root) {
+        RootContext ctx = RootContext.of(root);
+        this.tracker = ctx.getTracker();
+        this.subscription = ctx.register(this, this);
+    }
+
+    /**
+     * Binds this cache to the specified plan. Cached results of the previous
+     * plan are discarded. Structural plans are not cached.
+     * @param plan plan to bind
+     */
+    synchronized void bind(SelectorPlan plan) {
+        if(this.plan != null) {
+            this.plan.removeCache(this);
+        }
+
+        results.clear();
+        this.plan = plan;
+        this.reads = reads(plan);
+
+        if(!plan.isStructural()) {
+            plan.addCache(this);
+        }
+    }
+
+    private static Set<String> reads(SelectorPlan plan) {
+        Set<String> names = new HashSet<>();
+
+        for(SelectorPlan.Condition c : plan.getConditions()) {
+            if(c.getNames().isEmpty()) {
+                return null;
+            }
+            names.addAll(c.getNames());
+        }
+
+        return names;
+    }
+
+    /**
+     * Returns the cached result of the specified object.
+     * @param vObj object
+     * @return the cached result or {@code null} if not cached
+     */
+    synchronized Boolean get(VObject vObj) {
+        return results.get(vObj);
+    }
+
+    /**
+     * Caches the result of the specified object. Only objects of the tracked
+     * tree are cached, i.e., objects whose changes are observed (objects
+     * outside of a memoized subtree are evaluated on every call).
+     * @param vObj object
+     * @param result result
+     */
+    synchronized void put(VObject vObj, boolean result) {
+        if(tracker.contains(vObj)) {
+            results.put(vObj, result);
+        }
+    }
+
+    @Override
+    public void attached(VObject vObj) {
+        // results are cached on demand
+    }
+
+    @Override
+    public synchronized void detached(VObject vObj) {
+        results.remove(vObj);
+    }
+
+    @Override
+    public synchronized void changed(VObject vObj, String propertyName) {
+        if(reads == null || reads.contains(propertyName)) {
+            results.remove(vObj);
+        }
+    }
+
+    @Override
+    public synchronized void unsubscribe() {
+        if(plan != null) {
+            plan.removeCache(this);
+            plan = null;
+        }
+
+        subscription.unsubscribe();
+        results.clear();
+    }
+}
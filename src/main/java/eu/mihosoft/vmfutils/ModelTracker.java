@@ -0,0 +1,393 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import eu.mihosoft.vmf.runtime.core.Change;
+import eu.mihosoft.vmf.runtime.core.VObject;
+import eu.mihosoft.vmf.runtime.core.internal.VObjectInternal;
+import vjavax.observer.Subscription;
+
+/**
+ * Tracks the objects of a containment tree and translates the raw change
+ * events of the tree into object level events.
+ *
+ * Only containment properties are followed, i.e., the tracked tree of an
+ * object is its containment subtree. References to other objects (including
+ * the container of the root) are not part of the tree. For every object the
+ * tracker remembers its container and the containment property it has been
+ * attached through.
+ */
+final class ModelTracker {
+
+    /**
+     * Listener for object level events of a tracked containment tree.
+     */
+    interface Listener {
+        /**
+         * Called after an object has been attached to the tracked tree.
+         * @param vObj the attached object
+         */
+        void attached(VObject vObj);
+
+        /**
+         * Called after an object has been detached from the tracked tree.
+         * @param vObj the detached object
+         */
+        void detached(VObject vObj);
+
+        /**
+         * Called after a property of an object of the tracked tree has
+         * changed. This includes list properties and properties that contain
+         * other objects.
+         * @param vObj the object that owns the changed property
+         * @param propertyName the name of the changed property
+         */
+        void changed(VObject vObj, String propertyName);
+    }
+
+    // types that implement the container accessor (the default implementation
+    // of types that cannot be contained throws)
+    private static final ClassValue<Boolean> CONTAINABLE = new ClassValue<Boolean>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
+            try {
+                return !type.getMethod("_vmf_getContainer").isDefault();
+            } catch(NoSuchMethodException ex) {
+                return false;
+            }
+        }
+    };
+
+    private final VObject root;
+    private final Map<VObject, VObject> containers = new IdentityHashMap<>();
+    private final Map<VObject, String> containmentProperties = new IdentityHashMap<>();
+    private final List<Listener> listeners = new ArrayList<>();
+    private final Subscription subscription;
+
+    ModelTracker(VObject root) {
+        this.root = root;
+        attach(root, null, null);
+        this.subscription = root.vmf().changes().addListener(this::onChange);
+    }
+
+    VObject getRoot() {
+        return root;
+    }
+
+    /**
+     * Adds the specified listener. Listeners are not notified about objects
+     * that are already part of the tree (see {@link #forEachObject(Consumer)}).
+     * @param l listener to add
+     * @return subscription that removes the listener
+     */
+    Subscription addListener(Listener l) {
+        listeners.add(l);
+        return () -> listeners.remove(l);
+    }
+
+    /**
+     * Indicates whether the specified object is part of the tracked tree.
+     * @param vObj object to check
+     * @return {@code true} if the object is part of the tree; {@code false} otherwise
+     */
+    boolean contains(VObject vObj) {
+        return containers.containsKey(vObj);
+    }
+
+    /**
+     * Returns the container of the specified object.
+     * @param vObj object of the tree
+     * @return the container of the object or {@code null} if the object is
+     *         the root or not part of the tree
+     */
+    VObject getContainer(VObject vObj) {
+        return containers.get(vObj);
+    }
+
+    /**
+     * Returns the name of the containment property of the container that
+     * contains the specified object.
+     * @param vObj object of the tree
+     * @return the name of the containment property or {@code null} if the
+     *         object is the root or not part of the tree
+     */
+    String getContainmentProperty(VObject vObj) {
+        return containmentProperties.get(vObj);
+    }
+
+    /**
+     * Returns the number of objects in the tracked tree.
+     * @return the number of objects in the tracked tree
+     */
+    int size() {
+        return containers.size();
+    }
+
+    /**
+     * Visits all objects of the tracked tree in depth-first pre-order.
+     * @param consumer consumer to call for each object
+     */
+    void forEachObject(Consumer<VObject> consumer) {
+        forEachObject(root, consumer);
+    }
+
+    /**
+     * Visits the objects of the subtree of the specified object in
+     * depth-first pre-order.
+     * @param vObj object of the tree
+     * @param consumer consumer to call for each object
+     */
+    void forEachObject(VObject vObj, Consumer<VObject> consumer) {
+        Deque<VObject> stack = new ArrayDeque<>();
+        stack.push(vObj);
+
+        List<VObject> children = new ArrayList<>();
+
+        while(!stack.isEmpty()) {
+            VObject parent = stack.pop();
+            consumer.accept(parent);
+
+            children.clear();
+            forEachChild(parent, (c) -> {
+                if(containers.get(c) == parent) {
+                    children.add(c);
+                }
+            });
+
+            // reverse order to preserve the child order on the stack
+            for(int i = children.size() - 1; i >= 0; i--) {
+                stack.push(children.get(i));
+            }
+        }
+    }
+
+    /**
+     * Stops tracking the tree.
+     */
+    void close() {
+        subscription.unsubscribe();
+        listeners.clear();
+        containers.clear();
+        containmentProperties.clear();
+    }
+
+    private void onChange(Change c) {
+        VObject owner = c.object();
+        String propertyName = c.propertyName();
+
+        // only containment properties of tracked objects change the tree
+        // (this excludes the container reference of the owner)
+        if(containers.containsKey(owner) && isContainmentProperty(owner, propertyName)) {
+            c.propertyChange().ifPresent((pc) -> {
+                Object oldValue = pc.oldValue();
+                Object newValue = pc.newValue();
+
+                if(oldValue instanceof VObject && containers.get(oldValue) == owner) {
+                    detachTree((VObject) oldValue);
+                }
+
+                if(newValue instanceof VObject && !containers.containsKey(newValue)) {
+                    attachTree((VObject) newValue, owner, propertyName);
+                }
+            });
+
+            c.listChange().ifPresent((lc) -> {
+                for(Object o : lc.removed().elements()) {
+                    if(o instanceof VObject && containers.get(o) == owner) {
+                        detachTree((VObject) o);
+                    }
+                }
+
+                for(Object o : lc.added().elements()) {
+                    if(o instanceof VObject && !containers.containsKey(o)) {
+                        attachTree((VObject) o, owner, propertyName);
+                    }
+                }
+            });
+        }
+
+        if(containers.containsKey(owner)) {
+            for(int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).changed(owner, c.propertyName());
+            }
+        }
+    }
+
+    private void attachTree(VObject vObj, VObject container, String propertyName) {
+        for(VObject attached : attach(vObj, container, propertyName)) {
+            for(int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).attached(attached);
+            }
+        }
+    }
+
+    private List<VObject> attach(VObject vObj, VObject container, String propertyName) {
+        List<VObject> attached = new ArrayList<>();
+        Deque<VObject> stack = new ArrayDeque<>();
+        containers.put(vObj, container);
+        containmentProperties.put(vObj, propertyName);
+        stack.push(vObj);
+
+        while(!stack.isEmpty()) {
+            VObject parent = stack.pop();
+            attached.add(parent);
+
+            forEachChild(parent, null, (name, c) -> {
+                if(!containers.containsKey(c)) {
+                    containers.put(c, parent);
+                    containmentProperties.put(c, name);
+                    stack.push(c);
+                }
+            });
+        }
+
+        return attached;
+    }
+
+    private void detachTree(VObject vObj) {
+        List<VObject> detached = new ArrayList<>();
+        Deque<VObject> stack = new ArrayDeque<>();
+        stack.push(vObj);
+
+        while(!stack.isEmpty()) {
+            VObject parent = stack.pop();
+            detached.add(parent);
+
+            forEachChild(parent, (c) -> {
+                if(containers.get(c) == parent) {
+                    stack.push(c);
+                }
+            });
+        }
+
+        for(VObject d : detached) {
+            containers.remove(d);
+            containmentProperties.remove(d);
+        }
+
+        for(VObject d : detached) {
+            for(int i = 0; i < listeners.size(); i++) {
+                listeners.get(i).detached(d);
+            }
+        }
+    }
+
+    /**
+     * Visits the children of the specified object, i.e., the objects of its
+     * containment properties.
+     * @param vObj object
+     * @param consumer consumer to call for each child
+     */
+    static void forEachChild(VObject vObj, Consumer<VObject> consumer) {
+        forEachChild(vObj, null, (name, c) -> consumer.accept(c));
+    }
+
+    /**
+     * Visits the children of the specified object, i.e., the objects of its
+     * containment properties.
+     * @param vObj object
+     * @param names names of the containment properties to visit or
+     *              {@code null} to visit all containment properties
+     * @param consumer consumer to call with the property name and the child
+     */
+    @SuppressWarnings("deprecation")
+    static void forEachChild(VObject vObj, String[] names, BiConsumer<String, VObject> consumer) {
+        if(!(vObj instanceof VObjectInternal)) {
+            return;
+        }
+
+        VObjectInternal internal = (VObjectInternal) vObj;
+        String[] propertyNames = internal._vmf_getPropertyNames();
+
+        for(int id : internal._vmf_getChildrenIndices()) {
+            String name = propertyNames[id];
+            if(names != null && !containsName(names, name)) {
+                continue;
+            }
+
+            Object value = internal._vmf_getPropertyValueById(id);
+            if(value instanceof List) {
+                for(Object element : (List<?>) value) {
+                    if(element instanceof VObject) {
+                        consumer.accept(name, (VObject) element);
+                    }
+                }
+            } else if(value instanceof VObject) {
+                consumer.accept(name, (VObject) value);
+            }
+        }
+    }
+
+    /**
+     * Returns the container of the specified object.
+     * @param vObj object
+     * @return the container of the object or {@code null} if the object is
+     *         not contained
+     */
+    @SuppressWarnings("deprecation")
+    static VObject containerOf(VObject vObj) {
+        if(!(vObj instanceof VObjectInternal) || !CONTAINABLE.get(vObj.getClass())) {
+            return null;
+        }
+
+        return ((VObjectInternal) vObj)._vmf_getContainer();
+    }
+
+    /**
+     * Indicates whether the specified property is a containment property of
+     * the specified object.
+     * @param vObj object
+     * @param propertyName name of the property
+     * @return {@code true} if the property is a containment property;
+     *         {@code false} otherwise
+     */
+    @SuppressWarnings("deprecation")
+    static boolean isContainmentProperty(VObject vObj, String propertyName) {
+        if(propertyName == null || !(vObj instanceof VObjectInternal)) {
+            return false;
+        }
+
+        VObjectInternal internal = (VObjectInternal) vObj;
+        int id = internal._vmf_getPropertyIdByName(propertyName);
+
+        for(int childId : internal._vmf_getChildrenIndices()) {
+            if(childId == id) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    static boolean containsName(String[] names, String name) {
+        for(String n : names) {
+            if(n.equals(name)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
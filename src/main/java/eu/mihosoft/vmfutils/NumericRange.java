@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+/**
+ * Interval of numeric values. Consecutive comparisons of a numeric property
+ * selector are merged into one interval, i.e., {@code > 100} and
+ * {@code <= 200} are tested with a single interval check.
+ *
+ * Integer values are represented exactly by doubles, we therefore use doubles
+ * for both, integer and double properties. As with the primitive comparison
+ * operators, {@code NaN} is never contained.
+ */
+final class NumericRange {
+
+    private double lower = Double.NEGATIVE_INFINITY;
+    private boolean lowerInclusive = true;
+    private double upper = Double.POSITIVE_INFINITY;
+    private boolean upperInclusive = true;
+    private boolean empty;
+
+    void greaterThan(double value) {
+        if(Double.isNaN(value)) {
+            empty = true;
+        } else if(value >= lower) {
+            lower = value;
+            lowerInclusive = false;
+        }
+    }
+
+    void greaterThanOrEqualTo(double value) {
+        if(Double.isNaN(value)) {
+            empty = true;
+        } else if(value > lower) {
+            lower = value;
+            lowerInclusive = true;
+        }
+    }
+
+    void lessThan(double value) {
+        if(Double.isNaN(value)) {
+            empty = true;
+        } else if(value <= upper) {
+            upper = value;
+            upperInclusive = false;
+        }
+    }
+
+    void lessThanOrEqualTo(double value) {
+        if(Double.isNaN(value)) {
+            empty = true;
+        } else if(value < upper) {
+            upper = value;
+            upperInclusive = true;
+        }
+    }
+
+    double getLower() {
+        return lower;
+    }
+
+    boolean isLowerInclusive() {
+        return lowerInclusive;
+    }
+
+    double getUpper() {
+        return upper;
+    }
+
+    boolean isUpperInclusive() {
+        return upperInclusive;
+    }
+
+    /**
+     * Indicates whether this range cannot contain any value.
+     * @return {@code true} if this range is empty; {@code false} otherwise
+     */
+    boolean isEmpty() {
+        return empty || lower > upper
+                || (lower == upper && !(lowerInclusive && upperInclusive));
+    }
+
+    boolean contains(double value) {
+        if(empty) {
+            return false;
+        }
+
+        boolean aboveLower = lowerInclusive ? value >= lower : value > lower;
+        boolean belowUpper = upperInclusive ? value <= upper : value < upper;
+
+        return aboveLower && belowUpper;
+    }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.stream.Stream;
+
+import eu.mihosoft.vmf.runtime.core.VObject;
+
+/**
+ * Evaluates a compiled selector on many objects in parallel.
+ *
+ * Containment trees are traversed in parallel: the calling thread visits the
+ * first objects in pre-order. If the tree is larger than the threshold, the
+ * subtrees that have not been visited yet are split into segments that are
+ * traversed and evaluated in parallel (each subtree by exactly one task).
+ * Given objects (e.g. the result of index lookups) are split into ranges that
+ * are evaluated in parallel. The result preserves the order, i.e., it is
+ * deterministic and equal to the result of the sequential selection.
+ */
+final class ParallelSelection {
+
+    /**
+     * Default number of objects below which the selection is sequential.
+     */
+    static final int DEFAULT_THRESHOLD = 10_000;
+
+    private static final int MIN_RANGE_SIZE = 1024;
+
+    private ParallelSelection() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Selects the matching objects from the specified containment tree.
+     * @param plan compiled selector
+     * @param root root of the containment tree
+     * @param executor executor used to traverse the subtrees
+     * @param threshold number of objects below which the selection is sequential
+     * @return the matching objects (in pre-order)
+     */
+    static List<VObject> select(SelectorPlan plan, VObject root,
+                                Executor executor, int threshold) {
+        List<VObject> result = new ArrayList<>();
+        Deque<VObject> stack = new ArrayDeque<>();
+        stack.push(root);
+
+        // small trees (and the first objects of large trees) are visited on
+        // the calling thread
+        for(int visited = 0; visited < threshold && !stack.isEmpty(); visited++) {
+            VObject vObj = stack.pop();
+            if(plan.test(vObj)) {
+                result.add(vObj);
+            }
+            pushChildren(stack, vObj);
+        }
+
+        if(stack.isEmpty()) {
+            return result;
+        }
+
+        // the stack contains the subtrees that have not been visited (in
+        // pre-order)
+        int numTasks = parallelism(executor) * 4;
+        List<Segment> segments = split(plan, new ArrayList<>(stack), numTasks);
+        List<Segment> subtrees = new ArrayList<>();
+        for(Segment segment : segments) {
+            if(segment.subtree) {
+                subtrees.add(segment);
+            }
+        }
+
+        // consecutive subtrees are grouped into tasks of equal counts
+        List<Runnable> tasks = new ArrayList<>();
+        int size = Math.max(1, (subtrees.size() + numTasks - 1) / numTasks);
+        for(int from = 0; from < subtrees.size(); from += size) {
+            List<Segment> group = subtrees.subList(from, Math.min(subtrees.size(), from + size));
+            tasks.add(() -> {
+                for(Segment segment : group) {
+                    traverse(plan, segment);
+                }
+            });
+        }
+
+        invokeAll(tasks, executor);
+
+        for(Segment segment : segments) {
+            result.addAll(segment.matches);
+        }
+
+        return result;
+    }
+
+    /**
+     * Splits the specified subtrees into segments until there are enough
+     * subtrees for the specified number of tasks. A split subtree is replaced
+     * by its root (evaluated on the calling thread) and the subtrees of its
+     * children.
+     */
+    private static List<Segment> split(SelectorPlan plan, List<VObject> pending, int numTasks) {
+        List<Segment> segments = new ArrayList<>();
+        for(VObject vObj : pending) {
+            segments.add(new Segment(vObj, true));
+        }
+
+        int numSubtrees = segments.size();
+
+        while(numSubtrees > 0 && numSubtrees < numTasks) {
+            List<Segment> split = new ArrayList<>();
+            numSubtrees = 0;
+
+            for(Segment segment : segments) {
+                if(!segment.subtree) {
+                    split.add(segment);
+                    continue;
+                }
+
+                Segment single = new Segment(segment.vObj, false);
+                if(plan.test(segment.vObj)) {
+                    single.matches.add(segment.vObj);
+                }
+                split.add(single);
+
+                List<VObject> children = new ArrayList<>();
+                ModelTracker.forEachChild(segment.vObj, children::add);
+                for(VObject c : children) {
+                    split.add(new Segment(c, true));
+                    numSubtrees++;
+                }
+            }
+
+            segments = split;
+        }
+
+        return segments;
+    }
+
+    /**
+     * Traverses the subtree of the specified segment and collects the
+     * matching objects (in pre-order).
+     */
+    private static void traverse(SelectorPlan plan, Segment segment) {
+        Deque<VObject> stack = new ArrayDeque<>();
+        stack.push(segment.vObj);
+
+        while(!stack.isEmpty()) {
+            VObject vObj = stack.pop();
+            prepare(vObj);
+            if(plan.test(vObj)) {
+                segment.matches.add(vObj);
+            }
+            pushChildren(stack, vObj);
+        }
+    }
+
+    private static void pushChildren(Deque<VObject> stack, VObject vObj) {
+        List<VObject> children = new ArrayList<>();
+        ModelTracker.forEachChild(vObj, children::add);
+
+        // reverse order to preserve the child order on the stack
+        for(int i = children.size() - 1; i >= 0; i--) {
+            stack.push(children.get(i));
+        }
+    }
+
+    /**
+     * Initializes the reflection data of the specified object. The
+     * reflection data of VMF objects is initialized lazily and not
+     * thread-safe, i.e., objects have to be prepared by one thread before
+     * other threads evaluate them concurrently.
+     * @param vObj object to prepare
+     */
+    static void prepare(VObject vObj) {
+        vObj.vmf().reflect().properties();
+    }
+
+    /**
+     * Selects the matching objects from the specified objects.
+     * @param plan compiled selector
+     * @param source objects to test
+     * @param executor executor used to evaluate the ranges
+     * @param threshold number of objects below which the selection is sequential
+     * @return the matching objects (in the order of the source)
+     */
+    static List<VObject> select(SelectorPlan plan, Stream<VObject> source,
+                                Executor executor, int threshold) {
+
+        List<VObject> objects = new ArrayList<>();
+
+        // each object is evaluated by exactly one thread (the one that
+        // initializes its reflection data)
+        source.forEach(objects::add);
+
+        boolean[] matches = new boolean[objects.size()];
+
+        if(objects.size() < threshold) {
+            evaluate(plan, objects, matches, 0, objects.size());
+        } else {
+            int rangeSize = Math.max(MIN_RANGE_SIZE,
+                objects.size() / (parallelism(executor) * 4));
+
+            if(executor instanceof ForkJoinPool) {
+                ((ForkJoinPool) executor).invoke(
+                    new EvaluateAction(plan, objects, matches,
+                        0, objects.size(), rangeSize));
+            } else {
+                evaluate(plan, objects, matches, executor, rangeSize);
+            }
+        }
+
+        List<VObject> result = new ArrayList<>();
+        for(int i = 0; i < matches.length; i++) {
+            if(matches[i]) {
+                result.add(objects.get(i));
+            }
+        }
+
+        return result;
+    }
+
+    private static int parallelism(Executor executor) {
+        return executor instanceof ForkJoinPool
+            ? ((ForkJoinPool) executor).getParallelism()
+            : Runtime.getRuntime().availableProcessors();
+    }
+
+    private static void evaluate(SelectorPlan plan, List<VObject> objects,
+                                 boolean[] matches, Executor executor, int rangeSize) {
+        List<Runnable> tasks = new ArrayList<>();
+
+        for(int from = 0; from < objects.size(); from += rangeSize) {
+            int start = from;
+            int end = Math.min(objects.size(), from + rangeSize);
+            tasks.add(() -> evaluate(plan, objects, matches, start, end));
+        }
+
+        invokeAll(tasks, executor);
+    }
+
+    /**
+     * Runs the specified tasks with the specified executor and waits until
+     * all of them have completed.
+     * @param tasks tasks to run
+     * @param executor executor used to run the tasks
+     */
+    static void invokeAll(List<Runnable> tasks, Executor executor) {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        for(Runnable task : tasks) {
+            futures.add(CompletableFuture.runAsync(task, executor));
+        }
+
+        try {
+            CompletableFuture.allOf(
+                futures.toArray(new CompletableFuture<?>[futures.size()])).join();
+        } catch(CompletionException ex) {
+            if(ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    private static void evaluate(SelectorPlan plan, List<VObject> objects,
+                                 boolean[] matches, int from, int to) {
+        for(int i = from; i < to; i++) {
+            matches[i] = plan.test(objects.get(i));
+        }
+    }
+
+    /**
+     * Object or subtree of a split tree and its matching objects.
+     */
+    private static final class Segment {
+        private final VObject vObj;
+        // whether the whole subtree of the object is part of this segment
+        private final boolean subtree;
+        private final List<VObject> matches = new ArrayList<>();
+
+        Segment(VObject vObj, boolean subtree) {
+            this.vObj = vObj;
+            this.subtree = subtree;
+        }
+    }
+
+    private static final class EvaluateAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final SelectorPlan plan;
+        private final List<VObject> objects;
+        private final boolean[] matches;
+        private final int from;
+        private final int to;
+        private final int rangeSize;
+
+        EvaluateAction(SelectorPlan plan, List<VObject> objects, boolean[] matches,
+                       int from, int to, int rangeSize) {
+            this.plan = plan;
+            this.objects = objects;
+            this.matches = matches;
+            this.from = from;
+            this.to = to;
+            this.rangeSize = rangeSize;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= rangeSize) {
+                evaluate(plan, objects, matches, from, to);
+                return;
+            }
+
+            int mid = (from + to) >>> 1;
+            invokeAll(
+                new EvaluateAction(plan, objects, matches, from, mid, rangeSize),
+                new EvaluateAction(plan, objects, matches, mid, to, rangeSize));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Typed accessors for primitive properties. An accessor calls the generated
+ * getter of a property (e.g. {@code double getPressure()}) directly, i.e.,
+ * reading the value neither goes through {@code Property.get()} nor boxes it.
+ *
+ * Accessors are created once per class and property name.
+ */
+final class PrimitiveAccessors {
+
+    private static final Object NO_ACCESSOR = new Object();
+
+    private static final ClassValue<Map<String, Object>> ACCESSORS =
+        new ClassValue<Map<String, Object>>() {
+            @Override
+            protected Map<String, Object> computeValue(Class<?> type) {
+                return new ConcurrentHashMap<>();
+            }
+        };
+
+    private PrimitiveAccessors() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Returns an accessor for the specified double property.
+     * @param cls class of the objects
+     * @param propertyName name of the property
+     * @return the accessor or {@code null} if the class has no public getter
+     *         of type {@code double} for the property
+     */
+    @SuppressWarnings("unchecked")
+    static ToDoubleFunction<Object> doubleGetter(Class<?> cls, String propertyName) {
+        Object accessor = accessor(cls, propertyName, double.class);
+        return accessor instanceof ToDoubleFunction ? (ToDoubleFunction<Object>) accessor : null;
+    }
+
+    /**
+     * Returns an accessor for the specified int property.
+     * @param cls class of the objects
+     * @param propertyName name of the property
+     * @return the accessor or {@code null} if the class has no public getter
+     *         of type {@code int} for the property
+     */
+    @SuppressWarnings("unchecked")
+    static ToIntFunction<Object> intGetter(Class<?> cls, String propertyName) {
+        Object accessor = accessor(cls, propertyName, int.class);
+        return accessor instanceof ToIntFunction ? (ToIntFunction<Object>) accessor : null;
+    }
+
+    private static Object accessor(Class<?> cls, String propertyName, Class<?> valueType) {
+        Object accessor = ACCESSORS.get(cls).computeIfAbsent(
+            valueType.getName() + ":" + propertyName,
+            (k) -> {
+                Object a = createAccessor(cls, propertyName, valueType);
+                return a == null ? NO_ACCESSOR : a;
+            });
+
+        return accessor == NO_ACCESSOR ? null : accessor;
+    }
+
+    private static Object createAccessor(Class<?> cls, String propertyName, Class<?> valueType) {
+        if(propertyName.isEmpty()) {
+            return null;
+        }
+
+        Method getter = findGetter(cls, "get" + Character.toUpperCase(propertyName.charAt(0))
+            + propertyName.substring(1), valueType);
+
+        if(getter == null) {
+            return null;
+        }
+
+        try {
+            MethodHandle mh = MethodHandles.publicLookup().unreflect(getter);
+
+            try {
+                return metafactory(mh, getter.getDeclaringClass(), valueType);
+            } catch(Throwable t) {
+                // the model classes might not be visible from this class
+                // (e.g. different class loader), we use the method handle
+            }
+
+            MethodHandle generic = mh.asType(MethodType.methodType(valueType, Object.class));
+
+            if(valueType == double.class) {
+                return (ToDoubleFunction<Object>) (o) -> {
+                    try {
+                        return (double) generic.invokeExact(o);
+                    } catch(RuntimeException | Error ex) {
+                        throw ex;
+                    } catch(Throwable t) {
+                        throw new IllegalStateException(t);
+                    }
+                };
+            } else {
+                return (ToIntFunction<Object>) (o) -> {
+                    try {
+                        return (int) generic.invokeExact(o);
+                    } catch(RuntimeException | Error ex) {
+                        throw ex;
+                    } catch(Throwable t) {
+                        throw new IllegalStateException(t);
+                    }
+                };
+            }
+        } catch(IllegalAccessException ex) {
+            return null;
+        }
+    }
+
+    private static Object metafactory(MethodHandle mh, Class<?> owner, Class<?> valueType) throws Throwable {
+        Class<?> fi = valueType == double.class ? ToDoubleFunction.class : ToIntFunction.class;
+        String name = valueType == double.class ? "applyAsDouble" : "applyAsInt";
+
+        CallSite site = LambdaMetafactory.metafactory(
+            MethodHandles.lookup(),
+            name,
+            MethodType.methodType(fi),
+            MethodType.methodType(valueType, Object.class),
+            mh,
+            MethodType.methodType(valueType, owner));
+
+        return site.getTarget().invoke();
+    }
+
+    /**
+     * Returns the public getter with the specified name and return type
+     * declared by a public type (usually the model interface).
+     */
+    private static Method findGetter(Class<?> cls, String name, Class<?> valueType) {
+        Method method;
+        try {
+            method = cls.getMethod(name);
+        } catch(NoSuchMethodException ex) {
+            return null;
+        }
+
+        if(method.getReturnType() != valueType || Modifier.isStatic(method.getModifiers())) {
+            return null;
+        }
+
+        if(Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+            return method;
+        }
+
+        // the implementation class is not public, we look for the method in
+        // the public interfaces
+        for(Class<?> iface : cls.getInterfaces()) {
+            Method m = findGetter(iface, name, valueType);
+            if(m != null) {
+                return m;
+            }
+        }
+
+        return cls.getSuperclass() == null ? null
+            : findGetter(cls.getSuperclass(), name, valueType);
+    }
+}
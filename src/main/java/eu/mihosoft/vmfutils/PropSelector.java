@@ -16,11 +16,19 @@
 package eu.mihosoft.vmfutils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.DoublePredicate;
+import java.util.function.IntPredicate;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import eu.mihosoft.vmf.runtime.core.Property;
 import eu.mihosoft.vmf.runtime.core.Type;
@@ -41,17 +49,301 @@ public interface PropSelector {
 
     public Collection<Property> selectFrom(Collection<? extends Property> collection);
     public Collection<Property> selectFrom(VObject vObj);
+
+    /**
+     * Returns a lazy stream of the matching properties of the specified object.
+     * @param vObj object
+     * @return a lazy stream of the matching properties
+     */
+    public Stream<Property> stream(VObject vObj);
+
+    /**
+     * Returns the first matching property of the specified object.
+     * @param vObj object
+     * @return the first matching property (empty if no property matches)
+     */
+    public Optional<Property> findFirst(VObject vObj);
     
 }
 
 class PropSelectorImpl implements PropSelector {
 
     private final List<Predicate<Property>> predicates = new ArrayList<>();
+    private final Set<String> names = new LinkedHashSet<>();
+    private final List<Object> equalValues = new ArrayList<>();
+    private final Set<Object> containedElements = new LinkedHashSet<>();
+    private NumericRange range;
+    private final List<Object> descriptors = new ArrayList<>();
+    private CompiledPredicate compiled;
+
+    // predicates that can be evaluated on the primitive property value
+    private Class<? extends Number> primitiveValueType;
+    private int namePredicates;
+    private int primitivePredicates;
+    private final List<DoublePredicate> doublePredicates = new ArrayList<>();
+    private final List<IntPredicate> intPredicates = new ArrayList<>();
 
     protected List<Predicate<Property>> getPredicates() {
         return this.predicates;
     }
 
+    /**
+     * Describes the predicate that is added next. Two selectors with equal
+     * descriptions of all predicates are equivalent (see {@link #getKey()}).
+     * @param descriptor operation name followed by its arguments (arguments
+     *                   without value semantics, e.g. lambdas, are compared
+     *                   by identity)
+     */
+    protected final void describe(Object... descriptor) {
+        descriptors.add(Arrays.asList(descriptor));
+    }
+
+    /**
+     * Indicates for each predicate whether it can be reordered. Predicates
+     * defined by this library accept any property value, user defined
+     * predicates (lambdas) might rely on the predicates added before them.
+     */
+    private boolean[] movablePredicates() {
+        boolean[] movable = new boolean[predicates.size()];
+
+        if(descriptors.size() != predicates.size()) {
+            return movable;
+        }
+
+        for(int i = 0; i < movable.length; i++) {
+            movable[i] = !isOpaque((List<?>) descriptors.get(i));
+        }
+
+        return movable;
+    }
+
+    private static boolean isOpaque(List<?> descriptor) {
+        for(Object arg : descriptor) {
+            if(arg instanceof Predicate || arg instanceof DoublePredicate
+                    || arg instanceof IntPredicate) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Indicates whether all predicates of this selector are defined by this
+     * library, i.e., whether the selector can be evaluated in any order
+     * relative to other selectors.
+     */
+    boolean isPure() {
+        boolean[] movable = movablePredicates();
+        for(boolean m : movable) {
+            if(!m) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a key that identifies the condition of this selector. Selectors
+     * with equal keys accept the same properties, i.e., their evaluation can
+     * be shared.
+     * @return the key or {@code null} if not all predicates of this selector
+     *         have been described
+     */
+    Object getKey() {
+        if(descriptors.size() != predicates.size()) {
+            return null;
+        }
+
+        List<Object> key = new ArrayList<>(descriptors.size() + 2);
+        key.add(getClass());
+        key.addAll(descriptors);
+
+        if(range != null) {
+            key.add(Arrays.asList(range.getLower(), range.isLowerInclusive(),
+                range.getUpper(), range.isUpperInclusive(), range.isEmpty()));
+        }
+
+        return key;
+    }
+
+    /**
+     * Returns the property names this selector is restricted to via
+     * {@link #withName(String)}. An empty set means that the selector may
+     * match properties of any name. More than one name means that no property
+     * can match.
+     */
+    Set<String> getNames() {
+        return this.names;
+    }
+
+    /**
+     * Returns the values specified via {@link #withValueThatIsEqualTo(Object)}.
+     */
+    List<Object> getEqualValues() {
+        return this.equalValues;
+    }
+
+    /**
+     * Returns the elements the list value of the property has to contain
+     * (e.g. specified via {@code whichContains(...)}).
+     */
+    Set<Object> getContainedElements() {
+        return this.containedElements;
+    }
+
+    /**
+     * Records elements the list value of the property has to contain. The
+     * elements are used for index lookups, the caller has to add the
+     * predicate that tests them.
+     * @param elements elements
+     */
+    protected final void containing(Collection<?> elements) {
+        containedElements.addAll(elements);
+    }
+
+    /**
+     * Returns the interval the numeric value of the property has to be
+     * contained in.
+     * @return the interval or {@code null} if the value is not restricted
+     */
+    NumericRange getRange() {
+        return this.range;
+    }
+
+    /**
+     * Indicates whether the lookup of an index for the specified operation
+     * ({@code "equalTo"}, {@code "range"} or {@code "whichContains"}) returns
+     * exactly the objects that satisfy this selector, i.e., whether the
+     * selector only consists of its name and a single such operation.
+     * @param operation operation name (see {@link #describe(Object...)})
+     * @return {@code true} if the lookup is exact; {@code false} otherwise
+     */
+    boolean isAnsweredBy(String operation) {
+        if(names.size() != 1 || descriptors.size() != predicates.size()
+                || descriptors.size() != names.size() + 1) {
+            return false;
+        }
+
+        for(Object d : descriptors) {
+            List<?> descriptor = (List<?>) d;
+            Object op = descriptor.get(0);
+
+            if("name".equals(op)) {
+                continue;
+            }
+
+            if(!operation.equals(op)) {
+                return false;
+            }
+
+            // range predicates reject values of other types (range indexes
+            // contain all numbers), contains predicates have set semantics
+            // like element indexes (duplicate query elements are irrelevant)
+            if("range".equals(op)) {
+                return descriptor.get(1) == Number.class;
+            } else if("whichContains".equals(op)) {
+                return new HashSet<>((List<?>) descriptor.get(1)).equals(containedElements);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the interval of this selector. On first access a single
+     * predicate is added that tests whether the property value is an
+     * instance of the specified type and contained in the interval. Further
+     * comparisons narrow the interval instead of adding predicates.
+     *
+     * @param valueType type of the property value (e.g. Double)
+     * @return the interval of this selector
+     */
+    protected final NumericRange range(Class<? extends Number> valueType) {
+        if(range == null) {
+            NumericRange r = new NumericRange();
+            describe("range", valueType);
+            primitive(valueType);
+            predicates.add((p)->{
+                Object v = p.get();
+                if(!valueType.isInstance(v)) {
+                    return false;
+                }
+
+                return r.contains(((Number)v).doubleValue());
+            });
+            range = r;
+        }
+
+        return range;
+    }
+
+    private void primitive(Class<? extends Number> valueType) {
+        primitivePredicates++;
+        primitiveValueType = primitiveValueType == null || primitiveValueType == valueType
+            ? valueType : Number.class;
+    }
+
+    /**
+     * Returns the primitive type this selector can be evaluated on. A selector
+     * can be evaluated on the primitive value of a property (see
+     * {@link #testDouble(double)} and {@link #testInt(int)}) if it is
+     * restricted to exactly one property name and all other predicates are
+     * numeric comparisons or primitive predicates.
+     * @return {@code double.class}, {@code int.class} or {@code null} if the
+     *         selector has to be evaluated on the property
+     */
+    Class<?> getPrimitiveType() {
+        if(names.size() != 1 || namePredicates + primitivePredicates != predicates.size()) {
+            return null;
+        }
+
+        if(primitiveValueType == Double.class) {
+            return double.class;
+        } else if(primitiveValueType == Integer.class) {
+            return int.class;
+        }
+
+        return null;
+    }
+
+    /**
+     * Tests the primitive value of the property (see {@link #getPrimitiveType()}).
+     * @param value property value
+     * @return {@code true} if the value satisfies the predicates of this selector; {@code false} otherwise
+     */
+    final boolean testDouble(double value) {
+        if(range != null && !range.contains(value)) {
+            return false;
+        }
+
+        for(int i = 0; i < doublePredicates.size(); i++) {
+            if(!doublePredicates.get(i).test(value)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Tests the primitive value of the property (see {@link #getPrimitiveType()}).
+     * @param value property value
+     * @return {@code true} if the value satisfies the predicates of this selector; {@code false} otherwise
+     */
+    final boolean testInt(int value) {
+        if(range != null && !range.contains(value)) {
+            return false;
+        }
+
+        for(int i = 0; i < intPredicates.size(); i++) {
+            if(!intPredicates.get(i).test(value)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     @Override
     public PropSelector withName(String name) {
         return _withName(name);
@@ -73,24 +365,53 @@ class PropSelectorImpl implements PropSelector {
     }
 
     final PropSelector _withName(String name) {
+        names.add(name);
+        describe("name", name);
+        namePredicates++;
         predicates.add((p)->name.equals(p.getName()));
         return this;
     }
 
 
     final PropSelector _withType(Type type) {
+        describe("type", type);
         predicates.add((p)->type.equals(p.getType()));
         return this;
     }
 
 
     final <T> PropSelector _withValueThatIsEqualTo(T value) {
+        equalValues.add(value);
+        describe("equalTo", value);
         predicates.add((p)->Objects.equals(p.get(), value));
         return this;
     }
 
 
+    final PropSelector _withDoubleValueThatMatches(DoublePredicate pred) {
+        describe("doubleMatches", pred);
+        primitive(Double.class);
+        doublePredicates.add(pred);
+        predicates.add((p)->{
+            Object v = p.get();
+            return v instanceof Double && pred.test((Double)v);
+        });
+        return this;
+    }
+
+    final PropSelector _withIntValueThatMatches(IntPredicate pred) {
+        describe("intMatches", pred);
+        primitive(Integer.class);
+        intPredicates.add(pred);
+        predicates.add((p)->{
+            Object v = p.get();
+            return v instanceof Integer && pred.test((Integer)v);
+        });
+        return this;
+    }
+
     final <T> PropSelector _withValueThatMatches(Predicate<T> pred) {
+        describe("matches", pred);
         predicates.add((p)->{
             try {
                 return pred.test((T)p.get());
@@ -105,15 +426,77 @@ class PropSelectorImpl implements PropSelector {
 
     @Override
     public final Predicate<Property> asPredicate() {
-        return (p)->{
-            for(Predicate<Property> pred : predicates) {
-                if(!pred.test(p)) {
+        return (p)->compiled().test(p);
+    }
+
+    /**
+     * Returns the compiled conjunction of the predicates of this selector.
+     * The conjunction is recompiled if predicates have been added.
+     */
+    private CompiledPredicate compiled() {
+        CompiledPredicate c = compiled;
+
+        if(c == null || c.predicates.length != predicates.size()) {
+            @SuppressWarnings("unchecked")
+            Predicate<Property>[] preds = (Predicate<Property>[])
+                predicates.toArray(new Predicate<?>[predicates.size()]);
+            c = new CompiledPredicate(preds, new AdaptiveOrder(movablePredicates()));
+            compiled = c;
+        }
+
+        return c;
+    }
+
+    /**
+     * Conjunction of predicates that are evaluated in adaptive order.
+     */
+    private static final class CompiledPredicate implements Predicate<Property> {
+        private final Predicate<Property>[] predicates;
+        private final AdaptiveOrder order;
+
+        CompiledPredicate(Predicate<Property>[] predicates, AdaptiveOrder order) {
+            this.predicates = predicates;
+            this.order = order;
+        }
+
+        @Override
+        public boolean test(Property p) {
+            if(order.sample()) {
+                return testSampled(p);
+            }
+
+            int[] o = order.order();
+            for(int i = 0; i < o.length; i++) {
+                if(!predicates[o[i]].test(p)) {
                     return false;
                 }
             }
 
             return true;
-        };
+        }
+
+        private boolean testSampled(Property p) {
+            long[] nanos = new long[predicates.length];
+            boolean[] satisfied = new boolean[predicates.length];
+            boolean result = true;
+
+            // we evaluate all movable predicates (in their original order)
+            // to observe their rejection rates, other predicates are only
+            // evaluated as long as the property has not been rejected
+            for(int i = 0; i < predicates.length; i++) {
+                if(!result && !order.isMovable(i)) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                satisfied[i] = predicates[i].test(p);
+                nanos[i] = System.nanoTime() - start;
+                result &= satisfied[i];
+            }
+
+            order.record(nanos, satisfied);
+
+            return result;
+        }
     }
 
     @Override
@@ -124,8 +507,17 @@ class PropSelectorImpl implements PropSelector {
 
     @Override
     public final Collection<Property> selectFrom(VObject vObj) {
-        return vObj.vmf().reflect().properties().stream().filter(asPredicate()).
-          collect(Collectors.toList());
+        return stream(vObj).collect(Collectors.toList());
+    }
+
+    @Override
+    public final Stream<Property> stream(VObject vObj) {
+        return vObj.vmf().reflect().properties().stream().filter(asPredicate());
+    }
+
+    @Override
+    public final Optional<Property> findFirst(VObject vObj) {
+        return stream(vObj).findFirst();
     }
 
 }
\ No newline at end of file
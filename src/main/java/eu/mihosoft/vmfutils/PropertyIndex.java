@@ -0,0 +1,142 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.mihosoft.vmf.runtime.core.Property;
+import eu.mihosoft.vmf.runtime.core.VObject;
+import vjavax.observer.Subscription;
+
+/**
+ * Index that maps the values of a property to the objects of a containment
+ * tree that have this value. The index is kept up to date as the tree changes
+ * until it is unsubscribed.
+ *
+ * Selectors use the indexes of a root automatically, e.g., a
+ * {@code withValueThatIsEqualTo(...)} condition on an indexed property is
+ * answered via the index instead of scanning the whole tree.
+ */
+public interface PropertyIndex extends Subscription {
+
+    /**
+     * Returns the name of the indexed property.
+     * @return the name of the indexed property
+     */
+    public String getPropertyName();
+
+    /**
+     * Returns the objects whose indexed property is equal to the specified
+     * value.
+     * @param value value to look up
+     * @return unmodifiable collection of the objects with the specified value
+     */
+    public Collection<VObject> lookup(Object value);
+}
+
+class HashIndex implements PropertyIndex, ModelTracker.Listener {
+
+    private final PropertySlot slot;
+    private final Map<Object, Set<VObject>> objectsByValue = new HashMap<>();
+    private final Map<VObject, Object> values = new IdentityHashMap<>();
+    private final Subscription subscription;
+
+    HashIndex(VObject root, String propertyName) {
+        this.slot = new PropertySlot(propertyName);
+
+        RootContext ctx = RootContext.of(root);
+        ctx.getTracker().forEachObject(this::attached);
+        this.subscription = ctx.register(this, this);
+    }
+
+    @Override
+    public String getPropertyName() {
+        return slot.getName();
+    }
+
+    @Override
+    public Collection<VObject> lookup(Object value) {
+        Set<VObject> objects = objectsByValue.get(value);
+
+        if(objects == null) {
+            return Collections.emptySet();
+        }
+
+        return Collections.unmodifiableSet(objects);
+    }
+
+    @Override
+    public void attached(VObject vObj) {
+        Property p = slot.get(vObj);
+
+        if(p == null) {
+            return;
+        }
+
+        Object value = key(p.get());
+        values.put(vObj, value);
+        objectsByValue.computeIfAbsent(value,
+            (v) -> Collections.newSetFromMap(new IdentityHashMap<>())).add(vObj);
+    }
+
+    @Override
+    public void detached(VObject vObj) {
+        if(!values.containsKey(vObj)) {
+            return;
+        }
+
+        Object value = values.remove(vObj);
+        Set<VObject> objects = objectsByValue.get(value);
+        objects.remove(vObj);
+
+        if(objects.isEmpty()) {
+            objectsByValue.remove(value);
+        }
+    }
+
+    @Override
+    public void changed(VObject vObj, String propertyName) {
+        if(getPropertyName().equals(propertyName)) {
+            detached(vObj);
+            attached(vObj);
+        }
+    }
+
+    @Override
+    public void unsubscribe() {
+        subscription.unsubscribe();
+        objectsByValue.clear();
+        values.clear();
+    }
+
+    /**
+     * Lists are mutable, we index a snapshot of their elements.
+     */
+    private static Object key(Object value) {
+        if(value instanceof List) {
+            return new ArrayList<>((List<?>) value);
+        }
+
+        return value;
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import eu.mihosoft.vmf.runtime.core.Property;
+import eu.mihosoft.vmf.runtime.core.Reflect;
+import eu.mihosoft.vmf.runtime.core.Type;
+import eu.mihosoft.vmf.runtime.core.VObject;
+
+/**
+ * Resolves a named property of objects of arbitrary types. The slot of the
+ * property is looked up once per {@link Type}.
+ */
+final class PropertySlot {
+
+    private static final int NO_SLOT = -1;
+
+    private final String name;
+    private final Map<Type, Integer> slots = new ConcurrentHashMap<>();
+    private volatile TypeSlot lastSlot;
+
+    PropertySlot(String name) {
+        this.name = name;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the property of the specified object.
+     * @param vObj object
+     * @return the property or {@code null} if the object has no such property
+     */
+    Property get(VObject vObj) {
+        Reflect reflect = vObj.vmf().reflect();
+        Type type = reflect.type();
+        List<Property> properties = reflect.properties();
+
+        TypeSlot last = lastSlot;
+        if(last != null && last.type == type) {
+            return last.slot == NO_SLOT ? null : properties.get(last.slot);
+        }
+
+        Integer slot = slots.get(type);
+
+        if(slot == null) {
+            slot = NO_SLOT;
+            for(int i = 0; i < properties.size(); i++) {
+                if(name.equals(properties.get(i).getName())) {
+                    slot = i;
+                    break;
+                }
+            }
+            slots.put(type, slot);
+        }
+
+        lastSlot = new TypeSlot(type, slot);
+
+        return slot == NO_SLOT ? null : properties.get(slot);
+    }
+
+    private static final class TypeSlot {
+        private final Type type;
+        private final int slot;
+
+        TypeSlot(Type type, int slot) {
+            this.type = type;
+            this.slot = slot;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Parses textual queries into selectors, e.g.,
+ *
+ * <pre>
+ * Node[name ^= "valve" &amp;&amp; pressure &gt; 100 &amp;&amp; tags &#x220B; "print-head"]
+ * </pre>
+ *
+ * Grammar:
+ *
+ * <pre>
+ * query       := [type] ['[' disjunction ']']
+ * type        := identifier ('.' identifier)*
+ * disjunction := conjunction ('||' conjunction)*
+ * conjunction := unary ('&amp;&amp;' unary)*
+ * unary       := '!' unary | '(' disjunction ')' | comparison
+ * comparison  := identifier operator literal
+ * operator    := '=' | '==' | '!=' | '^=' | '$=' | '*=' | '~='
+ *              | '&lt;' | '&lt;=' | '&gt;' | '&gt;=' | '&#x220B;' | 'contains'
+ * literal     := string | number | 'true' | 'false'
+ * </pre>
+ *
+ * Queries are translated into the same selectors as the fluent API (see
+ * {@link Selector#selectObject()}), i.e., they compile to the same plans and
+ * use the same indexes. Numeric comparisons accept integer and double
+ * properties.
+ *
+ * Parsed queries are kept in a bounded LRU cache keyed by the query text.
+ * Each call returns a new selector that shares the compiled plan of the
+ * cached selector until it is modified.
+ */
+final class QueryParser {
+
+    /**
+     * Maximum number of cached queries.
+     */
+    static final int CACHE_SIZE = 256;
+
+    private static final Map<String, SelectorImpl> CACHE = Collections.synchronizedMap(
+        new LinkedHashMap<String, SelectorImpl>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SelectorImpl> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        });
+
+    // element-of operator (U+220B)
+    private static final char CONTAINS = '\u220B';
+
+    private final String query;
+    private int pos;
+
+    private QueryParser(String query) {
+        this.query = query;
+    }
+
+    /**
+     * Returns a selector for the specified query.
+     * @param query query text
+     * @return a new selector
+     * @throws IllegalArgumentException if the query cannot be parsed
+     */
+    static Selector parse(String query) {
+        Objects.requireNonNull(query);
+
+        SelectorImpl selector = CACHE.get(query);
+
+        if(selector == null) {
+            selector = new QueryParser(query).query();
+            // compiled once, shared by all copies
+            selector.compile();
+            CACHE.put(query, selector);
+        }
+
+        return new SelectorImpl(selector);
+    }
+
+    /**
+     * Removes all cached queries.
+     */
+    static void clearCache() {
+        CACHE.clear();
+    }
+
+    /**
+     * Returns the number of cached queries.
+     */
+    static int cacheSize() {
+        return CACHE.size();
+    }
+
+    private SelectorImpl query() {
+        Selector selector = Selector.selectObject();
+
+        skipWhitespace();
+        if(pos < query.length() && isIdentifierStart(query.charAt(pos))) {
+            selector.withType(qualifiedName());
+        }
+
+        if(accept("[")) {
+            selector = selector.and(disjunction());
+            expect("]");
+        }
+
+        skipWhitespace();
+        if(pos < query.length()) {
+            throw error("unexpected '" + query.charAt(pos) + "'");
+        }
+
+        return (SelectorImpl) selector;
+    }
+
+    private Selector disjunction() {
+        Selector selector = conjunction();
+
+        while(accept("||")) {
+            selector = selector.or(conjunction());
+        }
+
+        return selector;
+    }
+
+    private Selector conjunction() {
+        Selector selector = unary();
+
+        while(accept("&&")) {
+            selector = selector.and(unary());
+        }
+
+        return selector;
+    }
+
+    private Selector unary() {
+        if(accept("!")) {
+            return unary().negate();
+        }
+
+        if(accept("(")) {
+            Selector selector = disjunction();
+            expect(")");
+            return selector;
+        }
+
+        return comparison();
+    }
+
+    private Selector comparison() {
+        skipWhitespace();
+        int start = pos;
+        String name = identifier();
+        String op = operator();
+        Object value = literal();
+
+        switch(op) {
+            case "=":
+            case "==":
+                return Selector.selectObject().withProperty(equalTo(name, value));
+            case "!=":
+                return Selector.selectObject().withProperty(equalTo(name, value)).negate();
+            case "^=":
+                return Selector.selectObject().withProperty(Selector.selectStringProp().
+                    withName(name).withValueThatStartsWith(string(op, value)));
+            case "$=":
+                return Selector.selectObject().withProperty(Selector.selectStringProp().
+                    withName(name).withValueThatEndsWith(string(op, value)));
+            case "*=":
+                return Selector.selectObject().withProperty(Selector.selectStringProp().
+                    withName(name).withValueThatContains(string(op, value)));
+            case "~=":
+                return Selector.selectObject().withProperty(Selector.selectStringProp().
+                    withName(name).withValueThatMatches(string(op, value)));
+            case "contains":
+                return Selector.selectObject().withProperty(Selector.selectListProp().
+                    withName(name).whichContains(value));
+            default:
+                PropSelectorImpl propSel = new PropSelectorImpl();
+                propSel.withName(name);
+                NumericRange range = propSel.range(Number.class);
+                double v = number(op, value, start);
+                switch(op) {
+                    case "<": range.lessThan(v); break;
+                    case "<=": range.lessThanOrEqualTo(v); break;
+                    case ">": range.greaterThan(v); break;
+                    default: range.greaterThanOrEqualTo(v); break;
+                }
+                return Selector.selectObject().withProperty(propSel);
+        }
+    }
+
+    /**
+     * Returns a property selector that compares the property with the
+     * specified value. Numbers are compared numerically, i.e., {@code 100}
+     * matches integer and double properties.
+     */
+    private static PropSelector equalTo(String name, Object value) {
+        if(value instanceof Number) {
+            PropSelectorImpl propSel = new PropSelectorImpl();
+            propSel.withName(name);
+            double v = ((Number) value).doubleValue();
+            propSel.range(Number.class).greaterThanOrEqualTo(v);
+            propSel.range(Number.class).lessThanOrEqualTo(v);
+            return propSel;
+        } else if(value instanceof String) {
+            return Selector.selectStringProp().withName(name).withValueThatIsEqualTo(value);
+        }
+
+        return Selector.selectProp().withName(name).withValueThatIsEqualTo(value);
+    }
+
+    private String string(String op, Object value) {
+        if(!(value instanceof String)) {
+            throw error("operator '" + op + "' requires a string");
+        }
+
+        return (String) value;
+    }
+
+    private double number(String op, Object value, int start) {
+        if(!(value instanceof Number)) {
+            pos = start;
+            throw error("operator '" + op + "' requires a number");
+        }
+
+        return ((Number) value).doubleValue();
+    }
+
+    private String operator() {
+        skipWhitespace();
+
+        // longest operators first
+        for(String op : new String[] {"==", "!=", "^=", "$=", "*=", "~=", "<=", ">=",
+                                      "=", "<", ">"}) {
+            if(query.startsWith(op, pos)) {
+                pos += op.length();
+                return op;
+            }
+        }
+
+        if(pos < query.length() && query.charAt(pos) == CONTAINS) {
+            pos++;
+            return "contains";
+        }
+
+        if(query.startsWith("contains", pos)
+                && !isIdentifierPart(charAt(pos + "contains".length()))) {
+            pos += "contains".length();
+            return "contains";
+        }
+
+        throw error("operator expected");
+    }
+
+    private Object literal() {
+        skipWhitespace();
+        char c = charAt(pos);
+
+        if(c == '"' || c == '\'') {
+            return quoted(c);
+        }
+
+        if(c == '-' || c == '+' || c == '.' || Character.isDigit(c)) {
+            return numberLiteral();
+        }
+
+        if(isIdentifierStart(c)) {
+            int start = pos;
+            String word = identifier();
+            if("true".equals(word)) {
+                return Boolean.TRUE;
+            } else if("false".equals(word)) {
+                return Boolean.FALSE;
+            }
+            pos = start;
+        }
+
+        throw error("literal expected");
+    }
+
+    private String quoted(char quote) {
+        StringBuilder sb = new StringBuilder();
+        int start = pos++;
+
+        while(pos < query.length()) {
+            char c = query.charAt(pos++);
+
+            if(c == quote) {
+                return sb.toString();
+            }
+
+            if(c == '\\' && pos < query.length()) {
+                c = query.charAt(pos++);
+                switch(c) {
+                    case 'n': c = '\n'; break;
+                    case 't': c = '\t'; break;
+                    case 'r': c = '\r'; break;
+                    default: break;
+                }
+            }
+
+            sb.append(c);
+        }
+
+        pos = start;
+        throw error("unterminated string");
+    }
+
+    private Number numberLiteral() {
+        int start = pos;
+
+        if(charAt(pos) == '-' || charAt(pos) == '+') {
+            pos++;
+        }
+
+        boolean integer = true;
+        while(pos < query.length()) {
+            char c = query.charAt(pos);
+            if(c == '.' || c == 'e' || c == 'E'
+                    || ((c == '-' || c == '+') && (charAt(pos - 1) == 'e' || charAt(pos - 1) == 'E'))) {
+                integer = false;
+            } else if(!Character.isDigit(c)) {
+                break;
+            }
+            pos++;
+        }
+
+        String text = query.substring(start, pos);
+
+        try {
+            if(integer) {
+                long v = Long.parseLong(text);
+                if(v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+                    return (int) v;
+                }
+                return (double) v;
+            }
+
+            return Double.parseDouble(text);
+        } catch(NumberFormatException ex) {
+            pos = start;
+            throw error("invalid number '" + text + "'");
+        }
+    }
+
+    private String qualifiedName() {
+        StringBuilder sb = new StringBuilder(identifier());
+
+        while(charAt(pos) == '.' && isIdentifierStart(charAt(pos + 1))) {
+            pos++;
+            sb.append('.').append(identifier());
+        }
+
+        return sb.toString();
+    }
+
+    private String identifier() {
+        skipWhitespace();
+        int start = pos;
+
+        if(!isIdentifierStart(charAt(pos))) {
+            throw error("identifier expected");
+        }
+
+        while(pos < query.length() && isIdentifierPart(query.charAt(pos))) {
+            pos++;
+        }
+
+        return query.substring(start, pos);
+    }
+
+    private boolean accept(String token) {
+        skipWhitespace();
+
+        if(query.startsWith(token, pos)) {
+            pos += token.length();
+            return true;
+        }
+
+        return false;
+    }
+
+    private void expect(String token) {
+        if(!accept(token)) {
+            throw error("'" + token + "' expected");
+        }
+    }
+
+    private void skipWhitespace() {
+        while(pos < query.length() && Character.isWhitespace(query.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private char charAt(int index) {
+        return index >= 0 && index < query.length() ? query.charAt(index) : 0;
+    }
+
+    // '$' is an operator, not part of identifiers
+    private static boolean isIdentifierStart(char c) {
+        return Character.isLetter(c) || c == '_';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException(
+            "Invalid query at position " + pos + ": " + msg + " (" + query + ")");
+    }
+}
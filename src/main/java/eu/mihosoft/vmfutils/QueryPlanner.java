@@ -0,0 +1,399 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import eu.mihosoft.vmf.runtime.core.VObject;
+
+/**
+ * Decides how the objects of a containment tree are selected by a plan.
+ *
+ * For each condition the cheapest lookup of the indexes registered for the
+ * tree is determined. Costs are estimated from the index cardinalities
+ * (posting set sizes, value ranges), i.e., without collecting any object.
+ * The most selective lookup drives the selection, the posting sets of the
+ * other lookups are intersected by probing them. Conditions that are answered
+ * exactly by the lookups are not evaluated again, only the residual
+ * conditions are.
+ *
+ * Composed and structural plans as well as plans without usable indexes
+ * scan the whole tree.
+ */
+final class QueryPlanner {
+
+    /**
+     * Estimated selectivity of conditions without an index.
+     */
+    static final double DEFAULT_SELECTIVITY = 1.0 / 3.0;
+
+    /**
+     * Posting sets that do not answer a condition are only intersected if
+     * they contain at most this fraction of the tree.
+     */
+    static final double INTERSECTION_RATIO = 0.5;
+
+    private QueryPlanner() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Plans the selection of the specified plan from the specified tree.
+     * @param plan plan to select
+     * @param root root of the containment tree
+     * @return the access plan
+     */
+    static AccessPlan plan(SelectorPlan plan, VObject root) {
+        RootContext ctx = RootContext.get(root);
+        double total = ctx == null ? Double.NaN : Math.max(ctx.getTracker().size(), 1);
+
+        if(plan.isStructural()) {
+            return new AccessPlan(plan, root, total, "structural conditions");
+        } else if(plan.isComposite()) {
+            return new AccessPlan(plan, root, total, "composed selector");
+        } else if(ctx == null) {
+            return new AccessPlan(plan, root, total, "no indexes");
+        }
+
+        List<SelectorPlan.Condition> conditions = plan.getConditions();
+        List<Access> accesses = new ArrayList<>();
+
+        Access typeAccess = typeAccess(ctx, plan.getTypeName());
+        if(typeAccess != null) {
+            accesses.add(typeAccess);
+        }
+
+        for(int i = 0; i < conditions.size(); i++) {
+            Access access = conditionAccess(ctx, conditions.get(i), i);
+            if(access != null) {
+                accesses.add(access);
+            }
+        }
+
+        if(accesses.isEmpty()) {
+            return new AccessPlan(plan, root, total, "no usable index");
+        }
+
+        accesses.sort(Comparator.comparingDouble((Access a) -> a.estimate));
+
+        Access driver = accesses.get(0);
+        List<Access> probes = new ArrayList<>();
+        List<Access> unused = new ArrayList<>();
+
+        for(Access a : accesses.subList(1, accesses.size())) {
+            if(a.probe != null && (a.answersCondition()
+                    || a.estimate <= total * INTERSECTION_RATIO)) {
+                probes.add(a);
+            } else {
+                unused.add(a);
+            }
+        }
+
+        return new AccessPlan(plan, root, total, driver, probes, unused);
+    }
+
+    private static Access typeAccess(RootContext ctx, String typeName) {
+        TypeIndexImpl typeIndex = ctx.findIndex(TypeIndexImpl.class);
+
+        if(typeIndex == null || typeName == null) {
+            return null;
+        }
+
+        Collection<VObject> objects = typeIndex.lookupExact(typeName);
+
+        // the type is checked by the plan anyway, i.e., the lookup answers no condition
+        return new Access("type index " + typeName, objects.size(), -1, false,
+            () -> objects, objects::contains);
+    }
+
+    /**
+     * Returns the cheapest index lookup for the specified condition.
+     */
+    private static Access conditionAccess(RootContext ctx, SelectorPlan.Condition c, int i) {
+        if(c.getNames().size() != 1) {
+            return null;
+        }
+
+        String name = c.getNames().iterator().next();
+        List<Access> accesses = new ArrayList<>();
+
+        List<Object> equalValues = c.getEqualValues();
+        HashIndex index = ctx.findIndex(HashIndex.class, name);
+
+        if(index != null && !equalValues.isEmpty()) {
+            Collection<VObject> objects = index.lookup(equalValues.get(0));
+            accesses.add(new Access("hash index '" + name + "' = " + equalValues.get(0),
+                objects.size(), i, c.isAnsweredBy("equalTo"), () -> objects, objects::contains));
+        }
+
+        NumericRange range = c.getRange();
+        RangeIndexImpl rangeIndex = ctx.findIndex(RangeIndexImpl.class, name);
+
+        if(rangeIndex != null && range != null) {
+            // range lookups collect the objects, they cannot be probed
+            accesses.add(new Access("range index '" + name + "' " + format(range),
+                rangeIndex.estimate(range), i, c.isAnsweredBy("range"),
+                () -> rangeIndex.lookup(range), null));
+        }
+
+        Set<Object> elements = c.getContainedElements();
+        ElementIndexImpl elementIndex = ctx.findIndex(ElementIndexImpl.class, name);
+
+        if(elementIndex != null && !elements.isEmpty()) {
+            accesses.add(new Access("element index '" + name + "' contains " + elements,
+                elementIndex.estimate(elements), i, c.isAnsweredBy("whichContains"),
+                () -> elementIndex.lookupAll(elements),
+                (vObj) -> elementIndex.contains(vObj, elements)));
+        }
+
+        return accesses.stream().
+            min(Comparator.comparingDouble((Access a) -> a.estimate)).orElse(null);
+    }
+
+    private static String format(NumericRange range) {
+        return (range.isLowerInclusive() ? "[" : "(") + range.getLower() + ", "
+            + range.getUpper() + (range.isUpperInclusive() ? "]" : ")");
+    }
+
+    private static String format(double value) {
+        return Double.isNaN(value) ? "?" : String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    /**
+     * Index lookup of a condition (or of the type).
+     */
+    static final class Access {
+        private final String description;
+        private final double estimate;
+        private final int condition;
+        private final boolean exact;
+        private final Supplier<Collection<VObject>> lookup;
+        private final Predicate<VObject> probe;
+
+        /**
+         * Creates an access.
+         * @param description description of the lookup
+         * @param estimate estimated number of objects
+         * @param condition index of the condition ({@code -1} for the type)
+         * @param exact whether the lookup answers the condition exactly
+         * @param lookup performs the lookup
+         * @param probe tests whether an object is contained in the result of
+         *              the lookup ({@code null} if not supported)
+         */
+        Access(String description, double estimate, int condition, boolean exact,
+               Supplier<Collection<VObject>> lookup, Predicate<VObject> probe) {
+            this.description = description;
+            this.estimate = estimate;
+            this.condition = condition;
+            this.exact = exact;
+            this.lookup = lookup;
+            this.probe = probe;
+        }
+
+        boolean answersCondition() {
+            return exact && condition >= 0;
+        }
+    }
+
+    /**
+     * Planned selection of a plan from a containment tree.
+     */
+    static final class AccessPlan {
+        private final SelectorPlan plan;
+        private final VObject root;
+        private final Access driver;
+        private final List<Access> probes;
+        private final boolean[] answered;
+        private final String reason;
+
+        private final double estimatedCandidates;
+        private final double estimatedRows;
+
+        /**
+         * Creates a plan that scans the tree.
+         */
+        AccessPlan(SelectorPlan plan, VObject root, double total, String reason) {
+            this.plan = plan;
+            this.root = root;
+            this.driver = null;
+            this.probes = Collections.emptyList();
+            this.answered = null;
+            this.reason = reason;
+            this.estimatedCandidates = total;
+
+            if(plan.isComposite() || plan.isStructural()) {
+                this.estimatedRows = Double.NaN;
+            } else {
+                int n = plan.getConditions().size() + (plan.getTypeName() == null ? 0 : 1);
+                this.estimatedRows = total * Math.pow(DEFAULT_SELECTIVITY, n);
+            }
+        }
+
+        /**
+         * Creates a plan that uses index lookups.
+         */
+        AccessPlan(SelectorPlan plan, VObject root, double total, Access driver,
+                   List<Access> probes, List<Access> unused) {
+            this.plan = plan;
+            this.root = root;
+            this.driver = driver;
+            this.probes = probes;
+            this.reason = null;
+
+            int n = plan.getConditions().size();
+            this.answered = new boolean[n];
+            boolean[] used = new boolean[n];
+
+            double candidates = driver.estimate;
+            mark(driver, used);
+
+            for(Access a : probes) {
+                candidates *= a.estimate / total;
+                mark(a, used);
+            }
+
+            // independent conditions, the selectivity of unused lookups is known
+            double[] selectivity = new double[n];
+            Arrays.fill(selectivity, DEFAULT_SELECTIVITY);
+            for(Access a : unused) {
+                if(a.condition >= 0) {
+                    selectivity[a.condition] = a.estimate / total;
+                }
+            }
+
+            double rows = candidates;
+            for(int i = 0; i < n; i++) {
+                if(!used[i]) {
+                    rows *= selectivity[i];
+                }
+            }
+
+            this.estimatedCandidates = candidates;
+            this.estimatedRows = rows;
+        }
+
+        private void mark(Access a, boolean[] used) {
+            if(a.condition >= 0) {
+                used[a.condition] = true;
+                answered[a.condition] = a.exact;
+            }
+        }
+
+        /**
+         * Indicates whether this plan uses index lookups.
+         */
+        boolean isIndexed() {
+            return driver != null;
+        }
+
+        /**
+         * Returns the objects that are evaluated by this plan, i.e., the
+         * result of the index lookups or all objects of the tree. Structural
+         * plans have to be traversed (see {@link #stream()}).
+         */
+        Stream<VObject> candidates() {
+            if(driver == null) {
+                // content streams visit each object only once, no need for distinct()
+                return root.vmf().content().stream();
+            }
+
+            Stream<VObject> candidates = driver.lookup.get().stream();
+
+            for(Access a : probes) {
+                candidates = candidates.filter(a.probe);
+            }
+
+            return candidates;
+        }
+
+        /**
+         * Returns a lazy stream of the matching objects.
+         */
+        Stream<VObject> stream() {
+            if(plan.isStructural()) {
+                return StructuralSelection.stream(plan, root);
+            } else if(driver == null) {
+                return candidates().filter(plan::test);
+            }
+
+            return candidates().filter((vObj) -> plan.testResidual(vObj, answered));
+        }
+
+        /**
+         * Executes this plan and compares the estimated with the actual
+         * numbers of objects.
+         */
+        Explanation explain() {
+            long[] candidates = new long[1];
+            long rows;
+
+            if(plan.isStructural()) {
+                candidates[0] = -1;
+                rows = stream().count();
+            } else if(driver == null) {
+                rows = candidates().peek((vObj) -> candidates[0]++).
+                    filter(plan::test).count();
+            } else {
+                rows = candidates().peek((vObj) -> candidates[0]++).
+                    filter((vObj) -> plan.testResidual(vObj, answered)).count();
+            }
+
+            return new ExplanationImpl(driver != null, steps(),
+                estimatedCandidates, candidates[0], estimatedRows, rows);
+        }
+
+        private List<String> steps() {
+            List<String> steps = new ArrayList<>();
+
+            if(driver == null) {
+                steps.add("scan containment tree (" + reason + ", est. "
+                    + format(estimatedCandidates) + ")");
+                steps.add("filter " + plan.getConditions().size() + " condition(s)"
+                    + (plan.getTypeName() == null ? "" : " and type " + plan.getTypeName()));
+                return steps;
+            }
+
+            steps.add("lookup " + driver.description + " (est. " + format(driver.estimate) + ")");
+
+            for(Access a : probes) {
+                steps.add("intersect " + a.description + " (est. " + format(a.estimate) + ")");
+            }
+
+            List<String> residual = new ArrayList<>();
+            List<SelectorPlan.Condition> conditions = plan.getConditions();
+            for(int i = 0; i < conditions.size(); i++) {
+                if(!answered[i]) {
+                    residual.add("#" + i + " " + conditions.get(i).getNames());
+                }
+            }
+
+            steps.add("filter " + residual.size() + " residual condition(s) " + residual
+                + (plan.getTypeName() == null ? "" : " and type " + plan.getTypeName()));
+
+            return steps;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+
+import eu.mihosoft.vmf.runtime.core.Property;
+import eu.mihosoft.vmf.runtime.core.VObject;
+import vjavax.observer.Subscription;
+
+/**
+ * Sorted index of a numeric property. In addition to equality lookups the
+ * index answers range queries, e.g., the comparisons of
+ * {@link DoublePropSelector} and {@link IntegerPropSelector} are answered via
+ * a sub-range lookup instead of testing every object of the tree.
+ */
+public interface RangeIndex extends PropertyIndex {
+
+    /**
+     * Returns the objects whose indexed property value is contained in the
+     * specified range.
+     * @param lower lower bound ({@code null} if unbounded)
+     * @param lowerInclusive whether the lower bound is inclusive
+     * @param upper upper bound ({@code null} if unbounded)
+     * @param upperInclusive whether the upper bound is inclusive
+     * @return unmodifiable collection of the objects in the specified range
+     */
+    public Collection<VObject> lookup(Number lower, boolean lowerInclusive,
+                                      Number upper, boolean upperInclusive);
+}
+
+class RangeIndexImpl implements RangeIndex, ModelTracker.Listener {
+
+    private final PropertySlot slot;
+    private final NavigableMap<Double, Set<VObject>> objectsByValue = new TreeMap<>();
+    private final Map<VObject, Number> values = new IdentityHashMap<>();
+    private final Subscription subscription;
+
+    RangeIndexImpl(VObject root, String propertyName) {
+        this.slot = new PropertySlot(propertyName);
+
+        RootContext ctx = RootContext.of(root);
+        ctx.getTracker().forEachObject(this::attached);
+        this.subscription = ctx.register(this, this);
+    }
+
+    @Override
+    public String getPropertyName() {
+        return slot.getName();
+    }
+
+    @Override
+    public Collection<VObject> lookup(Object value) {
+        if(!(value instanceof Number)) {
+            return Collections.emptyList();
+        }
+
+        Set<VObject> objects = objectsByValue.get(key(((Number) value).doubleValue()));
+
+        if(objects == null) {
+            return Collections.emptyList();
+        }
+
+        List<VObject> result = new ArrayList<>();
+        for(VObject vObj : objects) {
+            if(Objects.equals(values.get(vObj), value)) {
+                result.add(vObj);
+            }
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public Collection<VObject> lookup(Number lower, boolean lowerInclusive,
+                                      Number upper, boolean upperInclusive) {
+        NumericRange range = new NumericRange();
+
+        if(lower != null && lowerInclusive) {
+            range.greaterThanOrEqualTo(lower.doubleValue());
+        } else if(lower != null) {
+            range.greaterThan(lower.doubleValue());
+        }
+
+        if(upper != null && upperInclusive) {
+            range.lessThanOrEqualTo(upper.doubleValue());
+        } else if(upper != null) {
+            range.lessThan(upper.doubleValue());
+        }
+
+        return lookup(range);
+    }
+
+    /**
+     * Returns the objects whose value is contained in the specified range.
+     * @param range range
+     * @return unmodifiable collection of the objects in the specified range
+     */
+    Collection<VObject> lookup(NumericRange range) {
+        if(range.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        return collect(objectsByValue.subMap(
+            key(range.getLower()), range.isLowerInclusive(),
+            key(range.getUpper()), range.isUpperInclusive()));
+    }
+
+    /**
+     * Estimates the number of objects whose value is contained in the
+     * specified range without collecting them. Values are assumed to be
+     * uniformly distributed between the smallest and the largest value.
+     * @param range range
+     * @return the estimated number of objects
+     */
+    double estimate(NumericRange range) {
+        if(range.isEmpty() || objectsByValue.isEmpty()) {
+            return 0;
+        }
+
+        double min = objectsByValue.firstKey();
+        double max = objectsByValue.lastKey();
+        double lower = Math.max(range.getLower(), min);
+        double upper = Math.min(range.getUpper(), max);
+
+        if(lower > upper) {
+            return 0;
+        } else if(lower == upper) {
+            // point lookups are exact
+            Set<VObject> objects = objectsByValue.get(key(lower));
+            return objects == null || !range.contains(lower) ? 0 : objects.size();
+        }
+
+        return values.size() * (upper - lower) / (max - min);
+    }
+
+    /**
+     * Double.compareTo() distinguishes -0.0 and 0.0, the comparison operators
+     * don't.
+     */
+    private static Double key(double value) {
+        return value == 0.0 ? 0.0 : value;
+    }
+
+    private static Collection<VObject> collect(Map<Double, Set<VObject>> range) {
+        List<VObject> result = new ArrayList<>();
+        for(Set<VObject> objects : range.values()) {
+            result.addAll(objects);
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    @Override
+    public void attached(VObject vObj) {
+        Property p = slot.get(vObj);
+
+        if(p == null) {
+            return;
+        }
+
+        Object value = p.get();
+
+        // NaN is never contained in a range
+        if(!(value instanceof Number) || Double.isNaN(((Number) value).doubleValue())) {
+            return;
+        }
+
+        values.put(vObj, (Number) value);
+        objectsByValue.computeIfAbsent(key(((Number) value).doubleValue()),
+            (v) -> Collections.newSetFromMap(new IdentityHashMap<>())).add(vObj);
+    }
+
+    @Override
+    public void detached(VObject vObj) {
+        Number value = values.remove(vObj);
+
+        if(value == null) {
+            return;
+        }
+
+        Double key = key(value.doubleValue());
+        Set<VObject> objects = objectsByValue.get(key);
+        objects.remove(vObj);
+
+        if(objects.isEmpty()) {
+            objectsByValue.remove(key);
+        }
+    }
+
+    @Override
+    public void changed(VObject vObj, String propertyName) {
+        if(getPropertyName().equals(propertyName)) {
+            detached(vObj);
+            attached(vObj);
+        }
+    }
+
+    @Override
+    public void unsubscribe() {
+        subscription.unsubscribe();
+        objectsByValue.clear();
+        values.clear();
+    }
+}
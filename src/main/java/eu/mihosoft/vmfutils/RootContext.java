@@ -0,0 +1,288 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import eu.mihosoft.vmf.runtime.core.VObject;
+import vjavax.observer.Subscription;
+
+/**
+ * Per root state shared by indexes and views that are maintained for the same
+ * containment tree.
+ *
+ * All indexes and views of a root share one {@link ModelTracker}, i.e., only
+ * one change listener is registered per root. Views additionally share one
+ * {@link SelectorNetwork}. A context is released as soon as the last index or
+ * view of its root has been unsubscribed.
+ *
+ * While a {@link ChangeBatch} of the root is open, views defer the changes of
+ * their selections until the batch is flushed. While the views of the root
+ * are suspended (see {@link ViewSuspension}), the network ignores changes and
+ * is rebuilt on resume.
+ */
+final class RootContext {
+
+    private static final Map<VObject, RootContext> CONTEXTS = new IdentityHashMap<>();
+
+    private final VObject root;
+    private final List<Object> members = new ArrayList<>();
+    private ModelTracker tracker;
+    private SelectorNetwork network;
+    private int batchDepth;
+    private int suspendDepth;
+    private final Set<SelectorView> deferredViews = new LinkedHashSet<>();
+
+    private RootContext(VObject root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns the context of the specified root (creates it if necessary).
+     * @param root root of the containment tree
+     * @return the context of the specified root
+     */
+    static RootContext of(VObject root) {
+        synchronized(CONTEXTS) {
+            return CONTEXTS.computeIfAbsent(root, RootContext::new);
+        }
+    }
+
+    /**
+     * Returns the context of the specified root if it exists.
+     * @param root root of the containment tree
+     * @return the context of the specified root or {@code null} if no index
+     *         has been registered for this root
+     */
+    static RootContext get(VObject root) {
+        synchronized(CONTEXTS) {
+            return CONTEXTS.get(root);
+        }
+    }
+
+    VObject getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the tracker of the root. The tracker is created on demand.
+     * @return the tracker of the root
+     */
+    ModelTracker getTracker() {
+        if(tracker == null) {
+            tracker = new ModelTracker(root);
+        }
+
+        return tracker;
+    }
+
+    /**
+     * Registers an index with this context.
+     * @param index index to register
+     * @param listener listener that maintains the index
+     * @return subscription that unregisters the index
+     */
+    Subscription register(Object index, ModelTracker.Listener listener) {
+        members.add(index);
+        Subscription subscription = getTracker().addListener(listener);
+
+        return () -> {
+            subscription.unsubscribe();
+            if(members.remove(index) && members.isEmpty()) {
+                release();
+            }
+        };
+    }
+
+    /**
+     * Registers a view with this context. The view is added to the network
+     * of the root and populated with the matching objects of the tree.
+     * @param view view to register
+     * @param plan compiled selector of the view
+     * @return subscription that unregisters the view
+     */
+    Subscription register(SelectorView view, SelectorPlan plan) {
+        if(network == null) {
+            network = new SelectorNetwork(getTracker());
+            network.setSuspended(suspendDepth > 0);
+            getTracker().addListener(network);
+        }
+
+        members.add(view);
+        Subscription subscription = network.add(view, plan);
+
+        return () -> {
+            subscription.unsubscribe();
+            if(members.remove(view) && members.isEmpty()) {
+                release();
+            }
+        };
+    }
+
+    /**
+     * Returns the network of the views of the root.
+     * @return the network or {@code null} if no view has been registered
+     */
+    SelectorNetwork getNetwork() {
+        return network;
+    }
+
+    /**
+     * Returns the first registered index of the specified type that indexes
+     * the specified property.
+     * @param <T> index type
+     * @param indexType index type
+     * @param propertyName name of the indexed property
+     * @return the index or {@code null} if no such index exists
+     */
+    <T extends PropertyIndex> T findIndex(Class<T> indexType, String propertyName) {
+        for(Object index : members) {
+            if(indexType.isInstance(index)
+                    && propertyName.equals(indexType.cast(index).getPropertyName())) {
+                return indexType.cast(index);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the first registered index of the specified type.
+     * @param <T> index type
+     * @param indexType index type
+     * @return the index or {@code null} if no such index exists
+     */
+    <T> T findIndex(Class<T> indexType) {
+        for(Object index : members) {
+            if(indexType.isInstance(index)) {
+                return indexType.cast(index);
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Opens the specified batch. The context is kept until the batch is closed.
+     * @param batch batch to open
+     */
+    void beginBatch(ChangeBatch batch) {
+        members.add(batch);
+        batchDepth++;
+    }
+
+    /**
+     * Closes the specified batch. The deferred changes are applied if no
+     * other batch is open.
+     * @param batch batch to close
+     */
+    void endBatch(ChangeBatch batch) {
+        if(--batchDepth == 0) {
+            flush();
+        }
+
+        if(members.remove(batch) && members.isEmpty()) {
+            release();
+        }
+    }
+
+    /**
+     * Indicates whether a batch of the root is open.
+     * @return {@code true} if a batch is open; {@code false} otherwise
+     */
+    boolean isBatching() {
+        return batchDepth > 0;
+    }
+
+    /**
+     * Defers the changes of the specified view until the next flush.
+     * @param view view with deferred changes
+     */
+    void defer(SelectorView view) {
+        deferredViews.add(view);
+    }
+
+    /**
+     * Applies the deferred changes of all views.
+     */
+    void flush() {
+        // listeners might change the model while we apply the changes
+        while(!deferredViews.isEmpty()) {
+            List<SelectorView> views = new ArrayList<>(deferredViews);
+            deferredViews.clear();
+
+            for(SelectorView view : views) {
+                view.flush();
+            }
+        }
+    }
+
+    /**
+     * Suspends the views of the root. The context is kept until the
+     * suspension is resumed.
+     * @param suspension suspension
+     */
+    void suspendViews(ViewSuspension suspension) {
+        members.add(suspension);
+
+        if(suspendDepth++ == 0 && network != null) {
+            network.setSuspended(true);
+        }
+    }
+
+    /**
+     * Resumes the views of the root. The network is rebuilt if no other
+     * suspension is active.
+     * @param suspension suspension
+     * @param executor executor used to evaluate the conditions or
+     *                 {@code null} to evaluate them sequentially
+     */
+    void resumeViews(ViewSuspension suspension, Executor executor) {
+        if(--suspendDepth == 0 && network != null) {
+            network.setSuspended(false);
+
+            // the net changes are applied as one batch
+            batchDepth++;
+            network.rebuild(executor);
+            if(--batchDepth == 0) {
+                flush();
+            }
+        }
+
+        if(members.remove(suspension) && members.isEmpty()) {
+            release();
+        }
+    }
+
+    private void release() {
+        network = null;
+
+        if(tracker != null) {
+            tracker.close();
+            tracker = null;
+        }
+
+        synchronized(CONTEXTS) {
+            CONTEXTS.remove(root);
+        }
+    }
+}
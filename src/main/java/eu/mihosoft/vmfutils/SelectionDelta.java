@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.Collection;
+import java.util.Collections;
+
+import eu.mihosoft.vmf.runtime.core.VObject;
+
+/**
+ * Net change of a synced selection (see
+ * {@link Selector#syncWith(VObject, Collection, SelectionDelta.Listener)}).
+ *
+ * Outside of a {@link ChangeBatch} every change of the selection is reported
+ * as its own delta. Inside a batch the changes are coalesced, i.e., an object
+ * that has been added and removed again is not reported at all.
+ */
+public interface SelectionDelta {
+
+    /**
+     * Returns the objects that have been added to the selection.
+     * @return unmodifiable collection of the added objects
+     */
+    public Collection<VObject> getAdded();
+
+    /**
+     * Returns the objects that have been removed from the selection.
+     * @return unmodifiable collection of the removed objects
+     */
+    public Collection<VObject> getRemoved();
+
+    /**
+     * Listener for the changes of a synced selection.
+     */
+    @FunctionalInterface
+    public interface Listener {
+        /**
+         * Called after the synced collection has been updated.
+         * @param delta net change of the selection
+         */
+        void selectionChanged(SelectionDelta delta);
+    }
+}
+
+final class SelectionDeltaImpl implements SelectionDelta {
+
+    private final Collection<VObject> added;
+    private final Collection<VObject> removed;
+
+    SelectionDeltaImpl(Collection<VObject> added, Collection<VObject> removed) {
+        this.added = Collections.unmodifiableCollection(added);
+        this.removed = Collections.unmodifiableCollection(removed);
+    }
+
+    @Override
+    public Collection<VObject> getAdded() {
+        return added;
+    }
+
+    @Override
+    public Collection<VObject> getRemoved() {
+        return removed;
+    }
+
+    @Override
+    public String toString() {
+        return "[added=" + added.size() + ", removed=" + removed.size() + "]";
+    }
+}
@@ -15,17 +15,32 @@
  */
 package eu.mihosoft.vmfutils;
 
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
 
 import eu.mihosoft.vmf.runtime.core.Property;
 import eu.mihosoft.vmf.runtime.core.VObject;
 import vjavax.observer.Subscription;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
 
 public interface Selector {
 
@@ -53,27 +68,499 @@ public interface Selector {
         return new ListPropSelectorImpl();
     }
 
+    /**
+     * Creates an index for the specified property of the objects of the
+     * specified containment tree. Selections from this tree use the index
+     * for equality conditions on the property. The index is maintained until
+     * it is unsubscribed.
+     *
+     * @param root root of the containment tree
+     * @param propertyName name of the property to index
+     * @return the index
+     */
+    public static PropertyIndex index(VObject root, String propertyName) {
+        return new HashIndex(root, propertyName);
+    }
+
+    /**
+     * Creates a sorted index for the specified numeric property of the
+     * objects of the specified containment tree. Selections from this tree
+     * use the index for comparisons of {@link DoublePropSelector} and
+     * {@link IntegerPropSelector} conditions on the property. The index is
+     * maintained until it is unsubscribed.
+     *
+     * @param root root of the containment tree
+     * @param propertyName name of the property to index
+     * @return the index
+     */
+    public static RangeIndex rangeIndex(VObject root, String propertyName) {
+        return new RangeIndexImpl(root, propertyName);
+    }
+
+    /**
+     * Creates an inverted index for the specified list property of the
+     * objects of the specified containment tree. Selections from this tree
+     * use the index for {@link ListPropSelector#whichContains(Object...)} and
+     * {@link ListPropSelector#whichOnlyContains(Object...)} conditions on the
+     * property. The index is maintained until it is unsubscribed.
+     *
+     * @param root root of the containment tree
+     * @param propertyName name of the list property to index
+     * @return the index
+     */
+    public static ElementIndex elementIndex(VObject root, String propertyName) {
+        return new ElementIndexImpl(root, propertyName);
+    }
+
+    /**
+     * Creates a registry of the objects of the specified containment tree
+     * partitioned by their type. Selections from this tree use the registry
+     * for {@link #withType(String)} conditions. The registry is maintained
+     * until it is unsubscribed.
+     *
+     * @param root root of the containment tree
+     * @return the type registry
+     */
+    public static TypeIndex typeIndex(VObject root) {
+        return new TypeIndexImpl(root);
+    }
+
+    /**
+     * Creates a selector from the specified query, e.g.,
+     * {@code Node[name ^= "valve" && pressure > 100 && tags contains "print-head"]}.
+     * Conditions compare a property with a string, number or boolean literal
+     * ({@code = != ^= $= *= ~= < <= > >=}, {@code contains} or &#x220B; for
+     * list elements) and are combined with {@code && || !} and parentheses.
+     * The query is translated into the same conditions as the fluent API. Parsed queries are cached (LRU),
+     * i.e., repeated queries are neither parsed nor compiled again.
+     *
+     * @param query query text
+     * @return a new selector for the query
+     * @throws IllegalArgumentException if the query cannot be parsed
+     */
+    public static Selector query(String query) {
+        return QueryParser.parse(query);
+    }
+
+    /**
+     * Opens a batch of changes of the specified containment tree. Synced
+     * collections and views of the tree are updated once the batch is
+     * flushed or closed (changes are coalesced).
+     *
+     * @param root root of the containment tree
+     * @return the batch (must be closed)
+     */
+    public static ChangeBatch batch(VObject root) {
+        return new ChangeBatchImpl(root);
+    }
+
+    /**
+     * Suspends the views of the specified containment tree (synced
+     * collections, aggregates, etc.), e.g., during bulk construction. The
+     * views are rebuilt in a single pass when the suspension is resumed.
+     *
+     * @param root root of the containment tree
+     * @return the suspension (must be resumed or closed)
+     */
+    public static ViewSuspension suspendViews(VObject root) {
+        return new ViewSuspensionImpl(root);
+    }
+
+    /**
+     * Registers the specified metrics as MXBean with the platform MBean
+     * server. The object name is
+     * {@code eu.mihosoft.vmfutils:type=Selector,name=<name>}.
+     *
+     * @param metrics metrics to register
+     * @return subscription that unregisters the MXBean
+     * @throws IllegalStateException if the MXBean cannot be registered (e.g.
+     *         if the name is already in use)
+     */
+    public static Subscription registerMBean(SelectorMetrics metrics) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("eu.mihosoft.vmfutils:type=Selector,name="
+                + ObjectName.quote(metrics.getName()));
+            server.registerMBean(
+                new StandardMBean(metrics, SelectorMetrics.class, true), name);
+
+            return () -> {
+                try {
+                    server.unregisterMBean(name);
+                } catch(JMException ex) {
+                    // already unregistered
+                }
+            };
+        } catch(JMException ex) {
+            throw new IllegalStateException(
+                "Cannot register metrics '" + metrics.getName() + "'", ex);
+        }
+    }
+
     public Selector withProperty(Predicate<Property> propPred);
     public Selector withProperty(PropSelector propSel);
 
+    /**
+     * Restricts the selection to objects of the specified type. Unqualified
+     * names (e.g. {@code "Node"}) match the simple name of the type.
+     * @param typeName name of the type
+     * @return this selector
+     */
     public Selector withType(String typeName);
     public Predicate<VObject> asPredicate();
 
+    /**
+     * Adds a condition that is satisfied if at least one of the specified
+     * property selectors matches a property of the object.
+     * @param propSels property selectors
+     * @return this selector
+     */
+    public Selector withAnyProperty(PropSelector... propSels);
+
+    /**
+     * Adds a condition that is satisfied if the specified property selector
+     * matches no property of the object.
+     * @param propSel property selector
+     * @return this selector
+     */
+    public Selector withoutProperty(PropSelector propSel);
+
+    /**
+     * Returns a selector that matches the objects that match this selector or
+     * the specified selector. Property conditions that are used by both
+     * selectors are evaluated once. This selector and the specified selector
+     * are not modified.
+     * @param other other selector
+     * @return the composed selector
+     */
+    public Selector or(Selector other);
+
+    /**
+     * Returns a selector that matches the objects that match this selector and
+     * the specified selector. This selector and the specified selector are
+     * not modified.
+     * @param other other selector
+     * @return the composed selector
+     */
+    public Selector and(Selector other);
+
+    /**
+     * Returns a selector that matches the objects that do not match this
+     * selector. This selector is not modified.
+     * @return the negated selector
+     */
+    public Selector negate();
+
+    /**
+     * Adds a condition that is satisfied if the container of the object
+     * matches the specified selector.
+     *
+     * Structural conditions are evaluated while traversing the tree that is
+     * selected from (see {@link #selectFrom(VObject)}). Single objects
+     * ({@link #asPredicate()}, {@link #selectFrom(Collection)}) are evaluated
+     * via their container chain and their children. The containers of the
+     * root of a tree are the containers of the root object. Synced views
+     * evaluate the objects that depend on a change again, changes of objects
+     * outside of the synced tree (e.g. the containers of its root) are not
+     * observed.
+     *
+     * @param selector selector the container has to match
+     * @return this selector
+     */
+    public Selector withParent(Selector selector);
+
+    /**
+     * Adds a condition that is satisfied if at least one ancestor of the
+     * object (in the tree that is selected from) matches the specified selector.
+     * @param selector selector an ancestor has to match
+     * @return this selector
+     * @see #withParent(Selector)
+     */
+    public Selector withAncestor(Selector selector);
+
+    /**
+     * Adds a condition that is satisfied if at least one child of the object
+     * matches the specified selector.
+     * @param selector selector a child has to match
+     * @return this selector
+     * @see #withParent(Selector)
+     */
+    public Selector withChild(Selector selector);
+
+    /**
+     * Restricts selections from a tree to the objects that are reachable via
+     * the specified containment properties (e.g. {@code "nodes"}). Subtrees of
+     * other properties are not visited.
+     * @param propertyNames names of the containment properties
+     * @return this selector
+     */
+    public Selector withContainmentScope(String... propertyNames);
+
+    /**
+     * Enables runtime metrics for this selector and its synced views.
+     * @param name name of the selector (used to identify the metrics)
+     * @return this selector
+     * @see #getMetrics()
+     */
+    public Selector withMetrics(String name);
+
+    /**
+     * Enables runtime metrics for this selector and its synced views.
+     * @param name name of the selector (used to identify the metrics)
+     * @param listener listener that is notified about completed selections
+     *                 and processed change events
+     * @return this selector
+     * @see #getMetrics()
+     */
+    public Selector withMetrics(String name, SelectorMetrics.Listener listener);
+
+    /**
+     * Returns the runtime metrics of this selector.
+     * @return the metrics of this selector or {@code null} if metrics have
+     *         not been enabled
+     */
+    public SelectorMetrics getMetrics();
+
     public Collection<VObject> selectFrom(Collection<? extends VObject> collection);
     public Collection<VObject> selectFrom(VObject vObj);
 
+    /**
+     * Selects at most the specified number of objects from the specified
+     * containment tree. The traversal stops as soon as enough objects have
+     * been found.
+     * @param vObj root of the containment tree
+     * @param maxResults maximum number of objects to select
+     * @return the selected objects
+     */
+    public Collection<VObject> selectFrom(VObject vObj, int maxResults);
+
+    /**
+     * Selects the matching objects from the specified containment tree in
+     * parallel (uses the common fork-join pool). Small trees are evaluated
+     * sequentially. The result has the same order as the sequential
+     * selection.
+     * @param vObj root of the containment tree
+     * @return the selected objects
+     */
+    public Collection<VObject> selectFromParallel(VObject vObj);
+
+    /**
+     * Selects the matching objects from the specified containment tree in
+     * parallel. The result has the same order as the sequential selection.
+     * @param vObj root of the containment tree
+     * @param executor executor that evaluates the selector (fork-join pools
+     *                 use work-stealing tasks)
+     * @param sequentialThreshold number of objects below which the selection
+     *                            is sequential
+     * @return the selected objects
+     */
+    public Collection<VObject> selectFromParallel(VObject vObj, Executor executor,
+                                                 int sequentialThreshold);
+
+    /**
+     * Returns a lazy stream of the matching objects of the specified
+     * containment tree. The tree is traversed as the stream is consumed,
+     * i.e., short-circuiting operations only visit the objects they need.
+     * @param vObj root of the containment tree
+     * @return a lazy stream of the matching objects
+     */
+    public Stream<VObject> stream(VObject vObj);
+
+    /**
+     * Returns a lazy iterator over the matching objects of the specified
+     * containment tree.
+     * @param vObj root of the containment tree
+     * @return a lazy iterator over the matching objects
+     */
+    public Iterator<VObject> iterator(VObject vObj);
+
+    /**
+     * Returns the first matching object of the specified containment tree.
+     * @param vObj root of the containment tree
+     * @return the first matching object (empty if no object matches)
+     */
+    public Optional<VObject> findFirst(VObject vObj);
+
+    /**
+     * Indicates whether the specified containment tree contains a matching
+     * object. The traversal stops at the first match.
+     * @param vObj root of the containment tree
+     * @return {@code true} if at least one object matches; {@code false} otherwise
+     */
+    public boolean anyMatch(VObject vObj);
+
+    /**
+     * Counts the matching objects of the specified containment tree without
+     * collecting them.
+     * @param vObj root of the containment tree
+     * @return the number of matching objects
+     */
+    public long count(VObject vObj);
+
+    /**
+     * Caches the match results of this selector for the objects of the
+     * specified tree. Selections ({@link #selectFrom(VObject)},
+     * {@link #asPredicate()}, etc.) reuse the cached result of an object until
+     * a property that this selector reads changes. Detached objects are
+     * removed from the cache. Modifying this selector discards the cached
+     * results. Structural selectors are not cached.
+     *
+     * @param vObj root of the containment tree
+     * @return subscription that discards the cache
+     */
+    public Subscription memoize(VObject vObj);
+
+    /**
+     * Selects the matching objects from the specified containment tree and
+     * reports how they have been selected: the chosen index lookups and
+     * intersections, the residual conditions and the estimated and actual
+     * numbers of objects.
+     * @param vObj root of the containment tree
+     * @return the explanation of the selection
+     */
+    public Explanation explain(VObject vObj);
+
+    /**
+     * Selects the objects of the specified tree that match this selector and
+     * have the highest values of the specified numeric property. A bounded
+     * heap is used instead of sorting all matching objects.
+     *
+     * @param vObj root of the containment tree
+     * @param propertyName name of the numeric property
+     * @param k maximum number of objects to select
+     * @return the selected objects, ordered by descending value
+     */
+    public List<VObject> selectTop(VObject vObj, String propertyName, int k);
+
+    /**
+     * Selects the objects of the specified tree that match this selector and
+     * have the lowest values of the specified numeric property.
+     *
+     * @param vObj root of the containment tree
+     * @param propertyName name of the numeric property
+     * @param k maximum number of objects to select
+     * @return the selected objects, ordered by ascending value
+     */
+    public List<VObject> selectBottom(VObject vObj, String propertyName, int k);
+
     public Subscription syncWith(VObject vObj, Collection<VObject> syncedCollection);
+
+    /**
+     * Keeps the specified collection in sync with the objects of the specified
+     * tree that match this selector and notifies the specified listener after
+     * each change of the selection. Inside a {@link ChangeBatch} the changes
+     * are coalesced into one delta per flush.
+     *
+     * @param vObj root of the containment tree
+     * @param syncedCollection collection to sync
+     * @param listener listener to notify (not notified about the initial selection)
+     * @return subscription that stops the synchronization
+     */
+    public Subscription syncWith(VObject vObj, Collection<VObject> syncedCollection,
+                                 SelectionDelta.Listener listener);
+
+    /**
+     * Keeps the specified list in sync with the objects of the specified tree
+     * that match this selector and have the highest values of the specified
+     * numeric property (ordered by descending value). The list is cleared
+     * before it is populated.
+     *
+     * Objects with equal values are initially ordered as in
+     * {@link #selectTop(VObject, String, int)} (by their position in the
+     * tree) and keep their order when their values change. Objects that start
+     * to match later are ordered after the matching objects with equal values.
+     *
+     * @param vObj root of the containment tree
+     * @param propertyName name of the numeric property
+     * @param k maximum number of objects in the list
+     * @param syncedList list to sync
+     * @return subscription that stops the synchronization
+     */
+    public Subscription syncTop(VObject vObj, String propertyName, int k,
+                                List<VObject> syncedList);
+
+    /**
+     * Keeps the specified list in sync with the objects of the specified tree
+     * that match this selector and have the lowest values of the specified
+     * numeric property (ordered by ascending value). The list is cleared
+     * before it is populated. Objects with equal values are ordered as in
+     * {@link #syncTop(VObject, String, int, List)}.
+     *
+     * @param vObj root of the containment tree
+     * @param propertyName name of the numeric property
+     * @param k maximum number of objects in the list
+     * @param syncedList list to sync
+     * @return subscription that stops the synchronization
+     */
+    public Subscription syncBottom(VObject vObj, String propertyName, int k,
+                                   List<VObject> syncedList);
+
+    /**
+     * Keeps the objects of the specified tree that match this selector in
+     * sync with the specified map, grouped by the value of the specified
+     * property. Groups are created and removed as objects are added, removed
+     * or change their grouping value. The grouping property should have an
+     * immutable value type (e.g. strings or numbers).
+     *
+     * @param vObj root of the containment tree
+     * @param propertyName name of the grouping property
+     * @param groups map to sync (property value to matching objects)
+     * @return subscription that stops the synchronization
+     */
+    public Subscription syncGroupedBy(VObject vObj, String propertyName,
+                                      Map<Object, Collection<VObject>> groups);
+
+    /**
+     * Maintains count, sum, min, max and average of the specified numeric
+     * property over the objects of the specified tree that match this
+     * selector. The aggregates are updated incrementally as the tree changes.
+     *
+     * @param vObj root of the containment tree
+     * @param propertyName name of the aggregated property
+     * @return the aggregates (maintained until unsubscribed)
+     */
+    public Aggregate aggregate(VObject vObj, String propertyName);
 }
 
 class SelectorImpl implements Selector {
 
-    private final List<Predicate<Property>> propSelectors = new ArrayList<>();
-    private Predicate<VObject> typePred = (vObj) -> true;
+    private final List<SelectorPlan.Condition> conditions = new ArrayList<>();
+    private final List<SelectorPlan.Relation> relations = new ArrayList<>();
+    private String[] scope;
+    private String typeName;
+    private SelectorMetricsImpl metrics;
+    private SelectorPlan plan;
+    private final List<MatchCache> caches = new ArrayList<>();
+
+    // expression over the conditions and relations of composed selectors
+    // (null if all conditions and relations have to be satisfied)
+    private SelectorPlan.Expr expr;
+
+    SelectorImpl() {
+        // empty selector
+    }
+
+    /**
+     * Creates a copy of the specified selector. The copy shares the compiled
+     * plan of the specified selector until it is modified.
+     * @param other selector to copy
+     */
+    SelectorImpl(SelectorImpl other) {
+        this.conditions.addAll(other.conditions);
+        this.relations.addAll(other.relations);
+        this.scope = other.scope;
+        this.typeName = other.typeName;
+        this.expr = other.expr;
+        this.metrics = other.metrics;
+        this.plan = other.plan;
+    }
 
     @Override
     public Selector withProperty(Predicate<Property> propPred) {
         
-        this.propSelectors.add(propPred);
+        this.conditions.add(new SelectorPlan.Condition(propPred));
+        this.plan = null;
+        andLastCondition();
 
         return this;
     }
@@ -81,90 +568,469 @@ class SelectorImpl implements Selector {
     @Override
     public Selector withProperty(PropSelector propSel) {
         
-        this.propSelectors.add(propSel.asPredicate());
+        if(propSel instanceof PropSelectorImpl) {
+            this.conditions.add(
+                new SelectorPlan.Condition((PropSelectorImpl)propSel));
+        } else {
+            this.conditions.add(
+                new SelectorPlan.Condition(propSel.asPredicate()));
+        }
+        this.plan = null;
+        andLastCondition();
+
+        return this;
+    }
+
+    @Override
+    public Selector withAnyProperty(PropSelector... propSels) {
+        SelectorPlan.Expr base = expression();
+        List<SelectorPlan.Expr> operands = new ArrayList<>();
+        for(PropSelector propSel : propSels) {
+            operands.add(SelectorPlan.Expr.condition(add(condition(propSel))));
+        }
+
+        return with(base, SelectorPlan.Expr.or(operands));
+    }
+
+    @Override
+    public Selector withoutProperty(PropSelector propSel) {
+        SelectorPlan.Expr base = expression();
+        return with(base, SelectorPlan.Expr.not(
+            SelectorPlan.Expr.condition(add(condition(propSel)))));
+    }
+
+    @Override
+    public Selector withParent(Selector selector) {
+        return withRelation(SelectorPlan.Relation.Kind.PARENT, selector);
+    }
+
+    @Override
+    public Selector withAncestor(Selector selector) {
+        return withRelation(SelectorPlan.Relation.Kind.ANCESTOR, selector);
+    }
+
+    @Override
+    public Selector withChild(Selector selector) {
+        return withRelation(SelectorPlan.Relation.Kind.CHILD, selector);
+    }
+
+    private Selector withRelation(SelectorPlan.Relation.Kind kind, Selector selector) {
+        SelectorImpl related = impl(selector);
+        this.relations.add(new SelectorPlan.Relation(kind, related::compile));
+        this.plan = null;
+
+        if(expr != null) {
+            expr = SelectorPlan.Expr.and(Arrays.asList(expr,
+                SelectorPlan.Expr.relation(relations.size() - 1)));
+        }
+
+        return this;
+    }
+
+    @Override
+    public Selector withContainmentScope(String... propertyNames) {
+        this.scope = propertyNames.clone();
+        this.plan = null;
+
+        return this;
+    }
+
+    @Override
+    public Selector or(Selector other) {
+        SelectorImpl result = new SelectorImpl();
+        result.scope = union(scope, impl(other).scope);
+        result.expr = SelectorPlan.Expr.or(Arrays.asList(
+            result.include(this), result.include(impl(other))));
+
+        return result;
+    }
+
+    @Override
+    public Selector and(Selector other) {
+        SelectorImpl o = impl(other);
+        SelectorImpl result = new SelectorImpl();
+        result.scope = union(scope, o.scope);
+
+        // conjunctions of plain selectors remain plain selectors (the plan
+        // can use indexes)
+        if(expr == null && o.expr == null && (typeName == null
+                || o.typeName == null || typeName.equals(o.typeName))) {
+            result.typeName = typeName != null ? typeName : o.typeName;
+            result.include(this);
+            result.include(o);
+        } else {
+            result.expr = SelectorPlan.Expr.and(Arrays.asList(
+                result.include(this), result.include(o)));
+        }
+
+        return result;
+    }
+
+    @Override
+    public Selector negate() {
+        SelectorImpl result = new SelectorImpl();
+        result.scope = scope;
+        result.expr = SelectorPlan.Expr.not(result.include(this));
+
+        return result;
+    }
+
+    /**
+     * Adds the last condition to the expression of a composed selector.
+     */
+    private void andLastCondition() {
+        if(expr != null) {
+            expr = SelectorPlan.Expr.and(Arrays.asList(expr,
+                SelectorPlan.Expr.condition(conditions.size() - 1)));
+        }
+    }
+
+    private static SelectorImpl impl(Selector selector) {
+        if(!(selector instanceof SelectorImpl)) {
+            throw new IllegalArgumentException(
+                "Unsupported selector: " + selector.getClass().getName());
+        }
+
+        return (SelectorImpl) selector;
+    }
+
+    private static SelectorPlan.Condition condition(PropSelector propSel) {
+        return propSel instanceof PropSelectorImpl
+            ? new SelectorPlan.Condition((PropSelectorImpl) propSel)
+            : new SelectorPlan.Condition(propSel.asPredicate());
+    }
+
+    /**
+     * Adds the specified condition unless an equal condition (same key) has
+     * already been added.
+     * @return the index of the condition
+     */
+    private int add(SelectorPlan.Condition condition) {
+        Object key = condition.getKey();
+
+        for(int i = 0; i < conditions.size(); i++) {
+            if(conditions.get(i).getKey().equals(key)) {
+                return i;
+            }
+        }
+
+        conditions.add(condition);
+        this.plan = null;
+
+        return conditions.size() - 1;
+    }
+
+    /**
+     * Replaces the conditions of this selector with the conjunction of the
+     * specified expressions.
+     */
+    private Selector with(SelectorPlan.Expr base, SelectorPlan.Expr e) {
+        List<SelectorPlan.Expr> operands = new ArrayList<>();
+        operands.add(base);
+        operands.add(e);
+
+        this.expr = SelectorPlan.Expr.and(operands);
+        this.typeName = null;
+        this.plan = null;
 
         return this;
     }
 
+    /**
+     * Returns the expression of this selector. Plain selectors are a
+     * conjunction of their type and property conditions.
+     */
+    private SelectorPlan.Expr expression() {
+        List<SelectorPlan.Expr> operands = new ArrayList<>();
+
+        if(typeName != null) {
+            operands.add(SelectorPlan.Expr.type(typeName));
+        }
+
+        if(expr != null) {
+            operands.add(expr);
+        } else {
+            for(int i = 0; i < conditions.size(); i++) {
+                operands.add(SelectorPlan.Expr.condition(i));
+            }
+            for(int i = 0; i < relations.size(); i++) {
+                operands.add(SelectorPlan.Expr.relation(i));
+            }
+        }
+
+        return SelectorPlan.Expr.and(operands);
+    }
+
+    /**
+     * Returns the union of the specified scopes ({@code null} if one of them
+     * is unrestricted).
+     */
+    private static String[] union(String[] a, String[] b) {
+        if(a == null || b == null) {
+            return null;
+        }
+
+        Set<String> names = new LinkedHashSet<>(Arrays.asList(a));
+        names.addAll(Arrays.asList(b));
+
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Adds the conditions and relations of the specified selector to this
+     * selector (conditions with equal keys are shared).
+     * @return the expression of the specified selector in terms of the
+     *         conditions and relations of this selector
+     */
+    private SelectorPlan.Expr include(SelectorImpl other) {
+        int[] indices = new int[other.conditions.size()];
+        for(int i = 0; i < indices.length; i++) {
+            indices[i] = add(other.conditions.get(i));
+        }
+
+        int[] relationIndices = new int[other.relations.size()];
+        for(int i = 0; i < relationIndices.length; i++) {
+            SelectorPlan.Relation r = other.relations.get(i);
+            int index = relations.indexOf(r);
+            if(index < 0) {
+                relations.add(r);
+                index = relations.size() - 1;
+            }
+            relationIndices[i] = index;
+        }
+
+        return other.expression().remap(indices, relationIndices);
+    }
+
     @Override
     public Selector withType(String typeName) {
-        this.typePred = (VObject vObj) -> {
-            return Objects.equals(typeName, vObj.vmf().reflect().type().getName());
-        };
+        this.typeName = Objects.requireNonNull(typeName);
+        this.plan = null;
 
         return this;
     }
 
     @Override
-    public Predicate<VObject> asPredicate() {
-        return (VObject vObj) -> {
-            if(!typePred.test(vObj)) return false;
+    public Selector withMetrics(String name) {
+        this.metrics = new SelectorMetricsImpl(Objects.requireNonNull(name));
+        this.plan = null;
 
-            for(Predicate<Property> pred : propSelectors) {
-                if(vObj.vmf().reflect().properties().stream().
-                   filter(pred).count()==0) {
-                    return false;
-                }
+        return this;
+    }
+
+    @Override
+    public Selector withMetrics(String name, SelectorMetrics.Listener listener) {
+        withMetrics(name);
+        this.metrics.addListener(Objects.requireNonNull(listener));
+
+        return this;
+    }
+
+    @Override
+    public SelectorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Compiles this selector. The compiled plan is cached until this selector
+     * is modified.
+     * @return the compiled plan of this selector
+     */
+    SelectorPlan compile() {
+        if(plan == null) {
+            plan = new SelectorPlan(typeName, conditions, relations, scope, expr, metrics);
+
+            for(MatchCache cache : caches) {
+                cache.bind(plan);
             }
+        }
 
-            return true;
-        };
+        return plan;
+    }
+
+    @Override
+    public Predicate<VObject> asPredicate() {
+        return compile()::test;
     }
 
     @Override
     public Collection<VObject> selectFrom(Collection<? extends VObject> collection) {
-        return collection.stream().
+        long start = start();
+        Collection<VObject> result = collection.stream().
           filter(asPredicate()).distinct().collect(Collectors.toList());
+        completed(result.size(), start);
+
+        return result;
     }
 
     @Override
     public Collection<VObject> selectFrom(VObject vObj) {
-        return vObj.vmf().content().stream().
-        filter(asPredicate()).distinct().collect(Collectors.toList());
+        long start = start();
+        Collection<VObject> result = stream(vObj).collect(Collectors.toList());
+        completed(result.size(), start);
+
+        return result;
+    }
+
+    @Override
+    public Collection<VObject> selectFrom(VObject vObj, int maxResults) {
+        long start = start();
+        Collection<VObject> result = stream(vObj).limit(maxResults).
+          collect(Collectors.toList());
+        completed(result.size(), start);
+
+        return result;
+    }
+
+    @Override
+    public Collection<VObject> selectFromParallel(VObject vObj) {
+        return selectFromParallel(vObj, ForkJoinPool.commonPool(),
+            ParallelSelection.DEFAULT_THRESHOLD);
+    }
+
+    @Override
+    public Collection<VObject> selectFromParallel(VObject vObj, Executor executor,
+                                                 int sequentialThreshold) {
+        long start = start();
+        SelectorPlan plan = compile();
+        QueryPlanner.AccessPlan access = QueryPlanner.plan(plan, vObj);
+
+        // structural selections depend on the traversal order
+        Collection<VObject> result;
+        if(plan.isStructural()) {
+            result = access.stream().collect(Collectors.toList());
+        } else if(access.isIndexed()) {
+            result = ParallelSelection.select(plan, access.candidates(), executor,
+                sequentialThreshold);
+        } else {
+            result = ParallelSelection.select(plan, vObj, executor, sequentialThreshold);
+        }
+        completed(result.size(), start);
+
+        return result;
+    }
+
+    @Override
+    public Stream<VObject> stream(VObject vObj) {
+        return QueryPlanner.plan(compile(), vObj).stream();
+    }
+
+    @Override
+    public Subscription memoize(VObject root) {
+        MatchCache cache = new MatchCache(root);
+        caches.add(cache);
+        cache.bind(compile());
+
+        return () -> {
+            caches.remove(cache);
+            cache.unsubscribe();
+        };
+    }
+
+    @Override
+    public Explanation explain(VObject vObj) {
+        return QueryPlanner.plan(compile(), vObj).explain();
+    }
+
+    @Override
+    public Iterator<VObject> iterator(VObject vObj) {
+        return stream(vObj).iterator();
+    }
+
+    @Override
+    public Optional<VObject> findFirst(VObject vObj) {
+        long start = start();
+        Optional<VObject> result = stream(vObj).findFirst();
+        completed(result.isPresent() ? 1 : 0, start);
+
+        return result;
+    }
+
+    @Override
+    public boolean anyMatch(VObject vObj) {
+        long start = start();
+        boolean result = stream(vObj).findAny().isPresent();
+        completed(result ? 1 : 0, start);
+
+        return result;
+    }
+
+    @Override
+    public long count(VObject vObj) {
+        long start = start();
+        long result = stream(vObj).count();
+        completed(result, start);
+
+        return result;
+    }
+
+    @Override
+    public List<VObject> selectTop(VObject vObj, String propertyName, int k) {
+        long start = start();
+        List<VObject> result = TopSelection.select(stream(vObj), propertyName, k, true);
+        completed(result.size(), start);
+
+        return result;
+    }
+
+    @Override
+    public List<VObject> selectBottom(VObject vObj, String propertyName, int k) {
+        long start = start();
+        List<VObject> result = TopSelection.select(stream(vObj), propertyName, k, false);
+        completed(result.size(), start);
+
+        return result;
+    }
+
+    /**
+     * Returns the start time of a measurement (the clock is only read if
+     * metrics are enabled).
+     */
+    private long start() {
+        return metrics != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a completed selection (if metrics are enabled).
+     */
+    private void completed(long matches, long start) {
+        if(metrics != null) {
+            metrics.selectionCompleted(matches, System.nanoTime() - start);
+        }
     }
 
     @Override
     public Subscription syncWith(VObject root, Collection<VObject> syncedCollection) {
+        return new SelectorView(compile(), root, syncedCollection);
+    }
 
-        Predicate<VObject> pred = asPredicate();
-
-        // sync pre existing objects that match the selector
-        syncedCollection.addAll(root.vmf().content().
-            stream().filter(pred).distinct().collect(Collectors.toList())
-        );
-
-        // register listener that updates the added/removed elements with the 
-        // synced collection
-        return root.vmf().changes().addListener((c)-> {
-            c.propertyChange().ifPresent(pc->{
-                if(pc.oldValue() instanceof VObject) {
-                    if(pred.test((VObject)pc.newValue())) {
-                        syncedCollection.remove((VObject)pc.newValue());
-                    }
-                }
-                if(pc.newValue() instanceof VObject) {
-                    if(pred.test((VObject)pc.newValue())) {
-                        syncedCollection.add((VObject)pc.newValue());
-                    }
-                }
-            });
-
-            c.listChange().ifPresent((lc)->{
-                lc.removed().elements().stream().filter(o->o instanceof VObject).
-                  map(o->(VObject)o).forEach(vObj-> {
-                    if(pred.test(vObj)) {
-                        syncedCollection.remove(vObj);
-                    }
-                });
-
-                lc.added().elements().stream().filter(o->o instanceof VObject).
-                  map(o->(VObject)o).forEach(vObj-> {
-                    if(pred.test(vObj)) {
-                        syncedCollection.add(vObj);
-                    }
-                });
-            });
-        });
+    @Override
+    public Subscription syncWith(VObject root, Collection<VObject> syncedCollection,
+                                 SelectionDelta.Listener listener) {
+        return new SelectorView(compile(), root, syncedCollection, listener);
+    }
+
+    @Override
+    public Subscription syncTop(VObject root, String propertyName, int k,
+                                List<VObject> syncedList) {
+        return new TopView(compile(), root, propertyName, k, true, syncedList);
+    }
+
+    @Override
+    public Subscription syncBottom(VObject root, String propertyName, int k,
+                                   List<VObject> syncedList) {
+        return new TopView(compile(), root, propertyName, k, false, syncedList);
+    }
+
+    @Override
+    public Subscription syncGroupedBy(VObject root, String propertyName,
+                                      Map<Object, Collection<VObject>> groups) {
+        return new GroupedView(compile(), root, propertyName, groups);
+    }
+
+    @Override
+    public Aggregate aggregate(VObject root, String propertyName) {
+        return new AggregateImpl(compile(), root, propertyName);
     }
 
 }
\ No newline at end of file
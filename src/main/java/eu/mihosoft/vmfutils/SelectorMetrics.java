@@ -0,0 +1,374 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import vjavax.observer.Subscription;
+
+/**
+ * Runtime metrics of a selector and of the views that are synced via
+ * {@link Selector#syncWith(eu.mihosoft.vmf.runtime.core.VObject, java.util.Collection)}.
+ * Metrics are collected if they have been enabled via
+ * {@link Selector#withMetrics(String)}.
+ *
+ * Durations are recorded in histograms with logarithmic buckets: bucket
+ * {@code i} counts the durations in {@code [2^i, 2^(i+1))} nanoseconds, the
+ * last bucket counts all longer durations.
+ *
+ * Metrics can be exported via JMX (see {@link Selector#registerMBean(SelectorMetrics)}).
+ */
+public interface SelectorMetrics {
+
+    /**
+     * Returns the name of the selector.
+     * @return the name of the selector
+     */
+    public String getName();
+
+    /**
+     * Returns the number of completed selections (e.g. {@code selectFrom()},
+     * {@code count()}).
+     * @return the number of completed selections
+     */
+    public long getSelections();
+
+    /**
+     * Returns the number of objects that have been evaluated (selections and views).
+     * @return the number of evaluated objects
+     */
+    public long getObjectsEvaluated();
+
+    /**
+     * Returns the number of evaluated objects that matched.
+     * @return the number of matching objects
+     */
+    public long getMatches();
+
+    /**
+     * Returns the number of evaluations per property condition (in the order
+     * in which the conditions have been added to the selector).
+     * @return the number of evaluations per condition
+     */
+    public long[] getConditionEvaluations();
+
+    /**
+     * Returns the number of rejected objects per property condition (in the
+     * order in which the conditions have been added to the selector).
+     * @return the number of rejections per condition
+     */
+    public long[] getConditionRejections();
+
+    /**
+     * Returns the rejection rate per property condition, i.e., the ratio of
+     * rejections and evaluations (0 for conditions that have not been evaluated).
+     * @return the rejection rate per condition
+     */
+    public double[] getConditionRejectionRates();
+
+    /**
+     * Returns the histogram of the durations of the completed selections.
+     * @return the selection time histogram
+     */
+    public long[] getSelectionTimeHistogram();
+
+    /**
+     * Returns the total duration of the completed selections in nanoseconds.
+     * @return the total selection time
+     */
+    public long getSelectionTimeNanos();
+
+    /**
+     * Returns the number of change events that have been processed by views.
+     * @return the number of processed change events
+     */
+    public long getChangeEvents();
+
+    /**
+     * Returns the number of objects that have been added to synced collections.
+     * @return the number of added objects
+     */
+    public long getObjectsAdded();
+
+    /**
+     * Returns the number of objects that have been removed from synced collections.
+     * @return the number of removed objects
+     */
+    public long getObjectsRemoved();
+
+    /**
+     * Returns the histogram of the processing durations of change events.
+     * @return the change processing time histogram
+     */
+    public long[] getChangeTimeHistogram();
+
+    /**
+     * Returns the total processing duration of change events in nanoseconds.
+     * @return the total change processing time
+     */
+    public long getChangeTimeNanos();
+
+    /**
+     * Resets all counters and histograms.
+     */
+    public void reset();
+
+    /**
+     * Listener that is notified about completed selections and processed
+     * change events.
+     */
+    public interface Listener {
+
+        /**
+         * Called after a selection has completed.
+         * @param metrics metrics of the selector
+         * @param matches number of selected objects
+         * @param nanos duration of the selection
+         */
+        public default void selectionCompleted(SelectorMetrics metrics, long matches, long nanos) {
+            //
+        }
+
+        /**
+         * Called after a view has processed a change event.
+         * @param metrics metrics of the selector
+         * @param added number of objects added to the synced collection
+         * @param removed number of objects removed from the synced collection
+         * @param nanos processing duration
+         */
+        public default void changeProcessed(SelectorMetrics metrics, int added, int removed, long nanos) {
+            //
+        }
+    }
+}
+
+class SelectorMetricsImpl implements SelectorMetrics {
+
+    static final int HISTOGRAM_BUCKETS = 40;
+
+    private final String name;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final LongAdder selections = new LongAdder();
+    private final LongAdder objectsEvaluated = new LongAdder();
+    private final LongAdder matches = new LongAdder();
+    private volatile AtomicLongArray conditionEvaluations = new AtomicLongArray(0);
+    private volatile AtomicLongArray conditionRejections = new AtomicLongArray(0);
+    private final AtomicLongArray selectionTimes = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final LongAdder selectionTimeNanos = new LongAdder();
+
+    private final LongAdder changeEvents = new LongAdder();
+    private final LongAdder objectsAdded = new LongAdder();
+    private final LongAdder objectsRemoved = new LongAdder();
+    private final AtomicLongArray changeTimes = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    private final LongAdder changeTimeNanos = new LongAdder();
+
+    SelectorMetricsImpl(String name) {
+        this.name = name;
+    }
+
+    Subscription addListener(Listener l) {
+        listeners.add(l);
+        return () -> listeners.remove(l);
+    }
+
+    /**
+     * Resizes the per condition counters (called if the selector is compiled).
+     * Counters of existing conditions are preserved.
+     */
+    synchronized void setConditionCount(int count) {
+        if(conditionEvaluations.length() == count) {
+            return;
+        }
+
+        AtomicLongArray evaluations = new AtomicLongArray(count);
+        AtomicLongArray rejections = new AtomicLongArray(count);
+
+        for(int i = 0; i < Math.min(count, conditionEvaluations.length()); i++) {
+            evaluations.set(i, conditionEvaluations.get(i));
+            rejections.set(i, conditionRejections.get(i));
+        }
+
+        conditionRejections = rejections;
+        conditionEvaluations = evaluations;
+    }
+
+    /**
+     * Records the evaluation of a property condition.
+     * @param condition index of the condition
+     * @param satisfied whether the condition has been satisfied
+     */
+    void conditionEvaluated(int condition, boolean satisfied) {
+        AtomicLongArray evaluations = conditionEvaluations;
+        AtomicLongArray rejections = conditionRejections;
+
+        if(condition < evaluations.length()) {
+            evaluations.incrementAndGet(condition);
+        }
+        if(!satisfied && condition < rejections.length()) {
+            rejections.incrementAndGet(condition);
+        }
+    }
+
+    /**
+     * Records the evaluation of an object.
+     * @param matched whether the object matched
+     */
+    void evaluated(boolean matched) {
+        objectsEvaluated.increment();
+        if(matched) {
+            matches.increment();
+        }
+    }
+
+    void selectionCompleted(long numMatches, long nanos) {
+        selections.increment();
+        selectionTimeNanos.add(nanos);
+        selectionTimes.incrementAndGet(bucket(nanos));
+
+        for(Listener l : listeners) {
+            l.selectionCompleted(this, numMatches, nanos);
+        }
+    }
+
+    void changeProcessed(int added, int removed, long nanos) {
+        changeEvents.increment();
+        objectsAdded.add(added);
+        objectsRemoved.add(removed);
+        changeTimeNanos.add(nanos);
+        changeTimes.incrementAndGet(bucket(nanos));
+
+        for(Listener l : listeners) {
+            l.changeProcessed(this, added, removed, nanos);
+        }
+    }
+
+    private static int bucket(long nanos) {
+        int bucket = 63 - Long.numberOfLeadingZeros(Math.max(1, nanos));
+        return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+    }
+
+    private static long[] toArray(AtomicLongArray array) {
+        long[] result = new long[array.length()];
+        for(int i = 0; i < result.length; i++) {
+            result[i] = array.get(i);
+        }
+        return result;
+    }
+
+    private static void clear(AtomicLongArray array) {
+        for(int i = 0; i < array.length(); i++) {
+            array.set(i, 0);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getSelections() {
+        return selections.sum();
+    }
+
+    @Override
+    public long getObjectsEvaluated() {
+        return objectsEvaluated.sum();
+    }
+
+    @Override
+    public long getMatches() {
+        return matches.sum();
+    }
+
+    @Override
+    public long[] getConditionEvaluations() {
+        return toArray(conditionEvaluations);
+    }
+
+    @Override
+    public long[] getConditionRejections() {
+        return toArray(conditionRejections);
+    }
+
+    @Override
+    public double[] getConditionRejectionRates() {
+        long[] evaluations = getConditionEvaluations();
+        long[] rejections = getConditionRejections();
+        double[] rates = new double[Math.min(evaluations.length, rejections.length)];
+
+        for(int i = 0; i < rates.length; i++) {
+            rates[i] = evaluations[i] == 0 ? 0 : rejections[i] / (double) evaluations[i];
+        }
+
+        return rates;
+    }
+
+    @Override
+    public long[] getSelectionTimeHistogram() {
+        return toArray(selectionTimes);
+    }
+
+    @Override
+    public long getSelectionTimeNanos() {
+        return selectionTimeNanos.sum();
+    }
+
+    @Override
+    public long getChangeEvents() {
+        return changeEvents.sum();
+    }
+
+    @Override
+    public long getObjectsAdded() {
+        return objectsAdded.sum();
+    }
+
+    @Override
+    public long getObjectsRemoved() {
+        return objectsRemoved.sum();
+    }
+
+    @Override
+    public long[] getChangeTimeHistogram() {
+        return toArray(changeTimes);
+    }
+
+    @Override
+    public long getChangeTimeNanos() {
+        return changeTimeNanos.sum();
+    }
+
+    @Override
+    public void reset() {
+        selections.reset();
+        objectsEvaluated.reset();
+        matches.reset();
+        clear(conditionEvaluations);
+        clear(conditionRejections);
+        clear(selectionTimes);
+        selectionTimeNanos.reset();
+        changeEvents.reset();
+        objectsAdded.reset();
+        objectsRemoved.reset();
+        clear(changeTimes);
+        changeTimeNanos.reset();
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+import eu.mihosoft.vmf.runtime.core.VObject;
+import vjavax.observer.Subscription;
+
+/**
+ * Discrimination network of the views of a containment tree (see
+ * {@link Selector#syncWith(VObject, java.util.Collection)}).
+ *
+ * The property conditions of all views of a root are merged into condition
+ * nodes. Conditions with equal keys (same property name and same comparisons)
+ * share a node, i.e., they are evaluated once per change no matter how many
+ * views use them. Each node remembers the objects that satisfy its condition.
+ * A change of a property is routed to the nodes that reference the property
+ * and only views of nodes whose state has changed are updated. A view updates
+ * its selection by looking up the state of its nodes, it does not evaluate
+ * any condition itself.
+ *
+ * Views of structural selectors are additionally notified about every
+ * change, they decide which objects depend on it.
+ *
+ * A suspended network ignores all changes. It is rebuilt in a single pass
+ * when it is resumed.
+ */
+final class SelectorNetwork implements ModelTracker.Listener {
+
+    private final ModelTracker tracker;
+
+    private final Map<Object, ConditionNode> nodesByKey = new HashMap<>();
+    private final Map<String, List<ConditionNode>> nodesByProperty = new HashMap<>();
+    private final List<ConditionNode> unrestrictedNodes = new ArrayList<>();
+    private final List<SelectorView> views = new ArrayList<>();
+    private final List<SelectorView> structuralViews = new ArrayList<>();
+
+    private final List<SelectorView> dirtyViews = new ArrayList<>();
+    private boolean suspended;
+
+    SelectorNetwork(ModelTracker tracker) {
+        this.tracker = tracker;
+    }
+
+    /**
+     * Adds the specified view to this network and populates its selection.
+     * @param view view to add
+     * @param plan compiled selector of the view
+     * @return subscription that removes the view from this network
+     */
+    Subscription add(SelectorView view, SelectorPlan plan) {
+        List<SelectorPlan.Condition> conditions = plan.getConditions();
+        ConditionNode[] nodes = new ConditionNode[conditions.size()];
+        List<ConditionNode> newNodes = new ArrayList<>();
+
+        for(int i = 0; i < nodes.length; i++) {
+            SelectorPlan.Condition c = conditions.get(i);
+            ConditionNode node = nodesByKey.get(c.getKey());
+
+            if(node == null) {
+                node = new ConditionNode(c);
+                nodesByKey.put(node.key, node);
+                if(node.names == null) {
+                    unrestrictedNodes.add(node);
+                } else {
+                    for(String name : node.names) {
+                        nodesByProperty.computeIfAbsent(name,
+                            (n) -> new ArrayList<>()).add(node);
+                    }
+                }
+                newNodes.add(node);
+            }
+
+            node.views.add(view);
+            nodes[i] = node;
+        }
+
+        view.setNodes(nodes);
+
+        tracker.forEachObject((vObj) -> {
+            for(ConditionNode node : newNodes) {
+                node.evaluate(vObj);
+            }
+            view.populate(vObj);
+        });
+
+        views.add(view);
+        if(view.isStructural()) {
+            structuralViews.add(view);
+        }
+
+        return () -> remove(view, nodes);
+    }
+
+    private void remove(SelectorView view, ConditionNode[] nodes) {
+        if(!views.remove(view)) {
+            return;
+        }
+
+        structuralViews.remove(view);
+
+        for(ConditionNode node : nodes) {
+            node.views.remove(view);
+
+            if(node.views.isEmpty() && nodesByKey.remove(node.key) != null) {
+                if(node.names == null) {
+                    unrestrictedNodes.remove(node);
+                } else {
+                    for(String name : node.names) {
+                        List<ConditionNode> nodesOfProperty = nodesByProperty.get(name);
+                        nodesOfProperty.remove(node);
+                        if(nodesOfProperty.isEmpty()) {
+                            nodesByProperty.remove(name);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    void setSuspended(boolean suspended) {
+        this.suspended = suspended;
+    }
+
+    /**
+     * Re-evaluates all condition nodes and updates the selections of all
+     * views with the net changes.
+     * @param executor executor used to evaluate the nodes in parallel or
+     *                 {@code null} to evaluate them sequentially
+     */
+    void rebuild(Executor executor) {
+        List<VObject> objects = new ArrayList<>(tracker.size());
+
+        tracker.forEachObject((vObj) -> {
+            if(executor != null) {
+                // all nodes evaluate each object concurrently
+                ParallelSelection.prepare(vObj);
+            }
+            objects.add(vObj);
+        });
+
+        if(executor == null) {
+            for(ConditionNode node : nodesByKey.values()) {
+                node.rebuild(objects);
+            }
+        } else {
+            List<Runnable> tasks = new ArrayList<>();
+            for(ConditionNode node : nodesByKey.values()) {
+                tasks.add(() -> node.rebuild(objects));
+            }
+            ParallelSelection.invokeAll(tasks, executor);
+        }
+
+        for(int i = 0; i < views.size(); i++) {
+            views.get(i).rebuild(objects);
+        }
+    }
+
+    /**
+     * Returns the number of condition nodes of this network.
+     * @return the number of condition nodes
+     */
+    int getNodeCount() {
+        return nodesByKey.size();
+    }
+
+    @Override
+    public void attached(VObject vObj) {
+        if(suspended) {
+            return;
+        }
+
+        for(ConditionNode node : nodesByKey.values()) {
+            node.evaluate(vObj);
+        }
+
+        for(int i = 0; i < views.size(); i++) {
+            views.get(i).attached(vObj);
+        }
+    }
+
+    @Override
+    public void detached(VObject vObj) {
+        if(suspended) {
+            return;
+        }
+
+        for(ConditionNode node : nodesByKey.values()) {
+            node.objects.remove(vObj);
+        }
+
+        for(int i = 0; i < views.size(); i++) {
+            views.get(i).detached(vObj);
+        }
+    }
+
+    @Override
+    public void changed(VObject vObj, String propertyName) {
+        if(suspended) {
+            return;
+        }
+
+        List<ConditionNode> nodes = nodesByProperty.getOrDefault(
+            propertyName, Collections.emptyList());
+
+        for(int i = 0; i < nodes.size(); i++) {
+            update(nodes.get(i), vObj);
+        }
+
+        for(int i = 0; i < unrestrictedNodes.size(); i++) {
+            update(unrestrictedNodes.get(i), vObj);
+        }
+
+        for(int i = 0; i < dirtyViews.size(); i++) {
+            dirtyViews.get(i).changed(vObj);
+        }
+
+        dirtyViews.clear();
+
+        for(int i = 0; i < structuralViews.size(); i++) {
+            structuralViews.get(i).structureChanged(vObj, propertyName);
+        }
+    }
+
+    private void update(ConditionNode node, VObject vObj) {
+        if(node.evaluate(vObj)) {
+            for(int i = 0; i < node.views.size(); i++) {
+                SelectorView view = node.views.get(i);
+                if(view.markDirty()) {
+                    dirtyViews.add(view);
+                }
+            }
+        }
+    }
+
+    /**
+     * A shared property condition and the objects of the tree that satisfy it.
+     */
+    static final class ConditionNode {
+        private final Object key;
+        private final String[] names;
+        private final SelectorPlan plan;
+        private final Set<VObject> objects =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+        private final List<SelectorView> views = new ArrayList<>();
+
+        ConditionNode(SelectorPlan.Condition condition) {
+            this.key = condition.getKey();
+            this.names = condition.getNames().isEmpty() ? null
+                : condition.getNames().toArray(new String[0]);
+            this.plan = new SelectorPlan(null, Collections.singletonList(condition));
+        }
+
+        /**
+         * Indicates whether the specified object satisfies this condition.
+         * @param vObj object
+         * @return {@code true} if the object satisfies this condition; {@code false} otherwise
+         */
+        boolean contains(VObject vObj) {
+            return objects.contains(vObj);
+        }
+
+        /**
+         * Evaluates this condition for the specified object.
+         * @return {@code true} if the state of the object has changed
+         */
+        private boolean evaluate(VObject vObj) {
+            return plan.test(vObj) ? objects.add(vObj) : objects.remove(vObj);
+        }
+
+        /**
+         * Re-evaluates this condition for the specified objects.
+         */
+        private void rebuild(List<VObject> vObjs) {
+            objects.clear();
+
+            for(VObject vObj : vObjs) {
+                if(plan.test(vObj)) {
+                    objects.add(vObj);
+                }
+            }
+        }
+    }
+}
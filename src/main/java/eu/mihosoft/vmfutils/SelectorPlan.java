@@ -0,0 +1,970 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+
+import eu.mihosoft.vmf.runtime.core.Property;
+import eu.mihosoft.vmf.runtime.core.Reflect;
+import eu.mihosoft.vmf.runtime.core.Type;
+import eu.mihosoft.vmf.runtime.core.VObject;
+
+/**
+ * Compiled form of a {@link Selector}.
+ *
+ * The property conditions of a selector are resolved to property slots (indices
+ * into {@code vmf().reflect().properties()}) once per {@link Type}. Evaluating
+ * an object only touches the properties a condition is restricted to and stops
+ * at the first property that satisfies the condition.
+ *
+ * Conditions are evaluated in an {@link AdaptiveOrder}, i.e., cheap and
+ * selective conditions are evaluated first.
+ *
+ * Composed selectors (see {@link Selector#or(Selector)}) additionally have an
+ * {@link Expr expression} over their conditions. Conditions with equal keys
+ * are shared by all parts of the expression and are evaluated at most once
+ * per object. Conjunctions and disjunctions short-circuit.
+ *
+ * Structural conditions ({@link Relation relations} to the container, the
+ * ancestors or the children of an object) are answered by the frames of a
+ * traversal of a containment tree or, for single objects, via the container
+ * chain of the object (see {@link StructuralSelection}). Containment scopes
+ * restrict the traversal.
+ *
+ * Which objects of a tree are evaluated is decided by the {@link QueryPlanner}
+ * (index lookups or a scan of the tree). Results of memoized selectors are
+ * cached per object (see {@link MatchCache}).
+ */
+final class SelectorPlan {
+
+    private final String typeName;
+    private final Condition[] conditions;
+    private final String[][] names;
+    private final Expr expr;
+    private final Relation[] relations;
+    private final String[] scope;
+
+    private final Map<Type, TypePlan> typePlans = new ConcurrentHashMap<>();
+    private volatile TypePlan lastTypePlan;
+
+    private final SelectorMetricsImpl metrics;
+    private final AdaptiveOrder order;
+
+    // memoized results (see MatchCache), copied on write
+    private volatile MatchCache[] caches = new MatchCache[0];
+
+    SelectorPlan(String typeName, List<Condition> conditions) {
+        this(typeName, conditions, null);
+    }
+
+    SelectorPlan(String typeName, List<Condition> conditions, SelectorMetricsImpl metrics) {
+        this(typeName, conditions, null, metrics);
+    }
+
+    /**
+     * Creates a plan.
+     * @param typeName name of the required type ({@code null} if unrestricted)
+     * @param conditions property conditions
+     * @param expr expression over the conditions or {@code null} if all
+     *             conditions have to be satisfied
+     * @param metrics metrics or {@code null} if metrics are disabled
+     */
+    SelectorPlan(String typeName, List<Condition> conditions, Expr expr,
+                 SelectorMetricsImpl metrics) {
+        this(typeName, conditions, Collections.emptyList(), null, expr, metrics);
+    }
+
+    /**
+     * Creates a plan.
+     * @param typeName name of the required type ({@code null} if unrestricted)
+     * @param conditions property conditions
+     * @param relations structural conditions
+     * @param scope names of the containment properties selections descend
+     *              into ({@code null} if unrestricted)
+     * @param expr expression over the conditions and relations or
+     *             {@code null} if all of them have to be satisfied
+     * @param metrics metrics or {@code null} if metrics are disabled
+     */
+    SelectorPlan(String typeName, List<Condition> conditions, List<Relation> relations,
+                 String[] scope, Expr expr, SelectorMetricsImpl metrics) {
+        this.typeName = typeName;
+        this.expr = expr;
+        this.relations = relations.toArray(new Relation[relations.size()]);
+        this.scope = scope;
+        this.conditions = conditions.toArray(new Condition[conditions.size()]);
+        this.metrics = metrics;
+        this.names = new String[this.conditions.length][];
+
+        for(int i = 0; i < this.conditions.length; i++) {
+            Set<String> restriction = this.conditions[i].getNames();
+            this.names[i] = restriction.isEmpty() ? null
+                    : restriction.toArray(new String[restriction.size()]);
+        }
+
+        if(metrics != null) {
+            metrics.setConditionCount(this.conditions.length);
+        }
+
+        boolean[] movable = new boolean[this.conditions.length];
+        for(int i = 0; i < movable.length; i++) {
+            movable[i] = this.conditions[i].isPure();
+        }
+        this.order = new AdaptiveOrder(movable);
+    }
+
+    /**
+     * Returns the metrics of this plan.
+     * @return the metrics of this plan or {@code null} if metrics are disabled
+     */
+    SelectorMetricsImpl getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Indicates whether the specified object matches this plan.
+     * @param vObj object to test
+     * @return {@code true} if the object matches; {@code false} otherwise
+     */
+    boolean test(VObject vObj) {
+        MatchCache[] caches = this.caches;
+
+        if(caches.length == 0) {
+            return test(vObj, structureOf(vObj));
+        }
+
+        Boolean cached = cached(caches, vObj);
+
+        if(cached != null) {
+            return cached;
+        }
+
+        boolean matches = test(vObj, structureOf(vObj));
+        cache(caches, vObj, matches);
+
+        return matches;
+    }
+
+    /**
+     * Indicates whether the specified object matches this plan. Conditions
+     * that are answered by index lookups (see {@link QueryPlanner}) are not
+     * evaluated.
+     * @param vObj object to test
+     * @param answered states for each condition whether it is satisfied by
+     *                 construction
+     * @return {@code true} if the object matches; {@code false} otherwise
+     */
+    boolean testResidual(VObject vObj, boolean[] answered) {
+        MatchCache[] caches = this.caches;
+        Boolean cached = caches.length == 0 ? null : cached(caches, vObj);
+
+        if(cached != null) {
+            return cached;
+        }
+
+        boolean matches = evaluate(vObj, null, answered);
+
+        if(metrics != null) {
+            metrics.evaluated(matches);
+        }
+
+        // the answered conditions are satisfied, i.e., the residual result
+        // is the result of the object
+        cache(caches, vObj, matches);
+
+        return matches;
+    }
+
+    /**
+     * Returns the structure of the specified object outside of a traversal
+     * ({@code null} if this plan has no structural conditions).
+     */
+    private Structure structureOf(VObject vObj) {
+        return relations.length == 0 ? null : StructuralSelection.structureOf(vObj, scope);
+    }
+
+    private static Boolean cached(MatchCache[] caches, VObject vObj) {
+        for(MatchCache c : caches) {
+            Boolean result = c.get(vObj);
+            if(result != null) {
+                return result;
+            }
+        }
+
+        return null;
+    }
+
+    private static void cache(MatchCache[] caches, VObject vObj, boolean matches) {
+        for(MatchCache c : caches) {
+            c.put(vObj, matches);
+        }
+    }
+
+    /**
+     * Adds a cache of match results (see {@link MatchCache}).
+     * @param cache cache to add
+     */
+    synchronized void addCache(MatchCache cache) {
+        MatchCache[] c = Arrays.copyOf(caches, caches.length + 1);
+        c[c.length - 1] = cache;
+        caches = c;
+    }
+
+    /**
+     * Removes the specified cache of match results.
+     * @param cache cache to remove
+     */
+    synchronized void removeCache(MatchCache cache) {
+        List<MatchCache> c = new ArrayList<>(Arrays.asList(caches));
+        c.remove(cache);
+        caches = c.toArray(new MatchCache[c.size()]);
+    }
+
+    /**
+     * Indicates whether the specified object matches this plan.
+     * @param vObj object to test
+     * @param structure evaluates the structural conditions of the object
+     *                  ({@code null} if this plan has none)
+     * @return {@code true} if the object matches; {@code false} otherwise
+     */
+    boolean test(VObject vObj, Structure structure) {
+        boolean matches = evaluate(vObj, structure, null);
+
+        if(metrics != null) {
+            metrics.evaluated(matches);
+        }
+
+        return matches;
+    }
+
+    private boolean evaluate(VObject vObj, Structure structure, boolean[] answered) {
+        Reflect reflect = vObj.vmf().reflect();
+        TypePlan typePlan = typePlan(vObj, reflect);
+
+        if(!typePlan.typeMatches) {
+            return false;
+        }
+
+        List<Property> properties = reflect.properties();
+
+        if(expr != null) {
+            // each shared condition is evaluated at most once (0: not
+            // evaluated, 1: satisfied, 2: not satisfied)
+            byte[] states = new byte[conditions.length];
+
+            return expr.evaluate(new Leaves() {
+                @Override
+                public boolean condition(int i) {
+                    if(states[i] == 0) {
+                        states[i] = test(i, vObj, properties, typePlan) ? (byte) 1 : (byte) 2;
+                    }
+                    return states[i] == 1;
+                }
+
+                @Override
+                public String typeName() {
+                    return typePlan.type.getName();
+                }
+
+                @Override
+                public boolean relation(int i) {
+                    return structure.test(relations[i]);
+                }
+            });
+        }
+
+        if(order.sample()) {
+            return evaluateSampled(vObj, properties, typePlan, answered)
+                && testRelations(structure);
+        }
+
+        int[] o = order.order();
+        for(int i = 0; i < o.length; i++) {
+            if(answered != null && answered[o[i]]) {
+                continue;
+            }
+            if(!test(o[i], vObj, properties, typePlan)) {
+                return false;
+            }
+        }
+
+        return testRelations(structure);
+    }
+
+    private boolean testRelations(Structure structure) {
+        for(int i = 0; i < relations.length; i++) {
+            if(!structure.test(relations[i])) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the name of the type objects have to be of.
+     * @return the type name or {@code null} if unrestricted
+     */
+    String getTypeName() {
+        return typeName;
+    }
+
+    /**
+     * Indicates whether this plan has an expression over its conditions, i.e.,
+     * whether it is not a conjunction of all of its conditions.
+     * @return {@code true} if this plan is composed; {@code false} otherwise
+     */
+    boolean isComposite() {
+        return expr != null;
+    }
+
+    /**
+     * Indicates whether this plan has structural conditions or a containment
+     * scope, i.e., whether it has to be evaluated while traversing a tree.
+     * @return {@code true} if this plan is structural; {@code false} otherwise
+     */
+    boolean isStructural() {
+        return relations.length > 0 || scope != null;
+    }
+
+    /**
+     * Returns the names of the containment properties selections descend into.
+     * @return the names or {@code null} if unrestricted
+     */
+    String[] getScope() {
+        return scope;
+    }
+
+    private boolean evaluateSampled(VObject vObj, List<Property> properties, TypePlan typePlan,
+                                    boolean[] answered) {
+        long[] nanos = new long[conditions.length];
+        boolean[] satisfied = new boolean[conditions.length];
+        boolean result = true;
+
+        // we evaluate all movable conditions to observe their rejection
+        // rates, other conditions are only evaluated as long as the object
+        // has not been rejected
+        for(int i = 0; i < conditions.length; i++) {
+            if(answered != null && answered[i]) {
+                satisfied[i] = true;
+                continue;
+            }
+            if(!result && !order.isMovable(i)) {
+                continue;
+            }
+            long start = System.nanoTime();
+            satisfied[i] = test(i, vObj, properties, typePlan);
+            nanos[i] = System.nanoTime() - start;
+            result &= satisfied[i];
+        }
+
+        order.record(nanos, satisfied);
+
+        return result;
+    }
+
+    /**
+     * Returns the current evaluation order of the conditions of this plan.
+     * @return the current evaluation order (indices of the conditions)
+     */
+    int[] getOrder() {
+        return order.order().clone();
+    }
+
+    private boolean test(int i, VObject vObj, List<Property> properties, TypePlan typePlan) {
+        Predicate<Object> direct = typePlan.directTests[i];
+
+        // primitive conditions are evaluated via the typed getter (no boxing)
+        boolean satisfied = direct != null && vObj.getClass() == typePlan.objectClass
+            ? direct.test(vObj)
+            : conditions[i].test(properties, typePlan.slots[i]);
+
+        if(metrics != null) {
+            metrics.conditionEvaluated(i, satisfied);
+        }
+
+        return satisfied;
+    }
+
+    /**
+     * Indicates whether the type of the specified object matches the type
+     * condition of this plan.
+     * @param vObj object to test
+     * @return {@code true} if the type matches; {@code false} otherwise
+     */
+    boolean typeMatches(VObject vObj) {
+        return typePlan(vObj, vObj.vmf().reflect()).typeMatches;
+    }
+
+    /**
+     * Indicates whether the specified object matches this plan given the
+     * states of its conditions, i.e., without evaluating any condition.
+     * @param vObj object to test
+     * @param satisfied states of the conditions (by condition index)
+     * @param structure evaluates the structural conditions of the object
+     *                  ({@code null} if this plan has none)
+     * @return {@code true} if the object matches; {@code false} otherwise
+     */
+    boolean matches(VObject vObj, IntPredicate satisfied, Structure structure) {
+        TypePlan typePlan = typePlan(vObj, vObj.vmf().reflect());
+
+        if(!typePlan.typeMatches) {
+            return false;
+        }
+
+        if(expr != null) {
+            return expr.evaluate(new Leaves() {
+                @Override
+                public boolean condition(int i) {
+                    return satisfied.test(i);
+                }
+
+                @Override
+                public String typeName() {
+                    return typePlan.type.getName();
+                }
+
+                @Override
+                public boolean relation(int i) {
+                    return structure.test(relations[i]);
+                }
+            });
+        }
+
+        for(int i = 0; i < conditions.length; i++) {
+            if(!satisfied.test(i)) {
+                return false;
+            }
+        }
+
+        return testRelations(structure);
+    }
+
+    /**
+     * Returns how many levels above an object with a changed property the
+     * objects whose structural conditions depend on the change can be, i.e.,
+     * the subtree of the container at this level has to be evaluated again.
+     * Child conditions read the objects one level below, parent and ancestor
+     * conditions read objects above.
+     * @param propertyName name of the changed property
+     * @param containment whether the property is a containment property
+     * @return the number of levels or {@code -1} if no structural condition
+     *         depends on the property
+     */
+    int getStructuralReach(String propertyName, boolean containment) {
+        return reach(propertyName, containment,
+            Collections.newSetFromMap(new IdentityHashMap<>()));
+    }
+
+    private int reach(String propertyName, boolean containment, Set<SelectorPlan> path) {
+        int result = -1;
+
+        if(!path.add(this)) {
+            // recursive selector, the whole tree may depend on the change
+            return Integer.MAX_VALUE;
+        }
+
+        for(Relation r : relations) {
+            SelectorPlan related = r.getPlan();
+            int below = r.getKind() == Relation.Kind.CHILD ? 1 : 0;
+
+            if(containment && r.getKind() == Relation.Kind.CHILD) {
+                // the children of the object itself have changed
+                result = Math.max(result, 0);
+            }
+
+            if(related.reads(propertyName)) {
+                result = Math.max(result, below);
+            }
+
+            int nested = related.reach(propertyName, containment, path);
+            if(nested >= 0) {
+                result = (int) Math.min(Integer.MAX_VALUE,
+                    Math.max(result, (long) nested + below));
+            }
+        }
+
+        path.remove(this);
+
+        return result;
+    }
+
+    /**
+     * Indicates whether a condition of this plan reads the specified property.
+     */
+    private boolean reads(String propertyName) {
+        for(Condition c : conditions) {
+            if(c.getNames().isEmpty() || c.getNames().contains(propertyName)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the property conditions of this plan.
+     * @return the property conditions of this plan
+     */
+    List<Condition> getConditions() {
+        return Collections.unmodifiableList(Arrays.asList(conditions));
+    }
+
+    /**
+     * Indicates whether the specified type name matches the required name.
+     * Unqualified required names match the simple name of the type.
+     */
+    static boolean isType(String requiredName, String typeName) {
+        if(requiredName.equals(typeName)) {
+            return true;
+        }
+
+        return requiredName.indexOf('.') < 0 && typeName.endsWith(requiredName)
+            && typeName.length() > requiredName.length()
+            && typeName.charAt(typeName.length() - requiredName.length() - 1) == '.';
+    }
+
+    private TypePlan typePlan(VObject vObj, Reflect reflect) {
+        Type type = reflect.type();
+
+        // selections are usually dominated by a single type, we therefore
+        // avoid the map lookup (Type.hashCode() is not cached) if possible
+        TypePlan last = lastTypePlan;
+        if(last != null && last.type == type) {
+            return last;
+        }
+
+        TypePlan typePlan = typePlans.get(type);
+
+        if(typePlan == null) {
+            typePlan = new TypePlan(type, vObj.getClass(), reflect.properties());
+            typePlans.put(type, typePlan);
+        }
+
+        lastTypePlan = typePlan;
+
+        return typePlan;
+    }
+
+    /**
+     * Property slots of all conditions for a specific type. Primitive
+     * conditions additionally get a direct test that reads the property via
+     * its typed getter (only valid for objects of {@code objectClass}).
+     */
+    private final class TypePlan {
+        private final Type type;
+        private final Class<?> objectClass;
+        private final boolean typeMatches;
+        private final int[][] slots;
+        private final Predicate<Object>[] directTests;
+
+        @SuppressWarnings("unchecked")
+        TypePlan(Type type, Class<?> objectClass, List<Property> properties) {
+            this.type = type;
+            this.objectClass = objectClass;
+            this.typeMatches = typeName == null
+                    || isType(typeName, type.getName());
+            this.slots = new int[conditions.length][];
+            this.directTests = (Predicate<Object>[]) new Predicate<?>[conditions.length];
+
+            for(int i = 0; i < conditions.length; i++) {
+                slots[i] = resolveSlots(names[i], properties);
+                if(slots[i] != null && slots[i].length == 1) {
+                    directTests[i] = conditions[i].directTest(objectClass);
+                }
+            }
+        }
+    }
+
+    private static int[] resolveSlots(String[] names, List<Property> properties) {
+
+        // unrestricted, we have to test every property
+        if(names == null) {
+            return null;
+        }
+
+        // a property cannot have more than one name
+        if(names.length != 1) {
+            return new int[0];
+        }
+
+        List<Integer> slots = new ArrayList<>();
+        for(int i = 0; i < properties.size(); i++) {
+            if(names[0].equals(properties.get(i).getName())) {
+                slots.add(i);
+            }
+        }
+
+        return slots.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * A property condition of a selector. An object satisfies a condition if at
+     * least one of its properties satisfies the condition predicate.
+     */
+    static final class Condition {
+        private final Predicate<Property> pred;
+        private final PropSelectorImpl propSel;
+
+        Condition(Predicate<Property> pred) {
+            this.pred = pred;
+            this.propSel = null;
+        }
+
+        Condition(PropSelectorImpl propSel) {
+            this.pred = propSel.asPredicate();
+            this.propSel = propSel;
+        }
+
+        /**
+         * Returns the property names this condition is restricted to (an empty
+         * set means that the condition is not restricted).
+         */
+        Set<String> getNames() {
+            return propSel == null ? Collections.emptySet() : propSel.getNames();
+        }
+
+        /**
+         * Returns a test that evaluates this condition on objects of the
+         * specified class via the typed getter of the property.
+         * @param objectClass class of the objects
+         * @return the test or {@code null} if this condition cannot be
+         *         evaluated on the primitive property value
+         */
+        Predicate<Object> directTest(Class<?> objectClass) {
+            Class<?> primitiveType = propSel == null ? null : propSel.getPrimitiveType();
+
+            if(primitiveType == double.class) {
+                ToDoubleFunction<Object> getter = PrimitiveAccessors.doubleGetter(
+                    objectClass, propSel.getNames().iterator().next());
+                if(getter != null) {
+                    PropSelectorImpl sel = propSel;
+                    return (o) -> sel.testDouble(getter.applyAsDouble(o));
+                }
+            } else if(primitiveType == int.class) {
+                ToIntFunction<Object> getter = PrimitiveAccessors.intGetter(
+                    objectClass, propSel.getNames().iterator().next());
+                if(getter != null) {
+                    PropSelectorImpl sel = propSel;
+                    return (o) -> sel.testInt(getter.applyAsInt(o));
+                }
+            }
+
+            return null;
+        }
+
+        /**
+         * Indicates whether this condition only consists of predicates that
+         * are defined by this library, i.e., whether it can be reordered.
+         */
+        boolean isPure() {
+            return propSel != null && propSel.isPure();
+        }
+
+        /**
+         * Returns a key that identifies this condition. Conditions with equal
+         * keys accept the same objects.
+         */
+        Object getKey() {
+            if(propSel == null) {
+                return pred;
+            }
+
+            Object key = propSel.getKey();
+            return key == null ? this : key;
+        }
+
+        /**
+         * Returns the values the property of this condition has to be equal to.
+         */
+        List<Object> getEqualValues() {
+            return propSel == null ? Collections.emptyList() : propSel.getEqualValues();
+        }
+
+        /**
+         * Returns the elements the list property value of this condition has
+         * to contain.
+         */
+        Set<Object> getContainedElements() {
+            return propSel == null ? Collections.emptySet() : propSel.getContainedElements();
+        }
+
+        /**
+         * Returns the interval the numeric property value of this condition
+         * has to be contained in ({@code null} if unrestricted).
+         */
+        NumericRange getRange() {
+            return propSel == null ? null : propSel.getRange();
+        }
+
+        /**
+         * Indicates whether the lookup of an index for the specified operation
+         * returns exactly the objects that satisfy this condition.
+         */
+        boolean isAnsweredBy(String operation) {
+            return propSel != null && propSel.isAnsweredBy(operation);
+        }
+
+        private boolean test(List<Property> properties, int[] slots) {
+            if(slots == null) {
+                for(int i = 0; i < properties.size(); i++) {
+                    if(pred.test(properties.get(i))) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            for(int slot : slots) {
+                if(pred.test(properties.get(slot))) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Values of the leaves of an expression for a specific object.
+     */
+    interface Leaves {
+        /**
+         * Indicates whether the condition with the specified index is satisfied.
+         * @param i index of the condition
+         * @return {@code true} if the condition is satisfied; {@code false} otherwise
+         */
+        boolean condition(int i);
+
+        /**
+         * Returns the type name of the object.
+         * @return the type name of the object
+         */
+        String typeName();
+
+        /**
+         * Indicates whether the relation with the specified index is satisfied.
+         * @param i index of the relation
+         * @return {@code true} if the relation is satisfied; {@code false} otherwise
+         */
+        boolean relation(int i);
+    }
+
+    /**
+     * Evaluates the structural conditions of an object in a containment tree.
+     */
+    interface Structure {
+        /**
+         * Indicates whether the object satisfies the specified relation.
+         * @param relation relation
+         * @return {@code true} if the relation is satisfied; {@code false} otherwise
+         */
+        boolean test(Relation relation);
+    }
+
+    /**
+     * Structural condition, i.e., a selector that the container, an ancestor
+     * or a child of an object has to match.
+     */
+    static final class Relation {
+
+        enum Kind {
+            PARENT, ANCESTOR, CHILD
+        }
+
+        private final Kind kind;
+        private final Supplier<SelectorPlan> plan;
+
+        /**
+         * Creates a relation.
+         * @param kind kind of the relation
+         * @param plan supplies the plan of the related selector (resolved on
+         *             demand, i.e., the related selector may still change)
+         */
+        Relation(Kind kind, Supplier<SelectorPlan> plan) {
+            this.kind = kind;
+            this.plan = plan;
+        }
+
+        Kind getKind() {
+            return kind;
+        }
+
+        SelectorPlan getPlan() {
+            return plan.get();
+        }
+    }
+
+    /**
+     * Boolean expression over the conditions of a plan.
+     */
+    abstract static class Expr {
+
+        abstract boolean evaluate(Leaves leaves);
+
+        /**
+         * Returns a copy of this expression with remapped indices.
+         * @param indices new index of each condition (by old index)
+         * @param relationIndices new index of each relation (by old index)
+         * @return the remapped expression
+         */
+        abstract Expr remap(int[] indices, int[] relationIndices);
+
+        static Expr condition(int index) {
+            return new ConditionExpr(index);
+        }
+
+        static Expr relation(int index) {
+            return new RelationExpr(index);
+        }
+
+        static Expr type(String typeName) {
+            return new TypeExpr(typeName);
+        }
+
+        static Expr and(List<Expr> operands) {
+            return operands.size() == 1 ? operands.get(0)
+                : new JunctionExpr(operands.toArray(new Expr[operands.size()]), true);
+        }
+
+        static Expr or(List<Expr> operands) {
+            return operands.size() == 1 ? operands.get(0)
+                : new JunctionExpr(operands.toArray(new Expr[operands.size()]), false);
+        }
+
+        static Expr not(Expr operand) {
+            return operand instanceof NotExpr ? ((NotExpr) operand).operand
+                : new NotExpr(operand);
+        }
+    }
+
+    private static final class ConditionExpr extends Expr {
+        private final int index;
+
+        ConditionExpr(int index) {
+            this.index = index;
+        }
+
+        @Override
+        boolean evaluate(Leaves leaves) {
+            return leaves.condition(index);
+        }
+
+        @Override
+        Expr remap(int[] indices, int[] relationIndices) {
+            return new ConditionExpr(indices[index]);
+        }
+    }
+
+    private static final class RelationExpr extends Expr {
+        private final int index;
+
+        RelationExpr(int index) {
+            this.index = index;
+        }
+
+        @Override
+        boolean evaluate(Leaves leaves) {
+            return leaves.relation(index);
+        }
+
+        @Override
+        Expr remap(int[] indices, int[] relationIndices) {
+            return new RelationExpr(relationIndices[index]);
+        }
+    }
+
+    private static final class TypeExpr extends Expr {
+        private final String typeName;
+
+        TypeExpr(String typeName) {
+            this.typeName = typeName;
+        }
+
+        @Override
+        boolean evaluate(Leaves leaves) {
+            return isType(typeName, leaves.typeName());
+        }
+
+        @Override
+        Expr remap(int[] indices, int[] relationIndices) {
+            return this;
+        }
+    }
+
+    /**
+     * Conjunction or disjunction (short-circuit).
+     */
+    private static final class JunctionExpr extends Expr {
+        private final Expr[] operands;
+        private final boolean and;
+
+        JunctionExpr(Expr[] operands, boolean and) {
+            this.operands = operands;
+            this.and = and;
+        }
+
+        @Override
+        boolean evaluate(Leaves leaves) {
+            for(Expr operand : operands) {
+                if(operand.evaluate(leaves) != and) {
+                    return !and;
+                }
+            }
+
+            return and;
+        }
+
+        @Override
+        Expr remap(int[] indices, int[] relationIndices) {
+            Expr[] remapped = new Expr[operands.length];
+            for(int i = 0; i < operands.length; i++) {
+                remapped[i] = operands[i].remap(indices, relationIndices);
+            }
+
+            return new JunctionExpr(remapped, and);
+        }
+    }
+
+    private static final class NotExpr extends Expr {
+        private final Expr operand;
+
+        NotExpr(Expr operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean evaluate(Leaves leaves) {
+            return !operand.evaluate(leaves);
+        }
+
+        @Override
+        Expr remap(int[] indices, int[] relationIndices) {
+            return new NotExpr(operand.remap(indices, relationIndices));
+        }
+    }
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import eu.mihosoft.vmf.runtime.core.VObject;
+import vjavax.observer.Subscription;
+
+/**
+ * Incrementally maintained selection of a containment tree.
+ *
+ * The view keeps the objects that match a compiled selector in sync with the
+ * target collection. All views of a root share one {@link SelectorNetwork}
+ * that evaluates the property conditions and notifies the view about objects
+ * whose conditions have changed.
+ *
+ * Views of structural selectors evaluate the relations of an object via its
+ * container chain and its children. After a change the view evaluates the
+ * subtree that may depend on the change again (see
+ * {@link SelectorPlan#getStructuralReach(String, boolean)}). Objects outside
+ * of a containment scope are not selected. Changes of the containers of the
+ * root are not observed.
+ *
+ * While a {@link ChangeBatch} of the root is open, the changes of the
+ * selection are coalesced and applied to the target collection (and reported
+ * to the listener) when the batch is flushed.
+ */
+final class SelectorView implements Subscription {
+
+    private final SelectorPlan plan;
+    private final Collection<VObject> target;
+    private final SelectionDelta.Listener listener;
+    private final Set<VObject> matches =
+        Collections.newSetFromMap(new IdentityHashMap<>());
+
+    private SelectorNetwork.ConditionNode[] nodes;
+    private boolean dirty;
+
+    // coalesced changes of the current batch
+    private final Set<VObject> added = new LinkedHashSet<>();
+    private final Set<VObject> removed = new LinkedHashSet<>();
+
+    private final RootContext context;
+    private final ModelTracker tracker;
+    private final Subscription subscription;
+
+    SelectorView(SelectorPlan plan, VObject root, Collection<VObject> target) {
+        this(plan, root, target, null);
+    }
+
+    SelectorView(SelectorPlan plan, VObject root, Collection<VObject> target,
+                 SelectionDelta.Listener listener) {
+        this.plan = plan;
+        this.target = target;
+        this.listener = listener;
+        this.context = RootContext.of(root);
+        this.tracker = context.getTracker();
+
+        // sync pre existing objects that match the selector (recorded as
+        // selection, not as change events)
+        long start = start();
+        this.subscription = context.register(this, plan);
+
+        if(plan.getMetrics() != null) {
+            plan.getMetrics().selectionCompleted(matches.size(), System.nanoTime() - start);
+        }
+    }
+
+    void setNodes(SelectorNetwork.ConditionNode[] nodes) {
+        this.nodes = nodes;
+    }
+
+    /**
+     * Marks this view as affected by the current change.
+     * @return {@code true} if this view has not been marked before
+     */
+    boolean markDirty() {
+        if(dirty) {
+            return false;
+        }
+
+        dirty = true;
+        return true;
+    }
+
+    boolean isStructural() {
+        return plan.isStructural();
+    }
+
+    private boolean test(VObject vObj) {
+        if(!plan.isStructural()) {
+            return plan.matches(vObj, (i) -> nodes[i].contains(vObj), null);
+        }
+
+        return inScope(vObj) && plan.matches(vObj, (i) -> nodes[i].contains(vObj),
+            StructuralSelection.structureOf(vObj, plan.getScope()));
+    }
+
+    /**
+     * Indicates whether the specified object is reachable from the root via
+     * the containment scope of the plan.
+     */
+    private boolean inScope(VObject vObj) {
+        String[] scope = plan.getScope();
+
+        if(scope == null) {
+            return true;
+        }
+
+        for(VObject o = vObj; o != tracker.getRoot(); o = tracker.getContainer(o)) {
+            if(!ModelTracker.containsName(scope, tracker.getContainmentProperty(o))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds the specified object to the selection if it matches (initial
+     * population, not reported to the listener).
+     * @param vObj object
+     */
+    void populate(VObject vObj) {
+        if(test(vObj) && matches.add(vObj)) {
+            target.add(vObj);
+        }
+    }
+
+    void attached(VObject vObj) {
+        long start = start();
+
+        if(test(vObj) && matches.add(vObj)) {
+            added(vObj);
+            processed(1, 0, start);
+        } else {
+            processed(0, 0, start);
+        }
+    }
+
+    void detached(VObject vObj) {
+        long start = start();
+
+        if(matches.remove(vObj)) {
+            removed(vObj);
+            processed(0, 1, start);
+        }
+    }
+
+    /**
+     * Updates the selection after a condition of the specified object has changed.
+     * @param vObj changed object
+     */
+    void changed(VObject vObj) {
+        long start = start();
+        dirty = false;
+
+        boolean matched = matches.contains(vObj);
+        boolean matching = test(vObj);
+
+        if(matched && !matching) {
+            matches.remove(vObj);
+            removed(vObj);
+            processed(0, 1, start);
+        } else if(!matched && matching) {
+            matches.add(vObj);
+            added(vObj);
+            processed(1, 0, start);
+        } else {
+            processed(0, 0, start);
+        }
+    }
+
+    /**
+     * Updates the selection after a property of the specified object has
+     * changed that structural conditions may depend on.
+     * @param vObj changed object
+     * @param propertyName name of the changed property
+     */
+    void structureChanged(VObject vObj, String propertyName) {
+        int reach = plan.getStructuralReach(propertyName,
+            ModelTracker.isContainmentProperty(vObj, propertyName));
+
+        if(reach < 0) {
+            return;
+        }
+
+        VObject subtree = vObj;
+        for(int i = 0; i < reach && subtree != tracker.getRoot(); i++) {
+            subtree = tracker.getContainer(subtree);
+        }
+
+        tracker.forEachObject(subtree, this::changed);
+    }
+
+    /**
+     * Updates the selection after the network has been rebuilt.
+     * @param objects all objects of the tree
+     */
+    void rebuild(List<VObject> objects) {
+        long start = start();
+        Set<VObject> matching = Collections.newSetFromMap(new IdentityHashMap<>());
+        int numAdded = 0;
+        int numRemoved = 0;
+
+        for(VObject vObj : objects) {
+            if(test(vObj)) {
+                matching.add(vObj);
+                if(matches.add(vObj)) {
+                    added(vObj);
+                    numAdded++;
+                }
+            }
+        }
+
+        for(Iterator<VObject> it = matches.iterator(); it.hasNext();) {
+            VObject vObj = it.next();
+            if(!matching.contains(vObj)) {
+                it.remove();
+                removed(vObj);
+                numRemoved++;
+            }
+        }
+
+        processed(numAdded, numRemoved, start);
+    }
+
+    private void added(VObject vObj) {
+        if(context.isBatching()) {
+            // an object that is removed and added again is unchanged
+            if(!removed.remove(vObj)) {
+                this.added.add(vObj);
+            }
+            context.defer(this);
+        } else {
+            target.add(vObj);
+            notifyListener(Collections.singleton(vObj), Collections.emptySet());
+        }
+    }
+
+    private void removed(VObject vObj) {
+        if(context.isBatching()) {
+            // an object that is added and removed again is unchanged
+            if(!added.remove(vObj)) {
+                this.removed.add(vObj);
+            }
+            context.defer(this);
+        } else {
+            target.remove(vObj);
+            notifyListener(Collections.emptySet(), Collections.singleton(vObj));
+        }
+    }
+
+    /**
+     * Applies the coalesced changes of the current batch to the target
+     * collection.
+     */
+    void flush() {
+        if(added.isEmpty() && removed.isEmpty()) {
+            return;
+        }
+
+        Set<VObject> addedObjects = new LinkedHashSet<>(added);
+        Set<VObject> removedObjects = new LinkedHashSet<>(removed);
+        added.clear();
+        removed.clear();
+
+        target.removeAll(removedObjects);
+        target.addAll(addedObjects);
+
+        notifyListener(addedObjects, removedObjects);
+    }
+
+    private void notifyListener(Collection<VObject> addedObjects,
+                                Collection<VObject> removedObjects) {
+        if(listener != null) {
+            listener.selectionChanged(
+                new SelectionDeltaImpl(addedObjects, removedObjects));
+        }
+    }
+
+    /**
+     * Returns the start time of a measurement (the clock is only read if
+     * metrics are enabled).
+     */
+    private long start() {
+        return plan.getMetrics() != null ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records a processed change event (if metrics are enabled).
+     */
+    private void processed(int added, int removed, long start) {
+        SelectorMetricsImpl metrics = plan.getMetrics();
+
+        if(metrics != null) {
+            metrics.changeProcessed(added, removed, System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public void unsubscribe() {
+        // pending changes of an open batch are applied
+        flush();
+        subscription.unsubscribe();
+    }
+
+    /**
+     * Target collection of views that maintain derived state (e.g. aggregates)
+     * instead of a plain collection. Subclasses are notified about the objects
+     * that start or stop matching.
+     */
+    abstract static class Target extends AbstractCollection<VObject> {
+        private final Set<VObject> objects =
+            Collections.newSetFromMap(new IdentityHashMap<>());
+
+        /**
+         * Called after the specified object has been added.
+         * @param vObj added object
+         */
+        abstract void added(VObject vObj);
+
+        /**
+         * Called after the specified object has been removed.
+         * @param vObj removed object
+         */
+        abstract void removed(VObject vObj);
+
+        @Override
+        public boolean add(VObject vObj) {
+            if(!objects.add(vObj)) {
+                return false;
+            }
+
+            added(vObj);
+            return true;
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            if(!objects.remove(o)) {
+                return false;
+            }
+
+            removed((VObject) o);
+            return true;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            return objects.contains(o);
+        }
+
+        @Override
+        public Iterator<VObject> iterator() {
+            Iterator<VObject> it = objects.iterator();
+
+            // bulk operations remove via the iterator
+            return new Iterator<VObject>() {
+                private VObject current;
+
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public VObject next() {
+                    current = it.next();
+                    return current;
+                }
+
+                @Override
+                public void remove() {
+                    it.remove();
+                    removed(current);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return objects.size();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.function.Predicate;
+
+/**
+ * Matchers that test a string against many literals at once. The cost of a
+ * test depends on the length of the tested string, not on the number of
+ * literals.
+ */
+final class StringMatchers {
+
+    private StringMatchers() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Returns a predicate that tests whether a string starts with at least
+     * one of the specified prefixes (uses a trie).
+     * @param prefixes prefixes
+     * @return predicate
+     */
+    static Predicate<String> startsWithAnyOf(Collection<String> prefixes) {
+        Node root = new Node();
+
+        for(String prefix : prefixes) {
+            Node n = root;
+            for(int i = 0; i < prefix.length(); i++) {
+                n = n.addChild(prefix.charAt(i));
+            }
+            n.terminal = true;
+        }
+
+        return (s) -> {
+            Node n = root;
+            for(int i = 0; i < s.length() && !n.terminal; i++) {
+                n = n.child(s.charAt(i));
+                if(n == null) {
+                    return false;
+                }
+            }
+            return n.terminal;
+        };
+    }
+
+    /**
+     * Returns a predicate that tests whether a string ends with at least one
+     * of the specified suffixes (uses a trie of the reversed suffixes).
+     * @param suffixes suffixes
+     * @return predicate
+     */
+    static Predicate<String> endsWithAnyOf(Collection<String> suffixes) {
+        Node root = new Node();
+
+        for(String suffix : suffixes) {
+            Node n = root;
+            for(int i = suffix.length() - 1; i >= 0; i--) {
+                n = n.addChild(suffix.charAt(i));
+            }
+            n.terminal = true;
+        }
+
+        return (s) -> {
+            Node n = root;
+            for(int i = s.length() - 1; i >= 0 && !n.terminal; i--) {
+                n = n.child(s.charAt(i));
+                if(n == null) {
+                    return false;
+                }
+            }
+            return n.terminal;
+        };
+    }
+
+    /**
+     * Returns a predicate that tests whether a string contains at least one
+     * of the specified literals (uses an Aho-Corasick automaton).
+     * @param literals literals
+     * @return predicate
+     */
+    static Predicate<String> containsAnyOf(Collection<String> literals) {
+        Node root = new Node();
+
+        for(String literal : literals) {
+            Node n = root;
+            for(int i = 0; i < literal.length(); i++) {
+                n = n.addChild(literal.charAt(i));
+            }
+            n.terminal = true;
+        }
+
+        // compute failure links (breadth-first)
+        Deque<Node> queue = new ArrayDeque<>();
+        root.fail = root;
+        for(Node child : root.children) {
+            child.fail = root;
+            queue.add(child);
+        }
+
+        while(!queue.isEmpty()) {
+            Node n = queue.poll();
+            for(int i = 0; i < n.keys.length; i++) {
+                Node child = n.children[i];
+                Node f = n.fail;
+                while(f != root && f.child(n.keys[i]) == null) {
+                    f = f.fail;
+                }
+                Node target = f.child(n.keys[i]);
+                child.fail = target != null && target != child ? target : root;
+                // a literal ends here if it ends at the longest proper suffix
+                child.terminal |= child.fail.terminal;
+                queue.add(child);
+            }
+        }
+
+        return (s) -> {
+            Node n = root;
+            if(n.terminal) {
+                return true;
+            }
+            for(int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                Node next = n.child(c);
+                while(next == null && n != root) {
+                    n = n.fail;
+                    next = n.child(c);
+                }
+                n = next == null ? root : next;
+                if(n.terminal) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    /**
+     * Trie node. Children are stored in arrays sorted by character.
+     */
+    private static final class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private boolean terminal;
+        private Node fail;
+
+        Node child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i < 0 ? null : children[i];
+        }
+
+        Node addChild(char c) {
+            int i = Arrays.binarySearch(keys, c);
+
+            if(i >= 0) {
+                return children[i];
+            }
+
+            int pos = -i - 1;
+            Node child = new Node();
+
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, pos);
+            System.arraycopy(children, 0, newChildren, 0, pos);
+            newKeys[pos] = c;
+            newChildren[pos] = child;
+            System.arraycopy(keys, pos, newKeys, pos + 1, keys.length - pos);
+            System.arraycopy(children, pos, newChildren, pos + 1, children.length - pos);
+
+            keys = newKeys;
+            children = newChildren;
+
+            return child;
+        }
+    }
+}
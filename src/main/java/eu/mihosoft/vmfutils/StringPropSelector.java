@@ -16,9 +16,11 @@
 package eu.mihosoft.vmfutils;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.function.Predicate;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import eu.mihosoft.vmf.runtime.core.Property;
@@ -43,6 +45,20 @@ public interface StringPropSelector extends PropSelector {
     public StringPropSelector withValueThatContains(String value);
 
     public StringPropSelector withValueThatMatches(String pattern);
+
+    public StringPropSelector withValueThatMatches(Pattern pattern);
+
+    public StringPropSelector withValueThatStartsWithAnyOf(String... values);
+
+    public StringPropSelector withValueThatStartsWithAnyOf(Collection<String> values);
+
+    public StringPropSelector withValueThatEndsWithAnyOf(String... values);
+
+    public StringPropSelector withValueThatEndsWithAnyOf(Collection<String> values);
+
+    public StringPropSelector withValueThatContainsAnyOf(String... values);
+
+    public StringPropSelector withValueThatContainsAnyOf(Collection<String> values);
 }
 
 class StringPropSelectorImpl extends PropSelectorImpl implements StringPropSelector {
@@ -75,6 +91,7 @@ class StringPropSelectorImpl extends PropSelectorImpl implements StringPropSelec
     @Override
     public StringPropSelector withValueThatStartsWith(String value) {
         
+        describe("startsWith", value);
         getPredicates().add((p)->{
             if(!(p.get() instanceof String)) {
                 return false;
@@ -88,6 +105,7 @@ class StringPropSelectorImpl extends PropSelectorImpl implements StringPropSelec
 
     @Override
     public StringPropSelector withValueThatEndsWith(String value) {
+        describe("endsWith", value);
         getPredicates().add((p)->{
             if(!(p.get() instanceof String)) {
                 return false;
@@ -101,6 +119,7 @@ class StringPropSelectorImpl extends PropSelectorImpl implements StringPropSelec
 
     @Override
     public StringPropSelector withValueThatContains(String value) {
+        describe("contains", value);
         getPredicates().add((p)->{
             if(!(p.get() instanceof String)) {
                 return false;
@@ -114,16 +133,66 @@ class StringPropSelectorImpl extends PropSelectorImpl implements StringPropSelec
 
     @Override
     public StringPropSelector withValueThatMatches(String pattern) {
+        return withValueThatMatches(Pattern.compile(pattern));
+    }
+
+    @Override
+    public StringPropSelector withValueThatMatches(Pattern pattern) {
+        describe("matchesPattern", pattern.pattern(), pattern.flags());
         getPredicates().add((p)->{
             if(!(p.get() instanceof String)) {
                 return false;
             }
 
-            return ((String)p.get()).matches(pattern);
+            return pattern.matcher((String)p.get()).matches();
         });
 
         return this;
     }
 
-}
+    @Override
+    public StringPropSelector withValueThatStartsWithAnyOf(String... values) {
+        return withValueThatStartsWithAnyOf(Arrays.asList(values));
+    }
+
+    @Override
+    public StringPropSelector withValueThatStartsWithAnyOf(Collection<String> values) {
+        describe("startsWithAnyOf", new ArrayList<>(values));
+        return withStringValueThatMatches(StringMatchers.startsWithAnyOf(values));
+    }
 
+    @Override
+    public StringPropSelector withValueThatEndsWithAnyOf(String... values) {
+        return withValueThatEndsWithAnyOf(Arrays.asList(values));
+    }
+
+    @Override
+    public StringPropSelector withValueThatEndsWithAnyOf(Collection<String> values) {
+        describe("endsWithAnyOf", new ArrayList<>(values));
+        return withStringValueThatMatches(StringMatchers.endsWithAnyOf(values));
+    }
+
+    @Override
+    public StringPropSelector withValueThatContainsAnyOf(String... values) {
+        return withValueThatContainsAnyOf(Arrays.asList(values));
+    }
+
+    @Override
+    public StringPropSelector withValueThatContainsAnyOf(Collection<String> values) {
+        describe("containsAnyOf", new ArrayList<>(values));
+        return withStringValueThatMatches(StringMatchers.containsAnyOf(values));
+    }
+
+    private StringPropSelector withStringValueThatMatches(Predicate<String> matcher) {
+        getPredicates().add((p)->{
+            if(!(p.get() instanceof String)) {
+                return false;
+            }
+
+            return matcher.test((String)p.get());
+        });
+
+        return this;
+    }
+
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import eu.mihosoft.vmf.runtime.core.VObject;
+
+/**
+ * Compiled traversal of a containment tree for selectors with structural
+ * conditions or a containment scope.
+ *
+ * The tree is traversed in depth-first pre-order along the containment
+ * properties. Every visited object gets a frame that links to the frame of
+ * its container, i.e., parent and ancestor conditions are answered from the
+ * frames on the traversal path instead of walking the container chain for
+ * every object. Matches of related selectors and ancestor conditions are
+ * cached per frame, the ancestor condition of an object is derived from the
+ * cached state of its container in constant time. The containers of the root
+ * of the traversal are the containers of the root object. Visited frames
+ * release their children, i.e., a lazy traversal retains the frames of the
+ * current path and their pending siblings only.
+ *
+ * If the selector has a containment scope, only the named containment
+ * properties are traversed, i.e., all other subtrees are pruned.
+ *
+ * Outside of a traversal (single objects and synced views) relations are
+ * evaluated via the container chain and the children of an object (see
+ * {@link #structureOf(VObject, String[])}).
+ */
+final class StructuralSelection {
+
+    private StructuralSelection() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Returns a lazy stream of the objects of the specified tree that match
+     * the specified plan (in pre-order).
+     * @param plan compiled selector
+     * @param root root of the containment tree
+     * @return stream of the matching objects
+     */
+    static Stream<VObject> stream(SelectorPlan plan, VObject root) {
+        Traversal traversal = new Traversal(plan, root);
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(traversal,
+            Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+    }
+
+    /**
+     * Returns the structure of the specified object outside of a traversal.
+     * Parent and ancestor conditions are evaluated for the container chain of
+     * the object, child conditions for the objects of its containment
+     * properties.
+     * @param vObj object
+     * @param scope names of the containment properties that contain the
+     *              children or {@code null} if unrestricted
+     * @return the structure of the object
+     */
+    static SelectorPlan.Structure structureOf(VObject vObj, String[] scope) {
+        return (relation) -> {
+            SelectorPlan related = relation.getPlan();
+
+            switch(relation.getKind()) {
+                case PARENT:
+                    VObject container = ModelTracker.containerOf(vObj);
+                    return container != null && related.test(container);
+                case ANCESTOR:
+                    return ancestorMatches(vObj, related);
+                case CHILD:
+                    for(VObject child : children(vObj, scope)) {
+                        if(related.test(child)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                default:
+                    throw new IllegalArgumentException(
+                        "Unsupported relation: " + relation.getKind());
+            }
+        };
+    }
+
+    /**
+     * Indicates whether a container of the specified object matches the
+     * specified plan.
+     */
+    private static boolean ancestorMatches(VObject vObj, SelectorPlan plan) {
+        for(VObject c = ModelTracker.containerOf(vObj); c != null;
+                c = ModelTracker.containerOf(c)) {
+            if(plan.test(c)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the objects of the (scoped) containment properties of the
+     * specified object.
+     */
+    private static List<VObject> children(VObject vObj, String[] scope) {
+        List<VObject> children = new ArrayList<>();
+        ModelTracker.forEachChild(vObj, scope, (name, c) -> children.add(c));
+
+        return children;
+    }
+
+    /**
+     * Depth-first traversal that yields the matching objects.
+     */
+    private static final class Traversal implements Iterator<VObject> {
+        private final SelectorPlan plan;
+        private final String[] scope;
+        private final Deque<Frame> stack = new ArrayDeque<>();
+        private VObject next;
+
+        Traversal(SelectorPlan plan, VObject root) {
+            this.plan = plan;
+            this.scope = plan.getScope();
+
+            stack.push(new Frame(this, root, null));
+        }
+
+        @Override
+        public boolean hasNext() {
+            while(next == null && !stack.isEmpty()) {
+                Frame frame = stack.pop();
+
+                List<Frame> children = frame.children();
+                for(int i = children.size() - 1; i >= 0; i--) {
+                    stack.push(children.get(i));
+                }
+
+                if(frame.matches(plan)) {
+                    next = frame.vObj;
+                }
+
+                // the children are on the stack, i.e., frames are retained
+                // by the frames of their descendants only (O(depth * branching))
+                frame.release();
+            }
+
+            return next != null;
+        }
+
+        @Override
+        public VObject next() {
+            if(!hasNext()) {
+                throw new NoSuchElementException();
+            }
+
+            VObject result = next;
+            next = null;
+
+            return result;
+        }
+    }
+
+    /**
+     * Visited object and its position in the tree.
+     */
+    private static final class Frame implements SelectorPlan.Structure {
+        private final Traversal traversal;
+        private final VObject vObj;
+        private final Frame parent;
+        private List<Frame> children;
+        private boolean released;
+
+        // cached matches of selectors (by plan) and ancestor conditions (by
+        // relation)
+        private Map<Object, Boolean> cache;
+
+        Frame(Traversal traversal, VObject vObj, Frame parent) {
+            this.traversal = traversal;
+            this.vObj = vObj;
+            this.parent = parent;
+        }
+
+        List<Frame> children() {
+            if(children != null) {
+                return children;
+            }
+
+            List<VObject> objects = StructuralSelection.children(vObj, traversal.scope);
+            List<Frame> frames = new ArrayList<>(objects.size());
+            for(VObject c : objects) {
+                frames.add(new Frame(traversal, c, this));
+            }
+
+            // children of released frames are not retained (only needed if
+            // a related selector of a descendant has child conditions)
+            if(!released) {
+                children = frames;
+            }
+
+            return frames;
+        }
+
+        /**
+         * Releases the children of this frame after it has been visited.
+         * Parent and ancestor conditions of the descendants only need this
+         * frame and its cache.
+         */
+        void release() {
+            children = null;
+            released = true;
+        }
+
+        boolean matches(SelectorPlan plan) {
+            Boolean result = cached(plan);
+
+            if(result == null) {
+                result = plan.test(vObj, this);
+                cache(plan, result);
+            }
+
+            return result;
+        }
+
+        @Override
+        public boolean test(SelectorPlan.Relation relation) {
+            switch(relation.getKind()) {
+                case PARENT:
+                    if(parent == null) {
+                        // root of the traversal
+                        return structureOf(vObj, traversal.scope).test(relation);
+                    }
+                    return parent.matches(relation.getPlan());
+                case ANCESTOR:
+                    return ancestorMatches(relation);
+                case CHILD:
+                    for(Frame child : children()) {
+                        if(child.matches(relation.getPlan())) {
+                            return true;
+                        }
+                    }
+                    return false;
+                default:
+                    throw new IllegalArgumentException(
+                        "Unsupported relation: " + relation.getKind());
+            }
+        }
+
+        /**
+         * Indicates whether an ancestor matches the plan of the specified
+         * relation. The state is derived from the cached state of the
+         * container (iterative, the container chain can be long).
+         */
+        private boolean ancestorMatches(SelectorPlan.Relation relation) {
+            Deque<Frame> uncached = new ArrayDeque<>();
+            Frame f = this;
+
+            while(f != null && f.cached(relation) == null) {
+                uncached.push(f);
+                f = f.parent;
+            }
+
+            while(!uncached.isEmpty()) {
+                Frame u = uncached.pop();
+                boolean result = u.parent == null
+                    // the containers of the root are not part of the traversal
+                    ? StructuralSelection.ancestorMatches(u.vObj, relation.getPlan())
+                    : u.parent.matches(relation.getPlan()) || u.parent.cached(relation);
+                u.cache(relation, result);
+            }
+
+            return cached(relation);
+        }
+
+        private Boolean cached(Object key) {
+            return cache == null ? null : cache.get(key);
+        }
+
+        private void cache(Object key, boolean value) {
+            if(cache == null) {
+                cache = new IdentityHashMap<>(4);
+            }
+
+            cache.put(key, value);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.stream.Stream;
+
+import eu.mihosoft.vmf.runtime.core.Property;
+import eu.mihosoft.vmf.runtime.core.VObject;
+
+/**
+ * Selects the K objects with the highest (or lowest) value of a numeric
+ * property. A bounded heap of K entries is used instead of sorting all
+ * matching objects, i.e., the selection needs O(n log K) time and O(K) space.
+ *
+ * Objects without a numeric value (or with {@code NaN}) are ignored. Objects
+ * with equal values are ordered by their position in the source.
+ */
+final class TopSelection {
+
+    private TopSelection() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Selects the top K objects from the specified source.
+     * @param source objects to select from
+     * @param propertyName name of the numeric property
+     * @param k maximum number of objects to select
+     * @param highest whether to select the highest ({@code true}) or the
+     *                lowest ({@code false}) values
+     * @return the selected objects, ordered from the first to the last rank
+     */
+    static List<VObject> select(Stream<VObject> source, String propertyName,
+                                int k, boolean highest) {
+        if(k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+
+        if(k == 0) {
+            return Collections.emptyList();
+        }
+
+        Comparator<Entry> order = order(highest);
+
+        // the head of the heap is the entry with the last rank
+        PriorityQueue<Entry> heap = new PriorityQueue<>(k, order.reversed());
+        ValueReader reader = new ValueReader(propertyName);
+        long[] seq = new long[1];
+
+        source.forEach((vObj) -> {
+            double value = reader.get(vObj);
+
+            if(Double.isNaN(value)) {
+                return;
+            }
+
+            long s = seq[0]++;
+
+            if(heap.size() < k) {
+                heap.add(new Entry(vObj, value, s));
+            } else if(highest ? value > heap.peek().value : value < heap.peek().value) {
+                // on equal values the earlier object keeps its rank
+                heap.poll();
+                heap.add(new Entry(vObj, value, s));
+            }
+        });
+
+        Entry[] entries = heap.toArray(new Entry[heap.size()]);
+        Arrays.sort(entries, order);
+
+        List<VObject> result = new ArrayList<>(entries.length);
+        for(Entry e : entries) {
+            result.add(e.vObj);
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the rank order of entries (first rank first).
+     */
+    static Comparator<Entry> order(boolean highest) {
+        return (a, b) -> {
+            int c = highest ? Double.compare(b.value, a.value)
+                            : Double.compare(a.value, b.value);
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+        };
+    }
+
+    /**
+     * Ranked object.
+     */
+    static final class Entry {
+        final VObject vObj;
+        final double value;
+        final long seq;
+
+        Entry(VObject vObj, double value, long seq) {
+            this.vObj = vObj;
+            // -0.0 and 0.0 have the same rank
+            this.value = value + 0.0;
+            this.seq = seq;
+        }
+    }
+
+    /**
+     * Reads a numeric property as double. Typed getters are used if the
+     * class of the object has one (no boxing), otherwise the reflection API.
+     */
+    static final class ValueReader {
+        private final PropertySlot slot;
+        private Class<?> lastClass;
+        private ToDoubleFunction<Object> lastGetter;
+
+        ValueReader(String propertyName) {
+            this.slot = new PropertySlot(propertyName);
+        }
+
+        /**
+         * Returns the value of the property of the specified object.
+         * @param vObj object
+         * @return the value or {@code NaN} if the object has no numeric value
+         */
+        double get(VObject vObj) {
+            if(vObj.getClass() != lastClass) {
+                lastClass = vObj.getClass();
+                lastGetter = PrimitiveAccessors.doubleGetter(lastClass, slot.getName());
+
+                if(lastGetter == null) {
+                    ToIntFunction<Object> intGetter =
+                        PrimitiveAccessors.intGetter(lastClass, slot.getName());
+                    lastGetter = intGetter == null ? null : intGetter::applyAsInt;
+                }
+            }
+
+            if(lastGetter != null) {
+                return lastGetter.applyAsDouble(vObj);
+            }
+
+            Property p = slot.get(vObj);
+            Object value = p == null ? null : p.get();
+
+            return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import eu.mihosoft.vmf.runtime.core.VObject;
+import vjavax.observer.Subscription;
+
+/**
+ * Incrementally maintained list of the K matching objects with the highest
+ * (or lowest) value of a numeric property.
+ *
+ * All matching objects are ranked in a sorted set, i.e., each change is
+ * processed in O(log n) time. The target list is only rewritten (O(K)) if the
+ * change affects the first K ranks.
+ *
+ * Objects with equal values are ordered by the time they started to match.
+ * The objects that match initially are added in pre-order, i.e., their order
+ * is the order of {@link TopSelection}. Value changes keep the position of an
+ * object, objects that start to match later are ordered after the objects
+ * that match already (not by their position in the tree).
+ */
+final class TopView implements ModelTracker.Listener, Subscription {
+
+    private final TopSelection.ValueReader reader;
+    private final String propertyName;
+    private final int k;
+    private final List<VObject> target;
+
+    private final Comparator<TopSelection.Entry> order;
+    private final NavigableSet<TopSelection.Entry> ranking;
+    private final Map<VObject, TopSelection.Entry> entries = new IdentityHashMap<>();
+    // tie breakers of the matching objects (by the time they started to match)
+    private final Map<VObject, Long> seqs = new IdentityHashMap<>();
+    private final Members members = new Members();
+
+    // entry with rank K or null if there are less than K entries
+    private TopSelection.Entry boundary;
+    private long seq;
+
+    private final Subscription view;
+    private final Subscription subscription;
+
+    TopView(SelectorPlan plan, VObject root, String propertyName, int k,
+            boolean highest, List<VObject> target) {
+        if(k < 0) {
+            throw new IllegalArgumentException("k must not be negative: " + k);
+        }
+
+        this.reader = new TopSelection.ValueReader(propertyName);
+        this.propertyName = propertyName;
+        this.k = k;
+        this.target = target;
+        this.order = TopSelection.order(highest);
+        this.ranking = new TreeSet<>(order);
+
+        target.clear();
+
+        this.view = new SelectorView(plan, root, members);
+        this.subscription = RootContext.of(root).register(this, this);
+    }
+
+    @Override
+    public void attached(VObject vObj) {
+        // matching objects are added by the view
+    }
+
+    @Override
+    public void detached(VObject vObj) {
+        // matching objects are removed by the view
+    }
+
+    @Override
+    public void changed(VObject vObj, String propertyName) {
+        if(!this.propertyName.equals(propertyName) || !members.contains(vObj)) {
+            return;
+        }
+
+        TopSelection.Entry e = entries.get(vObj);
+
+        if(e != null && Double.compare(e.value, reader.get(vObj) + 0.0) == 0) {
+            return;
+        }
+
+        remove(vObj);
+        insert(vObj);
+    }
+
+    private void insert(VObject vObj) {
+        double value = reader.get(vObj);
+
+        if(Double.isNaN(value)) {
+            return;
+        }
+
+        TopSelection.Entry e = new TopSelection.Entry(vObj, value, seqs.get(vObj));
+        entries.put(vObj, e);
+        ranking.add(e);
+
+        if(isRanked(e)) {
+            refresh();
+        }
+    }
+
+    private void remove(VObject vObj) {
+        TopSelection.Entry e = entries.remove(vObj);
+
+        if(e == null) {
+            return;
+        }
+
+        boolean ranked = isRanked(e);
+        ranking.remove(e);
+
+        if(ranked) {
+            refresh();
+        }
+    }
+
+    /**
+     * Indicates whether the specified entry is (or would be) one of the
+     * first K entries.
+     */
+    private boolean isRanked(TopSelection.Entry e) {
+        return boundary == null || order.compare(e, boundary) <= 0;
+    }
+
+    /**
+     * Updates the boundary and the target list from the ranking.
+     */
+    private void refresh() {
+        List<VObject> top = new ArrayList<>(k);
+        TopSelection.Entry last = null;
+        Iterator<TopSelection.Entry> it = ranking.iterator();
+
+        while(top.size() < k && it.hasNext()) {
+            last = it.next();
+            top.add(last.vObj);
+        }
+
+        boundary = top.size() == k ? last : null;
+
+        if(!sameObjects(top, target)) {
+            target.clear();
+            target.addAll(top);
+        }
+    }
+
+    private static boolean sameObjects(List<VObject> a, List<VObject> b) {
+        if(a.size() != b.size()) {
+            return false;
+        }
+
+        for(int i = 0; i < a.size(); i++) {
+            if(a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void unsubscribe() {
+        view.unsubscribe();
+        subscription.unsubscribe();
+        entries.clear();
+        seqs.clear();
+        ranking.clear();
+        members.clear();
+        boundary = null;
+    }
+
+    /**
+     * Target of the view, receives the objects that start or stop matching.
+     */
+    private final class Members extends SelectorView.Target {
+
+        @Override
+        void added(VObject vObj) {
+            seqs.put(vObj, seq++);
+            insert(vObj);
+        }
+
+        @Override
+        void removed(VObject vObj) {
+            TopView.this.remove(vObj);
+            seqs.remove(vObj);
+        }
+    }
+}
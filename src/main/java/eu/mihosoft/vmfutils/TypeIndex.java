@@ -0,0 +1,223 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import eu.mihosoft.vmf.runtime.core.VObject;
+import vjavax.observer.Subscription;
+
+/**
+ * Registry of the objects of a containment tree partitioned by their type.
+ * The registry is kept up to date as objects are attached to or detached from
+ * the tree until it is unsubscribed.
+ *
+ * Selections from the tree use the registry for {@link Selector#withType(String)}
+ * conditions, i.e., only objects of the requested type are visited.
+ */
+public interface TypeIndex extends Subscription {
+
+    /**
+     * Returns the objects of the specified type, including the objects whose
+     * type is a subtype of the specified type. Simple names (e.g.
+     * {@code "Node"}) match all types with that simple name (see
+     * {@link Selector#withType(String)}).
+     * @param typeName name of the type (e.g. {@code "eu.mihosoft.vmfutils.Node"})
+     * @return unmodifiable collection of the objects of the specified type
+     */
+    public Collection<VObject> lookup(String typeName);
+}
+
+class TypeIndexImpl implements TypeIndex, ModelTracker.Listener {
+
+    private static final String VMF_RUNTIME_PACKAGE = "eu.mihosoft.vmf.runtime.";
+
+    private final Map<String, Set<VObject>> objectsByType = new HashMap<>();
+    private final Map<String, Set<String>> typesBySuperType = new HashMap<>();
+    private final Map<Class<?>, String[]> typeNamesByClass = new HashMap<>();
+    // qualified names of the known types by simple name
+    private final Map<String, Set<String>> typesBySimpleName = new HashMap<>();
+    private final Subscription subscription;
+
+    TypeIndexImpl(VObject root) {
+        RootContext ctx = RootContext.of(root);
+        ctx.getTracker().forEachObject(this::attached);
+        this.subscription = ctx.register(this, this);
+    }
+
+    @Override
+    public Collection<VObject> lookup(String typeName) {
+        Set<String> types = new LinkedHashSet<>();
+        for(String superType : resolve(typeName)) {
+            types.addAll(typesBySuperType.getOrDefault(superType, Collections.emptySet()));
+        }
+
+        List<VObject> result = new ArrayList<>();
+        for(String type : types) {
+            result.addAll(objectsByType.getOrDefault(type, Collections.emptySet()));
+        }
+
+        return Collections.unmodifiableList(result);
+    }
+
+    /**
+     * Returns the objects of exactly the specified type. Simple names match
+     * all types with that simple name.
+     * @param typeName name of the type
+     * @return unmodifiable collection of the objects of the specified type
+     */
+    Collection<VObject> lookupExact(String typeName) {
+        Collection<String> types = resolve(typeName);
+
+        if(types.size() == 1) {
+            Set<VObject> objects = objectsByType.get(types.iterator().next());
+            return objects == null ? Collections.emptySet() : Collections.unmodifiableSet(objects);
+        }
+
+        Set<VObject> objects = Collections.newSetFromMap(new IdentityHashMap<>());
+        for(String type : types) {
+            objects.addAll(objectsByType.getOrDefault(type, Collections.emptySet()));
+        }
+
+        return Collections.unmodifiableSet(objects);
+    }
+
+    /**
+     * Returns the qualified names of the types with the specified name.
+     */
+    private Collection<String> resolve(String typeName) {
+        if(typeName.indexOf('.') >= 0) {
+            return Collections.singleton(typeName);
+        }
+
+        return typesBySimpleName.getOrDefault(typeName, Collections.emptySet());
+    }
+
+    @Override
+    public void attached(VObject vObj) {
+        String[] typeNames = typeNames(vObj);
+
+        objectsByType.computeIfAbsent(typeNames[0],
+            (t) -> Collections.newSetFromMap(new IdentityHashMap<>())).add(vObj);
+
+        for(String typeName : typeNames) {
+            typesBySuperType.computeIfAbsent(typeName,
+                (t) -> new LinkedHashSet<>()).add(typeNames[0]);
+            typesBySimpleName.computeIfAbsent(
+                typeName.substring(typeName.lastIndexOf('.') + 1),
+                (t) -> new LinkedHashSet<>()).add(typeName);
+        }
+    }
+
+    @Override
+    public void detached(VObject vObj) {
+        Set<VObject> objects = objectsByType.get(typeNames(vObj)[0]);
+
+        if(objects != null) {
+            objects.remove(vObj);
+        }
+    }
+
+    @Override
+    public void changed(VObject vObj, String propertyName) {
+        // the type of an object cannot change
+    }
+
+    @Override
+    public void unsubscribe() {
+        subscription.unsubscribe();
+        objectsByType.clear();
+        typesBySuperType.clear();
+        typesBySimpleName.clear();
+    }
+
+    /**
+     * Returns the name of the type of the specified object followed by the
+     * names of its model super types.
+     */
+    private String[] typeNames(VObject vObj) {
+        String[] typeNames = typeNamesByClass.get(vObj.getClass());
+
+        if(typeNames == null) {
+            typeNames = computeTypeNames(vObj);
+            typeNamesByClass.put(vObj.getClass(), typeNames);
+        }
+
+        return typeNames;
+    }
+
+    private static String[] computeTypeNames(VObject vObj) {
+        String typeName = vObj.vmf().reflect().type().getName();
+
+        Set<String> typeNames = new LinkedHashSet<>();
+        typeNames.add(typeName);
+
+        // the model type is the interface of the implementation class that
+        // has the type name, its super types are the model interfaces it
+        // extends (we skip the VMF runtime interfaces)
+        Class<?> modelInterface = findInterface(vObj.getClass(), typeName);
+
+        if(modelInterface != null) {
+            Deque<Class<?>> interfaces = new ArrayDeque<>();
+            interfaces.push(modelInterface);
+
+            while(!interfaces.isEmpty()) {
+                for(Class<?> superIface : interfaces.pop().getInterfaces()) {
+                    if(VObject.class.isAssignableFrom(superIface)
+                            && !superIface.getName().startsWith(VMF_RUNTIME_PACKAGE)
+                            && typeNames.add(superIface.getName())) {
+                        interfaces.push(superIface);
+                    }
+                }
+            }
+        }
+
+        return typeNames.toArray(new String[typeNames.size()]);
+    }
+
+    private static Class<?> findInterface(Class<?> cls, String name) {
+        Deque<Class<?>> types = new ArrayDeque<>();
+        types.push(cls);
+
+        while(!types.isEmpty()) {
+            Class<?> type = types.pop();
+
+            if(type.isInterface() && name.equals(type.getName())) {
+                return type;
+            }
+
+            if(type.getSuperclass() != null) {
+                types.push(type.getSuperclass());
+            }
+
+            for(Class<?> iface : type.getInterfaces()) {
+                types.push(iface);
+            }
+        }
+
+        return null;
+    }
+}
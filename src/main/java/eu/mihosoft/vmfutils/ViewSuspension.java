@@ -0,0 +1,86 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.concurrent.Executor;
+
+import eu.mihosoft.vmf.runtime.core.VObject;
+
+/**
+ * Suspension of the views of a containment tree (see
+ * {@link Selector#suspendViews(VObject)}).
+ *
+ * While the views of a root are suspended, changes of the tree are not
+ * evaluated by the views, e.g., during the bulk construction of a large
+ * model. On resume all views of the root are rebuilt in a single pass and
+ * the synced collections are updated with the net changes.
+ *
+ * <pre>
+ * try(ViewSuspension suspension = Selector.suspendViews(root)) {
+ *     // bulk construction
+ * }
+ * </pre>
+ */
+public interface ViewSuspension extends AutoCloseable {
+
+    /**
+     * Resumes the views. The views are rebuilt once the outermost suspension
+     * of the root is resumed.
+     */
+    public void resume();
+
+    /**
+     * Resumes the views. The conditions of the views are re-evaluated in
+     * parallel with the specified executor.
+     * @param executor executor used to evaluate the conditions
+     */
+    public void resume(Executor executor);
+
+    /**
+     * Resumes the views (see {@link #resume()}).
+     */
+    @Override
+    public void close();
+}
+
+final class ViewSuspensionImpl implements ViewSuspension {
+
+    private final RootContext context;
+    private boolean resumed;
+
+    ViewSuspensionImpl(VObject root) {
+        this.context = RootContext.of(root);
+        context.suspendViews(this);
+    }
+
+    @Override
+    public void resume() {
+        resume(null);
+    }
+
+    @Override
+    public void resume(Executor executor) {
+        if(!resumed) {
+            resumed = true;
+            context.resumeViews(this, executor);
+        }
+    }
+
+    @Override
+    public void close() {
+        resume();
+    }
+}
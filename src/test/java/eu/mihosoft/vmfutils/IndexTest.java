@@ -0,0 +1,359 @@
+/*
+ * Copyright 2019-2019 Michael Hoffer <info@michaelhoffer.de>. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package eu.mihosoft.vmfutils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import eu.mihosoft.vmf.runtime.core.VObject;
+import vjavax.observer.Subscription;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IndexTest {
+
+    @Test public void hashIndexTest() {
+
+        Group root = Group.newInstance();
+        Group group = Group.newBuilder().withName("group").build();
+        root.getNodes().add(group);
+
+        for(int i = 0; i < 10; i++) {
+            group.getNodes().add(Node.newBuilder().withName("node-" + i).
+                withPressure(i * 10.0).build());
+        }
+
+        PropertyIndex index = Selector.index(root, "name");
+
+        assertEquals(1, index.lookup("node-3").size());
+        assertTrue(index.lookup("node-42").isEmpty());
+
+        // the index follows property changes
+        Node node = group.getNodes().get(3);
+        node.setName("node-42");
+        assertTrue(index.lookup("node-3").isEmpty());
+        assertTrue(index.lookup("node-42").contains(node));
+
+        // the index follows containment changes
+        Node added = Node.newBuilder().withName("node-3").build();
+        group.getNodes().add(added);
+        assertTrue(index.lookup("node-3").contains(added));
+
+        root.getNodes().remove(group);
+        assertTrue(index.lookup("node-3").isEmpty());
+        assertTrue(index.lookup("node-42").isEmpty());
+        root.getNodes().add(group);
+
+        // selections use the index and apply the remaining conditions
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatIsEqualTo("node-42")).
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(20.0));
+
+        Collection<VObject> result = selector.selectFrom(root);
+        assertEquals(1, result.size());
+        assertTrue(result.contains(node));
+
+        node.setPressure(0.0);
+        assertTrue(selector.selectFrom(root).isEmpty());
+
+        index.unsubscribe();
+        assertNull(RootContext.get(root));
+
+        node.setPressure(30.0);
+        assertEquals(1, selector.selectFrom(root).size());
+    }
+
+    @Test public void rangeIndexTest() {
+
+        Group root = Group.newInstance();
+
+        for(int i = 0; i < 30; i++) {
+            root.getNodes().add(Node.newBuilder().withName("node-" + i).
+                withPressure(i * 10.0).build());
+        }
+
+        // pressure > 100 && pressure <= 200 (merged into one interval)
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(100.0).
+                withValueThatIsLessThanOrEqualTo(200.0).
+                withValueThatIsGreaterThanOrEqualTo(50.0));
+
+        Collection<VObject> scanned = selector.selectFrom(root);
+        assertEquals(10, scanned.size());
+
+        RangeIndex index = Selector.rangeIndex(root, "pressure");
+
+        assertEquals(10, index.lookup(100.0, false, 200.0, true).size());
+        assertEquals(11, index.lookup(100.0, true, 200.0, true).size());
+        // includes the root (pressure 0.0)
+        assertEquals(21, index.lookup(null, false, 200.0, false).size());
+        assertTrue(index.lookup(200.0, false, 100.0, false).isEmpty());
+
+        Collection<VObject> result = selector.selectFrom(root);
+        assertEquals(10, result.size());
+        assertTrue(result.containsAll(scanned));
+
+        // the index follows property changes
+        Node node = root.getNodes().get(0);
+        node.setPressure(150.0);
+        assertTrue(selector.selectFrom(root).contains(node));
+        assertEquals(2, index.lookup(150.0).size());
+
+        root.getNodes().remove(node);
+        assertEquals(10, selector.selectFrom(root).size());
+
+        index.unsubscribe();
+    }
+
+    @Test public void typeIndexTest() {
+
+        Group root = Group.newInstance();
+        Group group = Group.newBuilder().withName("group").build();
+        root.getNodes().add(group);
+
+        for(int i = 0; i < 10; i++) {
+            group.getNodes().add(Node.newBuilder().withName("node-" + i).build());
+        }
+
+        String groupType = root.vmf().reflect().type().getName();
+        String nodeType = group.getNodes().get(0).vmf().reflect().type().getName();
+
+        TypeIndex index = Selector.typeIndex(root);
+
+        assertEquals(2, index.lookup(groupType).size());
+        // groups are nodes as well
+        assertEquals(12, index.lookup(nodeType).size());
+
+        Selector selector = Selector.selectObject().withType(groupType);
+        Collection<VObject> result = selector.selectFrom(root);
+        assertEquals(2, result.size());
+        assertTrue(result.contains(root));
+        assertTrue(result.contains(group));
+
+        root.getNodes().remove(group);
+        assertEquals(1, index.lookup(groupType).size());
+        assertEquals(1, index.lookup(nodeType).size());
+        assertEquals(1, selector.selectFrom(root).size());
+
+        index.unsubscribe();
+    }
+
+    @Test public void elementIndexTest() {
+
+        Group root = Group.newInstance();
+
+        for(int i = 0; i < 30; i++) {
+            Node node = Node.newBuilder().withName("node-" + i).build();
+            node.getTags().add("tag-" + (i % 3));
+            if(i % 2 == 0) {
+                node.getTags().add("even");
+            }
+            root.getNodes().add(node);
+        }
+
+        ElementIndex index = Selector.elementIndex(root, "tags");
+
+        assertEquals(10, index.lookup("tag-0").size());
+        assertEquals(15, index.lookup("even").size());
+        // 0, 6, 12, 18, 24
+        assertEquals(5, index.lookupAll(Arrays.asList("tag-0", "even")).size());
+        assertTrue(index.lookupAll(Arrays.asList("tag-0", "tag-1")).isEmpty());
+
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectListProp().withName("tags").
+                whichContains("tag-0", "even")).
+            withMetrics("tags");
+        assertEquals(5, selector.selectFrom(root).size());
+        // only the candidates of the index are evaluated
+        assertEquals(5, selector.getMetrics().getObjectsEvaluated());
+
+        // the index follows list changes
+        Node node = root.getNodes().get(3);
+        node.getTags().add("even");
+        assertTrue(index.lookup("even").contains(node));
+        assertEquals(6, selector.selectFrom(root).size());
+
+        node.getTags().remove("tag-0");
+        assertFalse(index.lookup("tag-0").contains(node));
+        assertEquals(5, selector.selectFrom(root).size());
+
+        // duplicates, the node contains 'even' until the last one is removed
+        node.getTags().add("even");
+        node.getTags().remove("even");
+        assertTrue(index.lookup("even").contains(node));
+        node.getTags().remove("even");
+        assertFalse(index.lookup("even").contains(node));
+
+        root.getNodes().remove(0);
+        assertEquals(8, index.lookup("tag-0").size());
+        assertEquals(4, selector.selectFrom(root).size());
+
+        index.unsubscribe();
+        assertNull(RootContext.get(root));
+    }
+
+    @Test public void plannerTest() {
+
+        Group root = Group.newInstance();
+
+        for(int i = 0; i < 1000; i++) {
+            Node node = Node.newBuilder().withName("node-" + (i % 100)).
+                withPressure(i).build();
+            if((i / 100) % 2 == 0) {
+                node.getTags().add("print-head");
+            }
+            root.getNodes().add(node);
+        }
+
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatIsEqualTo("node-20")).
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(500.0)).
+            withProperty(Selector.selectListProp().withName("tags").
+                whichContains("print-head")).
+            withMetrics("planner");
+
+        // without indexes the tree is scanned
+        Collection<VObject> scanned = selector.selectFrom(root);
+        assertEquals(2, scanned.size());
+        Explanation explanation = selector.explain(root);
+        assertFalse(explanation.isIndexed());
+        assertEquals(2, explanation.getActualRows());
+
+        PropertyIndex names = Selector.index(root, "name");
+        RangeIndex pressures = Selector.rangeIndex(root, "pressure");
+        ElementIndex tags = Selector.elementIndex(root, "tags");
+
+        // the hash index is the most selective (10 objects), the posting set
+        // of the element index is intersected, the range is a residual condition
+        explanation = selector.explain(root);
+        assertTrue(explanation.isIndexed());
+        assertEquals(3, explanation.getSteps().size());
+        assertTrue(explanation.getSteps().get(0).startsWith("lookup hash index 'name'"));
+        assertTrue(explanation.getSteps().get(1).startsWith("intersect element index 'tags'"));
+        assertTrue(explanation.getSteps().get(2).startsWith("filter 1 residual condition"));
+        assertEquals(5, explanation.getEstimatedCandidates(), 0.1);
+        assertEquals(5, explanation.getActualCandidates());
+        assertEquals(2, explanation.getActualRows());
+        assertEquals(2.5, explanation.getEstimatedRows(), 0.1);
+
+        // answered conditions are not evaluated again
+        long[] before = selector.getMetrics().getConditionEvaluations();
+        Collection<VObject> result = selector.selectFrom(root);
+        long[] after = selector.getMetrics().getConditionEvaluations();
+        assertEquals(new HashSet<>(scanned), new HashSet<>(result));
+        assertEquals(before[0], after[0]);
+        assertEquals(before[2], after[2]);
+        assertEquals(before[1] + 5, after[1]);
+
+        // a narrow range is more selective than the hash index
+        Selector narrow = Selector.query("[name = 'node-95' && pressure >= 990]");
+        explanation = narrow.explain(root);
+        assertTrue(explanation.getSteps().get(0).startsWith("lookup range index 'pressure'"));
+        assertEquals(1, explanation.getActualRows());
+        assertEquals(1, narrow.selectFrom(root).size());
+
+        // composed selectors scan the tree
+        explanation = selector.or(narrow).explain(root);
+        assertFalse(explanation.isIndexed());
+        assertEquals(1001, explanation.getActualCandidates());
+        assertEquals(3, explanation.getActualRows());
+
+        // duplicate query elements are answered by the element index
+        Selector duplicates = Selector.selectObject().withProperty(Selector.selectListProp().
+            withName("tags").whichContains("print-head", "print-head"));
+        explanation = duplicates.explain(root);
+        assertTrue(explanation.getSteps().get(0).startsWith("lookup element index 'tags'"));
+        assertTrue(explanation.getSteps().get(1).startsWith("filter 0 residual condition"));
+        assertEquals(500, explanation.getActualRows());
+
+        names.unsubscribe();
+        pressures.unsubscribe();
+        tags.unsubscribe();
+
+        // parsed queries use simple type names
+        Group groups = Group.newInstance();
+        for(int i = 0; i < 200; i++) {
+            groups.getNodes().add(Group.newBuilder().withName("group-" + i).build());
+        }
+        for(int i = 0; i < 5; i++) {
+            groups.getNodes().add(Node.newBuilder().withName("node-" + i).
+                withPressure(i).build());
+        }
+
+        TypeIndex types = Selector.typeIndex(groups);
+        Selector nodes = Selector.query("Node[pressure > 1]");
+        explanation = nodes.explain(groups);
+        assertTrue(explanation.isIndexed());
+        assertTrue(explanation.getSteps().get(0).startsWith("lookup type index Node"));
+        assertEquals(5, explanation.getActualCandidates());
+        assertEquals(3, explanation.getActualRows());
+        assertEquals(3, nodes.selectFrom(groups).size());
+        assertEquals(206, types.lookup("Node").size());
+
+        types.unsubscribe();
+    }
+
+    @Test public void subtreeTest() {
+
+        Group root = Group.newInstance();
+        Group sub = Group.newBuilder().withName("sub").build();
+        Node sibling = Node.newBuilder().withName("sib").build();
+        root.getNodes().add(sub);
+        root.getNodes().add(sibling);
+
+        Node in = Node.newBuilder().withName("in").build();
+        sub.getNodes().add(in);
+
+        // the tree of a subtree ends at the subtree (no container, no siblings)
+        List<VObject> synced = new ArrayList<>();
+        Subscription s = Selector.selectObject().syncWith(sub, synced);
+        assertEquals(Arrays.asList(sub, in), synced);
+
+        PropertyIndex index = Selector.index(sub, "name");
+        assertTrue(index.lookup("sib").isEmpty());
+        assertTrue(Selector.query("[name = 'sib']").selectFrom(sub).isEmpty());
+        assertEquals(Arrays.asList(in), Selector.query("[name = 'in']").selectFrom(sub));
+
+        // changes outside of the subtree are ignored
+        sibling.setName("in");
+        root.getNodes().add(Node.newBuilder().withName("in").build());
+        assertEquals(2, synced.size());
+        assertEquals(1, index.lookup("in").size());
+
+        // changes of the subtree are tracked
+        Node added = Node.newBuilder().withName("in").build();
+        sub.getNodes().add(added);
+        assertEquals(Arrays.asList(sub, in, added), synced);
+        assertEquals(2, index.lookup("in").size());
+
+        index.unsubscribe();
+        s.unsubscribe();
+        assertNull(RootContext.get(sub));
+    }
+}
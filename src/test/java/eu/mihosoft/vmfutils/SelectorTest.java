@@ -15,12 +15,38 @@
  */
 package eu.mihosoft.vmfutils;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 import eu.mihosoft.vmf.runtime.core.VObject;
+import vjavax.observer.Subscription;
 
 public class SelectorTest {
     @Test public void objectSelectionTest1(){
@@ -67,5 +93,1310 @@ public class SelectorTest {
         valvesWithHighPressure.forEach(valve->System.out.println(valve));
 
     } 
-}
 
+    @Test public void compiledSelectorTest() {
+
+        Group root = Group.newInstance();
+        root.setName("root");
+
+        Node valve = Node.newBuilder().withName("valve-01").
+            withPressure(120.0).build();
+        Group group = Group.newBuilder().withName("valve-group").
+            withPressure(150.0).build();
+        Node tank = Node.newBuilder().withName("tank").
+            withPressure(200.0).build();
+
+        root.getNodes().add(valve);
+        root.getNodes().add(group);
+        group.getNodes().add(tank);
+
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatStartsWith("valve")).
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(100.0));
+
+        Collection<VObject> result = selector.selectFrom(root);
+        assertEquals(2, result.size());
+        assertTrue(result.contains(valve));
+        assertTrue(result.contains(group));
+
+        // type restriction
+        selector.withType(group.vmf().reflect().type().getName());
+        result = selector.selectFrom(root);
+        assertEquals(1, result.size());
+        assertTrue(result.contains(group));
+
+        // unrestricted conditions are tested against all properties
+        result = Selector.selectObject().
+            withProperty((p)->"tank".equals(p.get())).selectFrom(root);
+        assertEquals(1, result.size());
+        assertTrue(result.contains(tank));
+
+        // conflicting names can't match
+        result = Selector.selectObject().
+            withProperty(Selector.selectProp().withName("name").
+                withName("pressure")).selectFrom(root);
+        assertTrue(result.isEmpty());
+    }
+
+    @Test public void syncWithPropertyChangesTest() {
+
+        List<VObject> valvesWithHighPressure = new ArrayList<>();
+
+        Group root = Group.newInstance();
+
+        Subscription subscription = Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatStartsWith("valve")).
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(100.0)).
+            withProperty(Selector.selectListProp().withName("tags").
+                whichContains("print-head")).
+        syncWith(root, valvesWithHighPressure);
+
+        Group group = Group.newBuilder().withName("group").build();
+        Node valve = Node.newBuilder().withName("valve-01").
+            withPressure(89.0).withTags("print-head").build();
+        group.getNodes().add(valve);
+        root.getNodes().add(group);
+
+        assertTrue(valvesWithHighPressure.isEmpty());
+
+        // scalar property crosses the threshold
+        valve.setPressure(120.0);
+        assertEquals(1, valvesWithHighPressure.size());
+        assertTrue(valvesWithHighPressure.contains(valve));
+
+        valve.setPressure(80.0);
+        assertTrue(valvesWithHighPressure.isEmpty());
+
+        valve.setPressure(130.0);
+        valve.setName("tank");
+        assertTrue(valvesWithHighPressure.isEmpty());
+
+        valve.setName("valve-01");
+        valve.getTags().clear();
+        assertTrue(valvesWithHighPressure.isEmpty());
+
+        valve.getTags().add("print-head");
+        assertEquals(1, valvesWithHighPressure.size());
+
+        // moving the object within the tree doesn't change the selection
+        root.getNodes().add(valve);
+        assertEquals(1, valvesWithHighPressure.size());
+        assertTrue(valvesWithHighPressure.contains(valve));
+
+        // removing the subtree removes the matching objects
+        group.getNodes().add(valve);
+        root.getNodes().remove(group);
+        assertTrue(valvesWithHighPressure.isEmpty());
+
+        // detached objects are not tracked anymore
+        valve.setPressure(140.0);
+        assertTrue(valvesWithHighPressure.isEmpty());
+
+        root.getNodes().add(group);
+        assertEquals(1, valvesWithHighPressure.size());
+
+        subscription.unsubscribe();
+        valve.setPressure(10.0);
+        assertEquals(1, valvesWithHighPressure.size());
+    }
+
+    @Test public void multiLiteralStringSelectorTest() {
+
+        Group root = Group.newInstance();
+
+        String[] names = {"valve-01", "valve-02", "pump-01", "tank", "main-pump",
+            "pre-valve", "vent"};
+
+        for(String name : names) {
+            root.getNodes().add(Node.newBuilder().withName(name).build());
+        }
+
+        assertEquals(3, Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatStartsWithAnyOf("valve", "pump", "pumps")).
+            selectFrom(root).size());
+
+        assertEquals(2, Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatEndsWithAnyOf("-01", "-03")).
+            selectFrom(root).size());
+
+        assertEquals(5, Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatContainsAnyOf("alv", "pump")).
+            selectFrom(root).size());
+
+        assertEquals(2, Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatMatches("v.*-0[0-9]")).
+            selectFrom(root).size());
+
+        // compare the automaton with the naive implementation
+        Random rnd = new Random(42);
+        for(int i = 0; i < 200; i++) {
+            List<String> literals = new ArrayList<>();
+            for(int j = 0; j < 1 + rnd.nextInt(8); j++) {
+                literals.add(randomString(rnd, rnd.nextInt(4)));
+            }
+
+            Predicate<String> prefixes = StringMatchers.startsWithAnyOf(literals);
+            Predicate<String> suffixes = StringMatchers.endsWithAnyOf(literals);
+            Predicate<String> contains = StringMatchers.containsAnyOf(literals);
+
+            for(int j = 0; j < 50; j++) {
+                String s = randomString(rnd, rnd.nextInt(12));
+                assertEquals(literals.stream().anyMatch(s::startsWith), prefixes.test(s));
+                assertEquals(literals.stream().anyMatch(s::endsWith), suffixes.test(s));
+                assertEquals(literals.stream().anyMatch(s::contains), contains.test(s));
+            }
+        }
+    }
+
+    @Test public void lazySelectionTest() {
+
+        Group root = Group.newInstance();
+
+        for(int i = 0; i < 100; i++) {
+            root.getNodes().add(Node.newBuilder().withName("valve-" + i).
+                withPressure(i * 5.0).build());
+        }
+
+        int[] evaluated = {0};
+
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatMatches((String name) -> {
+                    evaluated[0]++;
+                    return name != null && name.startsWith("valve");
+                })).
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(300.0));
+
+        assertEquals(39, selector.count(root));
+
+        evaluated[0] = 0;
+        assertTrue(selector.anyMatch(root));
+        // root + valve-0 ... valve-61 (first match)
+        assertEquals(63, evaluated[0]);
+
+        assertEquals(root.getNodes().get(61), selector.findFirst(root).get());
+        assertEquals(5, selector.selectFrom(root, 5).size());
+
+        Iterator<VObject> it = selector.iterator(root);
+        assertEquals(root.getNodes().get(61), it.next());
+        assertEquals(root.getNodes().get(62), it.next());
+
+        assertEquals("name", Selector.selectStringProp().
+            withValueThatStartsWith("valve").findFirst(root.getNodes().get(0)).
+            get().getName());
+    }
+
+    @Test public void parallelSelectionTest() {
+
+        Group root = Group.newInstance();
+
+        for(int i = 0; i < 20; i++) {
+            Group group = Group.newBuilder().withName("group-" + i).build();
+            root.getNodes().add(group);
+            for(int j = 0; j < 200; j++) {
+                group.getNodes().add(Node.newBuilder().withName("valve-" + i + "-" + j).
+                    withPressure(j).build());
+            }
+        }
+
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatStartsWith("valve")).
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(100.0));
+
+        List<VObject> expected = new ArrayList<>(selector.selectFrom(root));
+        assertEquals(20 * 99, expected.size());
+
+        // sequential fallback
+        assertEquals(expected, new ArrayList<>(selector.selectFromParallel(root)));
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            assertEquals(expected, new ArrayList<>(
+                selector.selectFromParallel(root, pool, 100)));
+            assertEquals(expected, new ArrayList<>(
+                selector.selectFromParallel(root, executor, 100)));
+
+            // the traversal is split right below the root
+            assertEquals(expected, new ArrayList<>(
+                selector.selectFromParallel(root, pool, 1)));
+        } finally {
+            pool.shutdown();
+            executor.shutdown();
+        }
+    }
+
+    private static String randomString(Random rnd, int length) {
+        StringBuilder sb = new StringBuilder();
+        for(int i = 0; i < length; i++) {
+            sb.append((char)('a' + rnd.nextInt(3)));
+        }
+        return sb.toString();
+    }
+
+    @Test public void metricsTest() throws Exception {
+
+        Group root = Group.newInstance();
+
+        for(int i = 0; i < 10; i++) {
+            root.getNodes().add(Node.newBuilder().
+                withName((i % 2 == 0 ? "valve-" : "pump-") + i).
+                withPressure(i * 10.0).build());
+        }
+
+        long[] events = new long[2];
+
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatStartsWith("valve")).
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(50.0)).
+            withMetrics("valves", new SelectorMetrics.Listener() {
+                @Override
+                public void selectionCompleted(SelectorMetrics metrics, long matches, long nanos) {
+                    events[0]++;
+                }
+
+                @Override
+                public void changeProcessed(SelectorMetrics metrics, int added, int removed, long nanos) {
+                    events[1]++;
+                }
+            });
+
+        assertEquals(2, selector.selectFrom(root).size());
+
+        SelectorMetrics metrics = selector.getMetrics();
+        assertEquals("valves", metrics.getName());
+        assertEquals(1, metrics.getSelections());
+        assertEquals(1, events[0]);
+        // root + 10 nodes
+        assertEquals(11, metrics.getObjectsEvaluated());
+        assertEquals(2, metrics.getMatches());
+        // the root and the pumps are rejected by the name condition, only the
+        // valves are tested against the pressure condition
+        assertArrayEquals(new long[]{11, 5}, metrics.getConditionEvaluations());
+        assertArrayEquals(new long[]{6, 3}, metrics.getConditionRejections());
+        assertEquals(0.6, metrics.getConditionRejectionRates()[1], 1e-9);
+        assertEquals(1, Arrays.stream(metrics.getSelectionTimeHistogram()).sum());
+
+        metrics.reset();
+
+        List<VObject> synced = new ArrayList<>();
+        Subscription s = selector.syncWith(root, synced);
+        assertEquals(2, synced.size());
+        assertEquals(1, metrics.getSelections());
+
+        root.getNodes().get(0).setPressure(100.0);
+        assertEquals(3, synced.size());
+        assertEquals(1, metrics.getChangeEvents());
+        assertEquals(1, metrics.getObjectsAdded());
+        assertEquals(0, metrics.getObjectsRemoved());
+        assertEquals(1, events[1]);
+
+        root.getNodes().remove(0);
+        assertEquals(2, synced.size());
+        assertEquals(1, metrics.getObjectsRemoved());
+
+        s.unsubscribe();
+
+        // jmx
+        Subscription mbean = Selector.registerMBean(metrics);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("eu.mihosoft.vmfutils:type=Selector,name="
+            + ObjectName.quote("valves"));
+        assertEquals(metrics.getMatches(), server.getAttribute(name, "Matches"));
+        mbean.unsubscribe();
+        assertFalse(server.isRegistered(name));
+
+        // metrics are disabled by default
+        assertNull(Selector.selectObject().getMetrics());
+    }
+
+    @Test public void sharedNetworkTest() {
+
+        Group root = Group.newInstance();
+
+        for(int i = 0; i < 20; i++) {
+            root.getNodes().add(Node.newBuilder().
+                withName((i % 2 == 0 ? "valve-" : "pump-") + i).
+                withPressure(i * 20.0).build());
+        }
+
+        Selector[] selectors = {
+            Selector.selectObject().
+                withProperty(Selector.selectStringProp().withName("name").
+                    withValueThatStartsWith("valve")).
+                withProperty(Selector.selectDoubleProp().withName("pressure").
+                    withValueThatIsGreaterThan(100.0)),
+            Selector.selectObject().
+                withProperty(Selector.selectStringProp().withName("name").
+                    withValueThatStartsWith("valve")).
+                withProperty(Selector.selectDoubleProp().withName("pressure").
+                    withValueThatIsGreaterThan(200.0)),
+            Selector.selectObject().
+                withProperty(Selector.selectStringProp().withName("name").
+                    withValueThatStartsWith("valve")),
+            Selector.selectObject().
+                withProperty(Selector.selectDoubleProp().withName("pressure").
+                    withValueThatIsGreaterThan(100.0))
+        };
+
+        List<List<VObject>> synced = new ArrayList<>();
+        List<Subscription> subscriptions = new ArrayList<>();
+        for(Selector selector : selectors) {
+            List<VObject> result = new ArrayList<>();
+            subscriptions.add(selector.syncWith(root, result));
+            synced.add(result);
+        }
+
+        // startsWith("valve"), > 100, > 200
+        assertEquals(3, RootContext.get(root).getNetwork().getNodeCount());
+
+        Random rnd = new Random(3);
+        for(int i = 0; i < 200; i++) {
+            Node node = root.getNodes().get(rnd.nextInt(root.getNodes().size()));
+            switch(rnd.nextInt(4)) {
+                case 0:
+                    node.setPressure(rnd.nextInt(300));
+                    break;
+                case 1:
+                    node.setName((rnd.nextBoolean() ? "valve-" : "pump-") + i);
+                    break;
+                case 2:
+                    root.getNodes().remove(node);
+                    break;
+                default:
+                    root.getNodes().add(Node.newBuilder().withName("valve-" + i).
+                        withPressure(rnd.nextInt(300)).build());
+            }
+
+            for(int s = 0; s < selectors.length; s++) {
+                assertEquals(new HashSet<>(selectors[s].selectFrom(root)),
+                    new HashSet<>(synced.get(s)));
+            }
+        }
+
+        subscriptions.remove(0).unsubscribe();
+        assertEquals(3, RootContext.get(root).getNetwork().getNodeCount());
+        subscriptions.remove(0).unsubscribe();
+        assertEquals(2, RootContext.get(root).getNetwork().getNodeCount());
+
+        subscriptions.forEach(Subscription::unsubscribe);
+        assertNull(RootContext.get(root));
+    }
+
+    @Test public void adaptiveOrderTest() {
+
+        Group root = Group.newInstance();
+
+        for(int i = 0; i < 1000; i++) {
+            root.getNodes().add(Node.newBuilder().withName("node-" + i).
+                withPressure(i).build());
+        }
+
+        // the first condition (almost) never rejects, the second rejects
+        // almost every object
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatStartsWith("node")).
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(990.0)).
+            withMetrics("adaptive");
+
+        SelectorPlan plan = ((SelectorImpl) selector).compile();
+        assertArrayEquals(new int[]{0, 1}, plan.getOrder());
+
+        for(int i = 0; i < 20; i++) {
+            assertEquals(9, selector.selectFrom(root).size());
+        }
+
+        assertArrayEquals(new int[]{1, 0}, plan.getOrder());
+
+        selector.getMetrics().reset();
+        assertEquals(9, selector.selectFrom(root).size());
+
+        long[] evaluations = selector.getMetrics().getConditionEvaluations();
+        assertEquals(1001, evaluations[1]);
+        assertTrue(evaluations[0] < 100);
+
+        // user defined predicates are not reordered
+        Selector userSelector = Selector.selectObject().
+            withProperty((p) -> "name".equals(p.getName())).
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(990.0));
+
+        plan = ((SelectorImpl) userSelector).compile();
+        for(int i = 0; i < 20; i++) {
+            assertEquals(9, userSelector.selectFrom(root).size());
+        }
+        assertArrayEquals(new int[]{0, 1}, plan.getOrder());
+    }
+
+    @Test public void primitivePredicateTest() {
+
+        Group root = Group.newInstance();
+
+        for(int i = 0; i < 100; i++) {
+            root.getNodes().add(Node.newBuilder().withName("node-" + i).
+                withPressure(i).build());
+        }
+
+        Node node = root.getNodes().get(42);
+        ToDoubleFunction<Object> getter =
+            PrimitiveAccessors.doubleGetter(node.getClass(), "pressure");
+        assertEquals(42.0, getter.applyAsDouble(node), 0.0);
+        assertNull(PrimitiveAccessors.doubleGetter(node.getClass(), "name"));
+        assertNull(PrimitiveAccessors.intGetter(node.getClass(), "pressure"));
+
+        DoublePropSelector primitive = Selector.selectDoubleProp().withName("pressure").
+            withValueThatIsGreaterThan(10.0).
+            withDoubleValueThatMatches((p) -> p % 2 == 0);
+
+        assertEquals(double.class, ((PropSelectorImpl) primitive).getPrimitiveType());
+
+        Selector primitiveSelector = Selector.selectObject().withProperty(primitive);
+        Selector boxedSelector = Selector.selectObject().withProperty(
+            Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(10.0).
+                withValueThatMatches((Double p) -> p % 2 == 0));
+
+        // 12, 14, ..., 98
+        assertEquals(44, primitiveSelector.selectFrom(root).size());
+        assertEquals(boxedSelector.selectFrom(root), primitiveSelector.selectFrom(root));
+
+        // the property based predicate is equivalent
+        assertTrue(primitive.asPredicate().test(node.vmf().reflect().properties().stream().
+            filter((p) -> "pressure".equals(p.getName())).findFirst().get()));
+
+        // not restricted to one property, evaluated on the properties
+        assertNull(((PropSelectorImpl) Selector.selectDoubleProp().
+            withDoubleValueThatMatches((p) -> p > 1)).getPrimitiveType());
+        assertNull(((PropSelectorImpl) Selector.selectDoubleProp().withName("pressure").
+            withValueThatIsEqualTo(42.0)).getPrimitiveType());
+    }
+
+    @Test public void listContainmentTest() {
+
+        Group root = Group.newInstance();
+        Random rnd = new Random(11);
+
+        for(int i = 0; i < 500; i++) {
+            Node node = Node.newBuilder().withName("node-" + i).build();
+            int numTags = rnd.nextInt(5);
+            for(int t = 0; t < numTags; t++) {
+                node.getTags().add("tag-" + rnd.nextInt(4));
+            }
+            root.getNodes().add(node);
+        }
+
+        // lists with duplicates (multiset semantics)
+        Node dup = root.getNodes().get(0);
+        dup.getTags().clear();
+        dup.getTags().addAll(Arrays.asList("tag-0", "tag-0", "tag-1"));
+
+        assertTrue(Selector.selectObject().withProperty(Selector.selectListProp().
+            withName("tags").whichOnlyContains("tag-0", "tag-1", "tag-0")).
+            selectFrom(root).contains(dup));
+        assertFalse(Selector.selectObject().withProperty(Selector.selectListProp().
+            withName("tags").whichOnlyContains("tag-0", "tag-1", "tag-1")).
+            selectFrom(root).contains(dup));
+
+        ElementDictionary dictionary = ElementDictionary.newInstance();
+
+        for(int q = 0; q < 50; q++) {
+            List<String> query = new ArrayList<>();
+            int numElements = rnd.nextInt(4);
+            for(int e = 0; e < numElements; e++) {
+                query.add("tag-" + rnd.nextInt(4));
+            }
+
+            List<VObject> containsExpected = new ArrayList<>();
+            List<VObject> onlyContainsExpected = new ArrayList<>();
+            List<Node> objects = new ArrayList<>();
+            objects.add(root);
+            objects.addAll(root.getNodes());
+
+            for(Node node : objects) {
+                if(node.getTags().containsAll(query)) {
+                    containsExpected.add(node);
+                }
+                List<String> sortedTags = new ArrayList<>(node.getTags());
+                List<String> sortedQuery = new ArrayList<>(query);
+                sortedTags.sort(null);
+                sortedQuery.sort(null);
+                if(sortedTags.equals(sortedQuery)) {
+                    onlyContainsExpected.add(node);
+                }
+            }
+
+            for(ElementDictionary dict : Arrays.asList(null, dictionary)) {
+                ListPropSelector contains = Selector.selectListProp().withName("tags");
+                ListPropSelector onlyContains = Selector.selectListProp().withName("tags");
+                if(dict != null) {
+                    contains.withDictionary(dict);
+                    onlyContains.withDictionary(dict);
+                }
+
+                assertEquals(containsExpected, Selector.selectObject().
+                    withProperty(contains.whichContains(query)).selectFrom(root));
+                assertEquals(onlyContainsExpected, Selector.selectObject().
+                    withProperty(onlyContains.whichOnlyContains(query)).selectFrom(root));
+            }
+
+            // cached bitsets follow list changes
+            Node node = root.getNodes().get(1 + rnd.nextInt(root.getNodes().size() - 1));
+            node.getTags().add("tag-" + rnd.nextInt(4));
+        }
+
+        assertEquals(4, dictionary.size());
+    }
+
+    @Test public void aggregateTest() {
+
+        Group root = Group.newInstance();
+        Random rnd = new Random(5);
+
+        for(int i = 0; i < 200; i++) {
+            root.getNodes().add(Node.newBuilder().withName("valve-" + i).
+                withPressure(rnd.nextInt(1000) / 10.0).build());
+        }
+
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatStartsWith("valve")).
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(50.0));
+
+        Aggregate aggregate = selector.aggregate(root, "pressure");
+
+        for(int i = 0; i < 300; i++) {
+            Node node = root.getNodes().get(rnd.nextInt(root.getNodes().size()));
+
+            switch(rnd.nextInt(4)) {
+                case 0:
+                    node.setName(node.getName().startsWith("valve")
+                        ? "pump-" + i : "valve-" + i);
+                    break;
+                case 1:
+                    root.getNodes().remove(node);
+                    break;
+                case 2:
+                    root.getNodes().add(Node.newBuilder().withName("valve-" + i).
+                        withPressure(rnd.nextInt(1000) / 10.0).build());
+                    break;
+                default:
+                    node.setPressure(rnd.nextInt(1000) / 10.0);
+            }
+
+            Collection<VObject> expected = selector.selectFrom(root);
+            double[] values = expected.stream().
+                mapToDouble((o) -> ((Node) o).getPressure()).toArray();
+
+            assertEquals(expected.size(), aggregate.getCount());
+            assertEquals(Arrays.stream(values).sum(), aggregate.getSum(), 1e-9);
+            assertEquals(Arrays.stream(values).min().orElse(Double.NaN),
+                aggregate.getMin(), 0.0);
+            assertEquals(Arrays.stream(values).max().orElse(Double.NaN),
+                aggregate.getMax(), 0.0);
+            assertEquals(Arrays.stream(values).average().orElse(Double.NaN),
+                aggregate.getAverage(), 1e-9);
+        }
+
+        aggregate.unsubscribe();
+
+        // infinite values do not corrupt the sum of the finite values
+        aggregate = Selector.selectObject().withProperty(Selector.selectStringProp().
+            withName("name").withValueThatStartsWith("valve")).aggregate(root, "pressure");
+        double finiteSum = aggregate.getSum();
+        Node positive = Node.newBuilder().withName("valve-pos").
+            withPressure(Double.POSITIVE_INFINITY).build();
+        Node negative = Node.newBuilder().withName("valve-neg").
+            withPressure(Double.NEGATIVE_INFINITY).build();
+        root.getNodes().add(positive);
+        assertEquals(Double.POSITIVE_INFINITY, aggregate.getSum(), 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, aggregate.getMax(), 0.0);
+        root.getNodes().add(negative);
+        assertTrue(Double.isNaN(aggregate.getSum()));
+        assertTrue(Double.isNaN(aggregate.getAverage()));
+        root.getNodes().remove(positive);
+        assertEquals(Double.NEGATIVE_INFINITY, aggregate.getSum(), 0.0);
+        negative.setPressure(60.0);
+        assertEquals(finiteSum + 60.0, aggregate.getSum(), 1e-9);
+        root.getNodes().remove(negative);
+        assertEquals(finiteSum, aggregate.getSum(), 1e-9);
+
+        aggregate.unsubscribe();
+        assertNull(RootContext.get(root));
+    }
+
+    @Test public void groupedByTest() {
+
+        Group root = Group.newInstance();
+        Random rnd = new Random(17);
+
+        for(int i = 0; i < 100; i++) {
+            root.getNodes().add(Node.newBuilder().withName("node-" + rnd.nextInt(5)).
+                withPressure(rnd.nextInt(100)).build());
+        }
+
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsLessThan(50.0));
+
+        Map<Object, Collection<VObject>> groups = new HashMap<>();
+        Subscription subscription = selector.syncGroupedBy(root, "name", groups);
+
+        for(int i = 0; i < 200; i++) {
+            Node node = root.getNodes().get(rnd.nextInt(root.getNodes().size()));
+
+            switch(rnd.nextInt(4)) {
+                case 0:
+                    node.setName("node-" + rnd.nextInt(7));
+                    break;
+                case 1:
+                    root.getNodes().remove(node);
+                    break;
+                case 2:
+                    root.getNodes().add(Node.newBuilder().withName("node-" + rnd.nextInt(7)).
+                        withPressure(rnd.nextInt(100)).build());
+                    break;
+                default:
+                    node.setPressure(rnd.nextInt(100));
+            }
+
+            Map<Object, Set<VObject>> expected = new HashMap<>();
+            for(VObject vObj : selector.selectFrom(root)) {
+                expected.computeIfAbsent(((Node) vObj).getName(),
+                    (k) -> new HashSet<>()).add(vObj);
+            }
+
+            assertEquals(expected.keySet(), groups.keySet());
+            for(Object key : expected.keySet()) {
+                assertEquals(expected.get(key), new HashSet<>(groups.get(key)));
+            }
+        }
+
+        subscription.unsubscribe();
+        assertNull(RootContext.get(root));
+    }
+
+    @Test public void topKTest() {
+
+        Group root = Group.newInstance();
+        Random rnd = new Random(23);
+
+        for(int i = 0; i < 1000; i++) {
+            root.getNodes().add(Node.newBuilder().withName("node-" + i).
+                withPressure(rnd.nextInt(200)).build());
+        }
+
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatStartsWith("node"));
+
+        List<VObject> top = selector.selectTop(root, "pressure", 20);
+        List<VObject> bottom = selector.selectBottom(root, "pressure", 20);
+        assertEquals(20, top.size());
+        assertEquals(rank(selector.selectFrom(root), true).subList(0, 20), top);
+        assertEquals(rank(selector.selectFrom(root), false).subList(0, 20), bottom);
+        assertTrue(selector.selectTop(root, "pressure", 0).isEmpty());
+
+        List<VObject> liveTop = new ArrayList<>();
+        List<VObject> liveBottom = new ArrayList<>();
+        Subscription s1 = selector.syncTop(root, "pressure", 20, liveTop);
+        Subscription s2 = selector.syncBottom(root, "pressure", 5, liveBottom);
+
+        for(int i = 0; i < 300; i++) {
+            Node node = root.getNodes().get(rnd.nextInt(root.getNodes().size()));
+
+            switch(rnd.nextInt(4)) {
+                case 0:
+                    node.setName(node.getName().startsWith("node")
+                        ? "pump-" + i : "node-" + i);
+                    break;
+                case 1:
+                    root.getNodes().remove(node);
+                    break;
+                default:
+                    node.setPressure(rnd.nextInt(200));
+            }
+
+            // ties are ranked by insertion order, we compare the values
+            List<VObject> expectedTop = rank(selector.selectFrom(root), true);
+            List<VObject> expectedBottom = rank(selector.selectFrom(root), false);
+
+            assertEquals(20, liveTop.size());
+            for(int j = 0; j < 20; j++) {
+                assertEquals(((Node) expectedTop.get(j)).getPressure(),
+                    ((Node) liveTop.get(j)).getPressure(), 0.0);
+            }
+            for(int j = 0; j < 5; j++) {
+                assertEquals(((Node) expectedBottom.get(j)).getPressure(),
+                    ((Node) liveBottom.get(j)).getPressure(), 0.0);
+            }
+        }
+
+        s1.unsubscribe();
+        s2.unsubscribe();
+        assertNull(RootContext.get(root));
+
+        // value changes keep the tie order of the tree
+        Group ties = Group.newInstance();
+        for(int i = 0; i < 5; i++) {
+            ties.getNodes().add(Node.newBuilder().withName("tie-" + i).
+                withPressure(1.0).build());
+        }
+        List<VObject> liveTies = new ArrayList<>();
+        Subscription s3 = selector.syncTop(ties, "pressure", 3, liveTies);
+        assertEquals(selector.selectTop(ties, "pressure", 3), liveTies);
+        ties.getNodes().get(0).setPressure(2.0);
+        ties.getNodes().get(0).setPressure(1.0);
+        assertEquals(selector.selectTop(ties, "pressure", 3), liveTies);
+        s3.unsubscribe();
+    }
+
+    /**
+     * Sorts the specified nodes by pressure (stable).
+     */
+    private static List<VObject> rank(Collection<VObject> nodes, boolean highest) {
+        List<VObject> result = new ArrayList<>(nodes);
+        result.sort((a, b) -> highest
+            ? Double.compare(((Node) b).getPressure(), ((Node) a).getPressure())
+            : Double.compare(((Node) a).getPressure(), ((Node) b).getPressure()));
+        return result;
+    }
+
+    @Test public void batchedSyncTest() {
+
+        Group root = Group.newInstance();
+
+        for(int i = 0; i < 100; i++) {
+            root.getNodes().add(Node.newBuilder().withName("node-" + i).
+                withPressure(i).build());
+        }
+
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(50.0));
+
+        List<VObject> synced = new ArrayList<>();
+        List<SelectionDelta> deltas = new ArrayList<>();
+        Subscription subscription = selector.syncWith(root, synced, deltas::add);
+        Aggregate aggregate = selector.aggregate(root, "pressure");
+
+        assertEquals(49, synced.size());
+        assertTrue(deltas.isEmpty());
+
+        // without a batch every change is reported
+        root.getNodes().get(0).setPressure(60.0);
+        assertEquals(1, deltas.size());
+        assertEquals(1, deltas.get(0).getAdded().size());
+
+        deltas.clear();
+
+        try(ChangeBatch batch = Selector.batch(root)) {
+            for(Node node : root.getNodes()) {
+                node.setPressure(node.getPressure() + 10.0);
+            }
+
+            // added and removed again (coalesced)
+            Node node = Node.newBuilder().withPressure(100.0).build();
+            root.getNodes().add(node);
+            root.getNodes().remove(node);
+
+            // removed and added again (coalesced)
+            root.getNodes().get(99).setPressure(0.0);
+            root.getNodes().get(99).setPressure(109.0);
+
+            assertEquals(50, synced.size());
+            assertTrue(deltas.isEmpty());
+
+            batch.flush();
+            assertEquals(1, deltas.size());
+            assertEquals(10, deltas.get(0).getAdded().size());
+            assertTrue(deltas.get(0).getRemoved().isEmpty());
+
+            root.getNodes().get(0).setPressure(0.0);
+            assertEquals(60, synced.size());
+        }
+
+        assertEquals(2, deltas.size());
+        assertEquals(1, deltas.get(1).getRemoved().size());
+        assertEquals(59, synced.size());
+        assertEquals(new HashSet<>(selector.selectFrom(root)), new HashSet<>(synced));
+        assertEquals(59, aggregate.getCount());
+
+        subscription.unsubscribe();
+        aggregate.unsubscribe();
+        assertNull(RootContext.get(root));
+    }
+
+    @Test public void suspendViewsTest() {
+
+        Group root = Group.newInstance();
+        root.getNodes().add(Node.newBuilder().withName("node").withPressure(80.0).build());
+        root.getNodes().add(Node.newBuilder().withName("node").withPressure(10.0).build());
+
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(50.0));
+
+        List<VObject> synced = new ArrayList<>();
+        List<SelectionDelta> deltas = new ArrayList<>();
+        Subscription subscription = selector.syncWith(root, synced, deltas::add);
+        Aggregate aggregate = Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatIsEqualTo("node")).aggregate(root, "pressure");
+
+        assertEquals(1, synced.size());
+
+        Random rnd = new Random(3);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            ViewSuspension suspension = Selector.suspendViews(root);
+
+            for(int i = 0; i < 1000; i++) {
+                Group group = Group.newBuilder().withName("group").build();
+                for(int j = 0; j < 5; j++) {
+                    group.getNodes().add(Node.newBuilder().withName("node").
+                        withPressure(rnd.nextInt(100)).build());
+                }
+                root.getNodes().add(group);
+            }
+
+            root.getNodes().get(0).setPressure(0.0);
+            root.getNodes().get(1).setPressure(100.0);
+
+            // the views are not updated while suspended
+            assertEquals(1, synced.size());
+            assertTrue(deltas.isEmpty());
+            assertEquals(2, aggregate.getCount());
+
+            suspension.resume(executor);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(new HashSet<>(selector.selectFrom(root)), new HashSet<>(synced));
+        assertEquals(synced.size(), selector.count(root));
+        assertEquals(1, deltas.size());
+        assertEquals(5002, aggregate.getCount());
+
+        // the views are live again
+        root.getNodes().get(1).setPressure(0.0);
+        assertEquals(synced.size(), selector.count(root));
+        assertEquals(2, deltas.size());
+
+        subscription.unsubscribe();
+        aggregate.unsubscribe();
+        assertNull(RootContext.get(root));
+    }
+
+    @Test public void compositionTest() {
+
+        Group root = Group.newInstance();
+        Random rnd = new Random(29);
+
+        for(int i = 0; i < 300; i++) {
+            root.getNodes().add(Node.newBuilder().
+                withName((rnd.nextBoolean() ? "valve-" : "pump-") + i).
+                withPressure(rnd.nextInt(100)).build());
+        }
+
+        StringPropSelector valves = Selector.selectStringProp().withName("name").
+            withValueThatStartsWith("valve");
+        DoublePropSelector high = Selector.selectDoubleProp().withName("pressure").
+            withValueThatIsGreaterThan(80.0);
+        DoublePropSelector low = Selector.selectDoubleProp().withName("pressure").
+            withValueThatIsLessThan(20.0);
+
+        Selector highValves = Selector.selectObject().withProperty(valves).withProperty(high);
+        Selector lowValves = Selector.selectObject().withProperty(valves).withProperty(low);
+
+        Predicate<Node> isValve = (n) -> n.getName() != null && n.getName().startsWith("valve");
+        Predicate<Node> isHigh = (n) -> n.getPressure() > 80.0;
+        Predicate<Node> isLow = (n) -> n.getPressure() < 20.0;
+
+        // the shared 'valves' condition is evaluated once per object
+        Selector either = highValves.or(lowValves).withMetrics("either");
+        assertEquals(expected(root, isValve.and(isHigh.or(isLow))),
+            new HashSet<>(either.selectFrom(root)));
+        assertEquals(3, either.getMetrics().getConditionEvaluations().length);
+        assertEquals(root.getNodes().size() + 1,
+            either.getMetrics().getConditionEvaluations()[0]);
+        assertEquals(expected(root, isValve.and(isHigh).negate()),
+            new HashSet<>(highValves.negate().selectFrom(root)));
+        assertEquals(expected(root, isValve.and(isHigh).and(isValve.and(isLow))),
+            new HashSet<>(highValves.and(lowValves).selectFrom(root)));
+        assertEquals(expected(root, isValve.and(isHigh.or(isLow))),
+            new HashSet<>(Selector.selectObject().withProperty(valves).
+                withAnyProperty(high, low).selectFrom(root)));
+        assertEquals(expected(root, isValve.and(isHigh.negate())),
+            new HashSet<>(Selector.selectObject().withProperty(valves).
+                withoutProperty(high).selectFrom(root)));
+
+        // the operands are not modified
+        assertEquals(expected(root, isValve.and(isHigh)),
+            new HashSet<>(highValves.selectFrom(root)));
+
+        // composed selectors can be synced
+        Selector composed = highValves.or(lowValves).negate();
+        List<VObject> synced = new ArrayList<>();
+        Subscription subscription = composed.syncWith(root, synced);
+
+        for(int i = 0; i < 200; i++) {
+            Node node = root.getNodes().get(rnd.nextInt(root.getNodes().size()));
+            if(rnd.nextBoolean()) {
+                node.setPressure(rnd.nextInt(100));
+            } else {
+                node.setName((rnd.nextBoolean() ? "valve-" : "pump-") + i);
+            }
+        }
+
+        assertEquals(new HashSet<>(composed.selectFrom(root)), new HashSet<>(synced));
+        subscription.unsubscribe();
+    }
+
+    private static Set<VObject> expected(Group root, Predicate<Node> pred) {
+        Set<VObject> result = new HashSet<>();
+        root.vmf().content().stream().filter((o) -> o instanceof Node).
+            filter((o) -> pred.test((Node) o)).forEach(result::add);
+        return result;
+    }
+
+    @Test public void structuralSelectionTest() {
+
+        Group root = Group.newBuilder().withName("root").build();
+        Random rnd = new Random(31);
+
+        for(int i = 0; i < 5; i++) {
+            Group line = Group.newBuilder().withName("line-" + i).build();
+            root.getNodes().add(line);
+            for(int j = 0; j < 4; j++) {
+                Group unit = Group.newBuilder().withName("unit").build();
+                line.getNodes().add(unit);
+                for(int k = 0; k < 10; k++) {
+                    unit.getNodes().add(Node.newBuilder().withName("node").
+                        withPressure(rnd.nextInt(100)).build());
+                }
+            }
+        }
+
+        Selector line1 = Selector.selectObject().withProperty(
+            Selector.selectStringProp().withName("name").withValueThatIsEqualTo("line-1"));
+        Selector critical = Selector.selectObject().withProperty(
+            Selector.selectDoubleProp().withName("pressure").withValueThatIsGreaterThan(95.0));
+
+        Predicate<Node> inLine1 = (n) -> {
+            for(Group g = n.getParent(); g != null; g = g.getParent()) {
+                if("line-1".equals(g.getName())) {
+                    return true;
+                }
+            }
+            return false;
+        };
+        Predicate<Node> hasCritical = (n) -> n instanceof Group
+            && ((Group) n).getNodes().stream().anyMatch((c) -> c.getPressure() > 95.0);
+
+        assertEquals(expected(root, (n) -> n.getParent() != null
+                && "line-1".equals(n.getParent().getName())),
+            new HashSet<>(Selector.selectObject().withParent(line1).selectFrom(root)));
+        assertEquals(expected(root, inLine1),
+            new HashSet<>(Selector.selectObject().withAncestor(line1).selectFrom(root)));
+        assertEquals(expected(root, hasCritical),
+            new HashSet<>(Selector.selectObject().withChild(critical).selectFrom(root)));
+
+        // nested and composed relations
+        Selector criticalUnitsOfLine1 = Selector.selectObject().withChild(critical).
+            withAncestor(line1);
+        assertEquals(expected(root, hasCritical.and(inLine1)),
+            new HashSet<>(criticalUnitsOfLine1.selectFrom(root)));
+        assertEquals(expected(root, (n) -> hasCritical.test(n) || inLine1.test(n)),
+            new HashSet<>(Selector.selectObject().withChild(critical).
+                or(Selector.selectObject().withAncestor(line1)).selectFrom(root)));
+        assertEquals(expected(root, (n) -> !inLine1.test(n)),
+            new HashSet<>(Selector.selectObject().withAncestor(line1).negate().selectFrom(root)));
+
+        // the containers of the selection root are its real containers
+        Group line = (Group) root.getNodes().get(1);
+        Group unit = (Group) line.getNodes().get(0);
+        assertEquals(44, Selector.selectObject().withAncestor(line1).selectFrom(line).size());
+        assertEquals(4, Selector.selectObject().withParent(line1).selectFrom(line).size());
+        assertEquals(11, Selector.selectObject().withAncestor(line1).selectFrom(unit).size());
+        assertEquals(Arrays.asList(unit),
+            Selector.selectObject().withParent(line1).selectFrom(unit));
+
+        // containment scopes prune the subtrees of other properties
+        assertEquals(expected(root, (n) -> true),
+            new HashSet<>(Selector.selectObject().withContainmentScope("nodes").selectFrom(root)));
+        assertEquals(1, Selector.selectObject().withContainmentScope("tags").selectFrom(root).size());
+
+        // single objects are evaluated via their container chain
+        Node node = unit.getNodes().get(0);
+        assertTrue(Selector.selectObject().withParent(line1).asPredicate().test(unit));
+        assertTrue(Selector.selectObject().withAncestor(line1).asPredicate().test(node));
+        assertFalse(Selector.selectObject().withAncestor(line1).asPredicate().test(root));
+        assertEquals(hasCritical.test(unit),
+            Selector.selectObject().withChild(critical).asPredicate().test(unit));
+
+        // synced views follow structural changes
+        Selector criticalInLine1 = Selector.selectObject().withAncestor(line1).
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(95.0));
+        List<VObject> synced = new ArrayList<>();
+        List<VObject> syncedUnits = new ArrayList<>();
+        Subscription s1 = criticalInLine1.syncWith(root, synced);
+        Subscription s2 = criticalUnitsOfLine1.syncWith(root, syncedUnits);
+        Predicate<Node> criticalNode = (n) -> n.getPressure() > 95.0;
+
+        Runnable check = () -> {
+            assertEquals(expected(root, criticalNode.and(inLine1)), new HashSet<>(synced));
+            assertEquals(expected(root, hasCritical.and(inLine1)), new HashSet<>(syncedUnits));
+        };
+        check.run();
+
+        node.setPressure(99.0);
+        check.run();
+        ((Group) root.getNodes().get(2)).setName("line-1");
+        check.run();
+        line.setName("line-x");
+        check.run();
+        unit.getNodes().remove(node);
+        check.run();
+        ((Group) ((Group) root.getNodes().get(2)).getNodes().get(1)).getNodes().add(node);
+        check.run();
+
+        s1.unsubscribe();
+        s2.unsubscribe();
+
+        // scoped views
+        List<VObject> scoped = new ArrayList<>();
+        Subscription s3 = Selector.selectObject().withContainmentScope("nodes").
+            syncWith(root, scoped);
+        assertEquals(expected(root, (n) -> true), new HashSet<>(scoped));
+        s3.unsubscribe();
+    }
+
+    @Test public void lazyStructuralSelectionTest() {
+
+        // deep and wide tree: a chain of groups, each with many leaves
+        Group root = Group.newBuilder().withName("level-0").build();
+        Random rnd = new Random(37);
+        Group level = root;
+
+        for(int i = 1; i <= 1000; i++) {
+            for(int j = 0; j < 20; j++) {
+                level.getNodes().add(Node.newBuilder().withName("leaf").
+                    withPressure(rnd.nextInt(1000) / 10.0).build());
+            }
+            Group next = Group.newBuilder().withName("level-" + i).build();
+            level.getNodes().add(next);
+            level = next;
+        }
+
+        Selector critical = Selector.selectObject().withProperty(
+            Selector.selectDoubleProp().withName("pressure").withValueThatIsGreaterThan(99.0));
+        Selector level500 = Selector.selectObject().withProperty(
+            Selector.selectStringProp().withName("name").withValueThatIsEqualTo("level-500"));
+
+        // parent conditions with child conditions of the parent (the
+        // children of visited frames are released)
+        Selector siblingOfCritical = Selector.selectObject().
+            withParent(Selector.selectObject().withChild(critical));
+        Predicate<Node> hasCriticalSibling = (n) -> n.getParent() != null
+            && n.getParent().getNodes().stream().anyMatch((c) -> c.getPressure() > 99.0);
+
+        assertEquals(expected(root, hasCriticalSibling),
+            siblingOfCritical.stream(root).collect(Collectors.toSet()));
+
+        // lazy streams stop early
+        List<VObject> all = new ArrayList<>(siblingOfCritical.selectFrom(root));
+        assertEquals(all.subList(0, 10),
+            siblingOfCritical.stream(root).limit(10).collect(Collectors.toList()));
+
+        Iterator<VObject> below = Selector.selectObject().withAncestor(level500).
+            stream(root).iterator();
+        int count = 0;
+        while(below.hasNext()) {
+            below.next();
+            count++;
+        }
+        assertEquals(500 * 21, count);
+    }
+
+    @Test public void queryLanguageTest() {
+
+        Group root = Group.newInstance();
+        Random rnd = new Random(37);
+
+        for(int i = 0; i < 300; i++) {
+            Node node = Node.newBuilder().
+                withName((rnd.nextBoolean() ? "valve-" : "pump-") + i).
+                withPressure(rnd.nextInt(200)).build();
+            if(rnd.nextBoolean()) {
+                node.getTags().add("print-head");
+            }
+            root.getNodes().add(node);
+        }
+
+        Predicate<Node> isValve = (n) -> n.getName() != null && n.getName().startsWith("valve");
+        Predicate<Node> isHigh = (n) -> n.getPressure() > 100.0;
+        Predicate<Node> isTagged = (n) -> n.getTags().contains("print-head");
+
+        Selector query = Selector.query(
+            "Node[name ^= \"valve\" && pressure > 100 && tags \u220B \"print-head\"]");
+        assertEquals(expected(root, isValve.and(isHigh).and(isTagged)),
+            new HashSet<>(query.selectFrom(root)));
+
+        // same result as the fluent API
+        Selector fluent = Selector.selectObject().withType("Node").
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatStartsWith("valve")).
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(100.0)).
+            withProperty(Selector.selectListProp().withName("tags").
+                whichContains("print-head"));
+        assertEquals(new HashSet<>(fluent.selectFrom(root)),
+            new HashSet<>(query.selectFrom(root)));
+
+        assertEquals(expected(root, isValve.negate().or(isHigh.negate())),
+            new HashSet<>(Selector.query(
+                "[!(name ^= 'valve') || pressure <= 100.0]").selectFrom(root)));
+        assertEquals(expected(root, isTagged.and(isValve.or(isHigh))),
+            new HashSet<>(Selector.query(
+                "[tags contains \"print-head\" && (name *= 'valve' || pressure>100)]").
+                selectFrom(root)));
+
+        Node node = root.getNodes().get(7);
+        assertEquals(Arrays.asList(node), new ArrayList<>(Selector.query(
+            "eu.mihosoft.vmfutils.Node[name == \"" + node.getName() + "\"]").
+            selectFrom(root)));
+        assertTrue(Selector.query("Node[pressure = " + (int) node.getPressure() + "]").
+            selectFrom(root).contains(node));
+
+        // parsed queries are cached, each call returns a new selector
+        Selector q1 = Selector.query("Node[pressure > 150]");
+        Selector q2 = Selector.query("Node[pressure > 150]");
+        assertTrue(q1 != q2);
+        assertTrue(((SelectorImpl) q1).compile() == ((SelectorImpl) q2).compile());
+        q1.withProperty(Selector.selectStringProp().withName("name").
+            withValueThatStartsWith("valve"));
+        assertEquals(expected(root, isValve.and((n) -> n.getPressure() > 150.0)),
+            new HashSet<>(q1.selectFrom(root)));
+        assertEquals(expected(root, (n) -> n.getPressure() > 150.0),
+            new HashSet<>(Selector.query("Node[pressure > 150]").selectFrom(root)));
+
+        for(String invalid : new String[] {"Node[name ^= ]", "Node[name ^= 42]",
+                "Node[name = 'x'", "Node[pressure > 'x']", "Node[name ? 'x']"}) {
+            try {
+                Selector.query(invalid);
+                fail("query should not be valid: " + invalid);
+            } catch(IllegalArgumentException ex) {
+                // expected
+            }
+        }
+    }
+
+    @Test public void memoizationTest() {
+
+        Group root = Group.newInstance();
+
+        for(int i = 0; i < 200; i++) {
+            root.getNodes().add(Node.newBuilder().withName("node-" + i).
+                withPressure(i).build());
+        }
+
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectStringProp().withName("name").
+                withValueThatStartsWith("node-1")).
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(100.0)).
+            withMetrics("memoized");
+        Subscription memo = selector.memoize(root);
+        SelectorMetrics metrics = selector.getMetrics();
+
+        Predicate<Node> pred = (n) -> n.getName() != null
+            && n.getName().startsWith("node-1") && n.getPressure() > 100.0;
+
+        assertEquals(expected(root, pred), new HashSet<>(selector.selectFrom(root)));
+        assertEquals(201, metrics.getObjectsEvaluated());
+
+        // cached results are reused
+        assertEquals(expected(root, pred), new HashSet<>(selector.selectFrom(root)));
+        assertTrue(selector.asPredicate().test(root.getNodes().get(150)));
+        assertEquals(201, metrics.getObjectsEvaluated());
+
+        // only objects with changed properties that are read are evaluated again
+        Node node = root.getNodes().get(150);
+        node.setPressure(50.0);
+        node.getTags().add("print-head");
+        root.getNodes().get(20).setName("node-120");
+        assertEquals(expected(root, pred), new HashSet<>(selector.selectFrom(root)));
+        assertEquals(203, metrics.getObjectsEvaluated());
+        assertFalse(selector.asPredicate().test(node));
+
+        // detached objects are not cached
+        root.getNodes().remove(node);
+        assertFalse(selector.asPredicate().test(node));
+        assertFalse(selector.asPredicate().test(node));
+        assertEquals(205, metrics.getObjectsEvaluated());
+
+        // modified selectors discard the cached results
+        selector.withType(root.getNodes().get(0).vmf().reflect().type().getName());
+        assertEquals(expected(root, pred), new HashSet<>(selector.selectFrom(root)));
+        assertEquals(205 + 200, metrics.getObjectsEvaluated());
+
+        memo.unsubscribe();
+        assertNull(RootContext.get(root));
+        selector.selectFrom(root);
+        assertEquals(205 + 400, metrics.getObjectsEvaluated());
+    }
+
+    @Test public void memoizeSubtreeTest() {
+
+        Group root = Group.newInstance();
+        Group sub = Group.newBuilder().withName("sub").build();
+        Node inside = Node.newBuilder().withName("inside").withPressure(10.0).build();
+        Node sibling = Node.newBuilder().withName("sibling").withPressure(10.0).build();
+        sub.getNodes().add(inside);
+        root.getNodes().add(sub);
+        root.getNodes().add(sibling);
+
+        Selector selector = Selector.selectObject().
+            withProperty(Selector.selectDoubleProp().withName("pressure").
+                withValueThatIsGreaterThan(5.0));
+        Subscription memo = selector.memoize(sub);
+
+        assertTrue(selector.asPredicate().test(inside));
+        assertTrue(selector.asPredicate().test(sibling));
+
+        // changes outside of the memoized subtree are not observed, the
+        // results of outside objects are not cached
+        sibling.setPressure(0.0);
+        assertFalse(selector.asPredicate().test(sibling));
+
+        inside.setPressure(0.0);
+        assertFalse(selector.asPredicate().test(inside));
+
+        // objects moved out of the subtree are not cached anymore
+        inside.setPressure(10.0);
+        assertTrue(selector.asPredicate().test(inside));
+        root.getNodes().add(inside);
+        inside.setPressure(0.0);
+        assertFalse(selector.asPredicate().test(inside));
+
+        memo.unsubscribe();
+    }
+}